@@ -0,0 +1,53 @@
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+outputDirectory = new File(basedir, 'project1/target/generated-sources/protobuf/java');
+assert outputDirectory.exists();
+assert outputDirectory.isDirectory();
+
+generatedJavaFile = new File(outputDirectory, 'it/project1/messages/TestProtos.java');
+assert generatedJavaFile.exists();
+assert generatedJavaFile.isFile();
+
+content = generatedJavaFile.text;
+assert content.contains('package it.project1.messages');
+assert content.contains('class TestProtos');
+assert content.contains('class TestMessage1');
+
+outputDirectory = new File(basedir, 'project2/target/generated-sources/protobuf/java');
+assert outputDirectory.exists();
+assert outputDirectory.isDirectory();
+
+generatedJavaFile = new File(outputDirectory, 'it/project2/messages/TestProtos.java');
+assert generatedJavaFile.exists();
+assert generatedJavaFile.isFile();
+
+content = generatedJavaFile.text;
+assert content.contains('package it.project2.messages');
+assert content.contains('class TestProtos');
+assert content.contains('class TestMessage2');
+
+entriesDirectory = new File(basedir, 'project2/target/dependency-cache/entries');
+assert entriesDirectory.exists();
+assert entriesDirectory.isDirectory();
+
+storedProtoFiles = entriesDirectory.listFiles().findAll { new File(it, 'it/project1/test1.proto').isFile() };
+assert storedProtoFiles.size() == 1;
+
+temporaryProtoFileDirectory = new File(basedir, 'project2/target/protoc-dependencies');
+assert !temporaryProtoFileDirectory.exists() || temporaryProtoFileDirectory.list().length == 0;
+
+return true;
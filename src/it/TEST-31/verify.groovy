@@ -0,0 +1,38 @@
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+outputDirectory = new File(basedir, 'project2/target/generated-sources/protobuf/java');
+assert outputDirectory.exists();
+assert outputDirectory.isDirectory();
+
+generatedJavaFile = new File(outputDirectory, 'it/project2/messages/TestProtos.java');
+assert generatedJavaFile.exists();
+assert generatedJavaFile.isFile();
+
+indexFile = new File(basedir, 'project2/dependency-cache/jar-index.txt');
+assert indexFile.exists();
+assert indexFile.isFile();
+
+indexLines = indexFile.readLines();
+assert indexLines[0] == '#protoc-jar-index:1';
+// the jar with definitions is recorded with its entries, jars without definitions are recorded too
+assert indexLines.any { it.contains('test-31-project1-1.0.0.jar') && it.endsWith('it/project1/test1.proto') };
+assert indexLines.any { it.contains('protobuf-java') };
+
+buildLog = new File(basedir, 'build.log').text;
+assert buildLog =~ /Loaded \d+ jar index entries from .*jar-index\.txt/;
+
+return true;
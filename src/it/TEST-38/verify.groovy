@@ -0,0 +1,31 @@
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+outputDirectory = new File(basedir, 'project2/target/generated-sources/protobuf/java');
+assert outputDirectory.exists();
+assert outputDirectory.isDirectory();
+
+generatedJavaFile = new File(outputDirectory, 'it/project2/messages/TestProtos.java');
+assert generatedJavaFile.exists();
+assert generatedJavaFile.isFile();
+assert generatedJavaFile.text.contains('it.project1.messages.TestProtos.TestMessage1');
+
+buildLog = new File(basedir, 'build.log').text;
+assert buildLog =~ /Excluded from proto path by dependency filters: .*:test-38-project3:/;
+assert buildLog =~ /Excluded from proto path by dependency filters: com\.google\.protobuf:protobuf-java:/;
+assert !(buildLog =~ /Excluded from proto path by dependency filters: .*:test-38-project1:/);
+
+return true;
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+outputDirectory = new File(basedir, 'target/generated-sources/protobuf/java');
+assert outputDirectory.exists();
+assert outputDirectory.isDirectory();
+
+['it/test1/Test1Protos.java', 'it/test2/Test2Protos.java', 'it/test3/Test3Protos.java'].each {
+    generatedJavaFile = new File(outputDirectory, it);
+    assert generatedJavaFile.exists();
+    assert generatedJavaFile.isFile();
+}
+assert new File(outputDirectory, 'it/test2/Test2Protos.java').text.contains('getChangedValue');
+
+importGraphFile = new File(basedir, 'target/protoc-fingerprints/compile-default.imports');
+assert importGraphFile.exists();
+assert importGraphFile.isFile();
+
+buildLog = new File(basedir, 'build.log').text;
+assert buildLog.contains('Compiling 3 proto file(s) to');
+assert buildLog.contains('Compiling 2 of 3 proto file(s) affected by changes to');
+
+return true;
@@ -0,0 +1,37 @@
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+outputDirectory = new File(basedir, 'target/generated-sources/protobuf/java');
+assert outputDirectory.exists();
+assert outputDirectory.isDirectory();
+
+generatedJavaFile = new File(outputDirectory, 'it/test1/Test1Protos.java');
+assert generatedJavaFile.exists();
+assert generatedJavaFile.isFile();
+
+assert !new File(outputDirectory, 'it/test2/Test2Protos.java').exists();
+assert new File(outputDirectory, 'extra/unrelated.txt').isFile();
+
+manifestFile = new File(basedir, 'target/protoc-fingerprints/compile-default.outputs');
+assert manifestFile.exists();
+assert manifestFile.isFile();
+assert manifestFile.text.contains('Test1Protos.java');
+assert !manifestFile.text.contains('Test2Protos.java');
+
+buildLog = new File(basedir, 'build.log').text;
+assert buildLog.contains('Removed 1 stale generated file(s)');
+
+return true;
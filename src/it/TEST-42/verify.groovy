@@ -0,0 +1,34 @@
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+outputDirectory = new File(basedir, 'target/generated-sources/protobuf/java');
+assert outputDirectory.exists();
+assert outputDirectory.isDirectory();
+
+generatedJavaFile1 = new File(outputDirectory, 'it/test1/Test1Protos.java');
+assert generatedJavaFile1.exists();
+assert generatedJavaFile1.isFile();
+
+generatedJavaFile2 = new File(outputDirectory, 'it/test2/Test2Protos.java');
+assert generatedJavaFile2.exists();
+assert generatedJavaFile2.isFile();
+assert generatedJavaFile2.text.contains('getChangedValue');
+
+buildLog = new File(basedir, 'build.log').text;
+assert buildLog =~ /Updated 2 of 2 generated file\(s\) in \d+ ms/;
+assert buildLog =~ /Updated 1 of 2 generated file\(s\) in \d+ ms/;
+
+return true;
@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+outputDirectory = new File(basedir, 'target/generated-sources/protobuf/java');
+assert outputDirectory.exists();
+assert outputDirectory.isDirectory();
+
+['it/test1/Test1Protos.java', 'it/test2/Test2Protos.java'].each {
+    generatedJavaFile = new File(outputDirectory, it);
+    assert generatedJavaFile.exists();
+    assert generatedJavaFile.isFile();
+}
+
+indexFile = new File(basedir, 'target/protoc-fingerprints/compile-default.index');
+assert indexFile.exists();
+assert indexFile.isFile();
+assert indexFile.readLines()[0] == '#protoc-directory-index:1';
+
+buildLog = new File(basedir, 'build.log').text;
+assert buildLog =~ /Indexed .* in \d+ ms, listed \d+ directories, read 2 files/;
+assert buildLog =~ /Indexed .* in \d+ ms, listed \d+ directories, read 0 files/;
+
+return true;
@@ -0,0 +1,49 @@
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+def listFiles(directory) {
+    def files = [];
+    directory.eachFileRecurse(groovy.io.FileType.FILES) {
+        files << directory.toURI().relativize(it.toURI()).path;
+    }
+    return files.sort();
+}
+
+shardedDirectory = new File(basedir, 'target/generated-sources/protobuf/sharded');
+singleDirectory = new File(basedir, 'target/generated-sources/protobuf/single');
+assert shardedDirectory.isDirectory();
+assert singleDirectory.isDirectory();
+
+shardedFiles = listFiles(shardedDirectory);
+assert shardedFiles == ['it/test1/Test1Protos.java', 'it/test2/Test2Protos.java', 'it/test3/Test3Protos.java'];
+assert shardedFiles == listFiles(singleDirectory);
+shardedFiles.each {
+    assert new File(shardedDirectory, it).text == new File(singleDirectory, it).text;
+}
+
+shardedDescriptorSet = new File(basedir, 'target/descriptor-sets/sharded/test-45-1.0.0.protobin');
+singleDescriptorSet = new File(basedir, 'target/descriptor-sets/single/test-45-1.0.0.protobin');
+assert shardedDescriptorSet.isFile();
+assert singleDescriptorSet.isFile();
+assert shardedDescriptorSet.length() == singleDescriptorSet.length();
+['test1.proto', 'test2.proto', 'test3.proto'].each {
+    assert new String(shardedDescriptorSet.bytes, 'ISO-8859-1').contains(it);
+}
+
+buildLog = new File(basedir, 'build.log').text;
+assert buildLog.count('Splitting compilation into 2 parallel protoc processes') == 1;
+
+return true;
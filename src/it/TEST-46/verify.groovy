@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+def listFiles(directory) {
+    def files = [];
+    directory.eachFileRecurse(groovy.io.FileType.FILES) {
+        files << directory.toURI().relativize(it.toURI()).path;
+    }
+    return files.sort();
+}
+
+javaDirectory = new File(basedir, 'target/generated-sources/protobuf/java');
+multiJavaDirectory = new File(basedir, 'target/generated-sources/protobuf/multi/java');
+multiPythonDirectory = new File(basedir, 'target/generated-sources/protobuf/multi/python');
+assert javaDirectory.isDirectory();
+assert multiJavaDirectory.isDirectory();
+assert multiPythonDirectory.isDirectory();
+
+javaFiles = listFiles(javaDirectory);
+assert javaFiles == ['it/test1/Test1Protos.java', 'it/test2/Test2Protos.java'];
+assert javaFiles == listFiles(multiJavaDirectory);
+javaFiles.each {
+    assert new File(javaDirectory, it).text == new File(multiJavaDirectory, it).text;
+}
+
+assert listFiles(multiPythonDirectory) == ['test1_pb2.py', 'test2_pb2.py'];
+
+return true;
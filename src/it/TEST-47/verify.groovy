@@ -0,0 +1,25 @@
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+outputDirectory = new File(basedir, 'target/generated-sources/protobuf/java');
+assert !new File(outputDirectory, 'xtest.txt').exists();
+
+buildLog = new File(basedir, 'build.log').text;
+assert buildLog.contains('Running Java plugins in 2 separate protoc processes');
+assert buildLog.contains("xtest.txt is generated by both 'plain' and 'prefixed' plugins");
+assert buildLog.contains('1 file(s) are generated by more than one generator.');
+
+return true;
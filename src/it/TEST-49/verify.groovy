@@ -0,0 +1,22 @@
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+buildLog = new File(basedir, 'build.log').text;
+assert buildLog =~ /test2\.proto:\d+:\d+: "UndefinedMessage" is not defined\./;
+assert buildLog.contains('protoc reported 1 error(s) and 0 warning(s) in 1 file(s)');
+assert buildLog.contains('protoc did not exit cleanly. Review output for more information.');
+
+return true;
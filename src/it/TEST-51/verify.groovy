@@ -0,0 +1,40 @@
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+def listEntries(directory) {
+    return directory.listFiles().findAll { it.name.endsWith('.zip') }.collect { it.name };
+}
+
+outputDirectory = new File(basedir, 'target/generated-sources/protobuf/java');
+generatedJavaFile = new File(outputDirectory, 'it/test1/Test1Protos.java');
+assert generatedJavaFile.exists();
+assert generatedJavaFile.isFile();
+assert generatedJavaFile.text.contains('getChangedValue');
+
+remoteEntries = listEntries(new File(basedir, 'remote-cache'));
+assert remoteEntries.size() == 1;
+assert listEntries(new File(basedir, 'local-cache-1')) == remoteEntries;
+assert listEntries(new File(basedir, 'local-cache-2')) == remoteEntries;
+assert listEntries(new File(basedir, 'local-cache-3')).size() == 1;
+assert listEntries(new File(basedir, 'local-cache-3')) != remoteEntries;
+
+buildLog = new File(basedir, 'build.log').text;
+assert buildLog.count('Compiling 1 proto file(s) to') == 2;
+assert buildLog.count('Downloaded generated files from the remote build cache') == 1;
+assert buildLog.count('Restored 1 previously generated file(s)') == 1;
+assert !buildLog.contains('Unable to upload');
+
+return true;
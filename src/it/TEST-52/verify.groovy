@@ -0,0 +1,36 @@
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+bundleFile = new File(basedir, 'project1/target/protoc-fingerprints/compile-default.outputs.zip');
+assert bundleFile.exists();
+assert bundleFile.isFile();
+
+outputDirectory = new File(basedir, 'project2/target/generated-sources/protobuf/java');
+assert outputDirectory.exists();
+assert outputDirectory.isDirectory();
+
+generatedJavaFile = new File(outputDirectory, 'it/test1/Test1Protos.java');
+assert generatedJavaFile.exists();
+assert generatedJavaFile.isFile();
+assert generatedJavaFile.text == new File(basedir,
+        'project1/target/generated-sources/protobuf/java/it/test1/Test1Protos.java').text;
+
+buildLog = new File(basedir, 'build.log').text;
+assert buildLog.count('Compiling 1 proto file(s) to') == 1;
+assert buildLog =~ /Using generated files from output bundle .*:test-52-project1:zip:protoc-outputs:1\.0\.0/;
+assert buildLog.count('Restored 1 previously generated file(s)') == 1;
+
+return true;
@@ -0,0 +1,41 @@
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+def listFiles(directory) {
+    def files = [];
+    directory.eachFileRecurse(groovy.io.FileType.FILES) {
+        files << directory.toURI().relativize(it.toURI()).path;
+    }
+    return files.sort();
+}
+
+inProcessDirectory = new File(basedir, 'target/generated-sources/protobuf/in-process');
+outOfProcessDirectory = new File(basedir, 'target/generated-sources/protobuf/out-of-process');
+assert inProcessDirectory.isDirectory();
+assert outOfProcessDirectory.isDirectory();
+
+inProcessFiles = listFiles(inProcessDirectory);
+assert inProcessFiles.containsAll(['test1.txt', 'prefix-test1.txt', 'nested/test2.txt', 'prefix-nested/test2.txt']);
+assert inProcessFiles.containsAll(['it/test1/Test1Protos.java', 'it/test2/Test2Protos.java']);
+assert inProcessFiles == listFiles(outOfProcessDirectory);
+inProcessFiles.each {
+    assert new File(inProcessDirectory, it).text == new File(outOfProcessDirectory, it).text;
+}
+
+buildLog = new File(basedir, 'build.log').text;
+assert buildLog.count('Running 2 Java plugin(s) in process') == 1;
+
+return true;
@@ -60,6 +60,19 @@ public abstract class AbstractProtocCompileMojo extends AbstractProtocMojo {
     )
     protected String descriptorSetClassifier;
 
+    /**
+     * The classifier of the output bundle, which is attached to the build when {@code attachOutputBundle}
+     * is set, and used by default to resolve {@code outputBundleArtifact}. Executions that attach bundles
+     * in the same project must use different classifiers.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = true,
+            defaultValue = "protoc-outputs"
+    )
+    private String outputBundleClassifier;
+
     @Override
     protected void doAttachProtoSources() {
         projectHelper.addResource(project, getProtoSourceRoot().getAbsolutePath(),
@@ -68,13 +81,14 @@ public abstract class AbstractProtocCompileMojo extends AbstractProtocMojo {
 
     @Override
     protected void doAttachGeneratedFiles() {
-        final File outputDirectory = getOutputDirectory();
-        project.addCompileSourceRoot(outputDirectory.getAbsolutePath());
+        for (final File sourceRoot : getGeneratedSourceRoots()) {
+            project.addCompileSourceRoot(sourceRoot.getAbsolutePath());
+        }
         if (writeDescriptorSet) {
             final File descriptorSetFile = new File(getDescriptorSetOutputDirectory(), descriptorSetFileName);
             projectHelper.attachArtifact(project, "protobin", descriptorSetClassifier, descriptorSetFile);
         }
-        buildContext.refresh(outputDirectory);
+        refreshGeneratedFiles();
     }
 
     @Override
@@ -87,6 +101,11 @@ public abstract class AbstractProtocCompileMojo extends AbstractProtocMojo {
         return descriptorSetOutputDirectory;
     }
 
+    @Override
+    protected String getOutputBundleClassifier() {
+        return outputBundleClassifier;
+    }
+
     @Override
     protected File getProtoSourceRoot() {
         return protoSourceRoot;
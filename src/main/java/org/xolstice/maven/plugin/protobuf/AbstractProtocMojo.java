@@ -16,8 +16,15 @@ package org.xolstice.maven.plugin.protobuf;
  * limitations under the License.
  */
 
+import com.google.common.base.Charsets;
 import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.base.Throwables;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMap;
 import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Sets;
+import com.google.common.hash.Hashing;
 import org.apache.maven.artifact.Artifact;
 import org.apache.maven.artifact.factory.ArtifactFactory;
 import org.apache.maven.artifact.repository.ArtifactRepository;
@@ -29,14 +36,23 @@ import org.apache.maven.artifact.resolver.ResolutionErrorHandler;
 import org.apache.maven.artifact.versioning.InvalidVersionSpecificationException;
 import org.apache.maven.artifact.versioning.VersionRange;
 import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Dependency;
 import org.apache.maven.plugin.AbstractMojo;
+import org.apache.maven.plugin.MojoExecution;
 import org.apache.maven.plugin.MojoExecutionException;
 import org.apache.maven.plugin.MojoFailureException;
+import org.apache.maven.plugin.PluginParameterExpressionEvaluator;
+import org.apache.maven.plugin.descriptor.PluginDescriptor;
 import org.apache.maven.plugins.annotations.Component;
 import org.apache.maven.plugins.annotations.Parameter;
 import org.apache.maven.project.MavenProject;
 import org.apache.maven.project.MavenProjectHelper;
 import org.apache.maven.repository.RepositorySystem;
+import org.apache.maven.settings.Server;
+import org.apache.maven.settings.building.SettingsProblem;
+import org.apache.maven.settings.crypto.DefaultSettingsDecryptionRequest;
+import org.apache.maven.settings.crypto.SettingsDecrypter;
+import org.apache.maven.settings.crypto.SettingsDecryptionResult;
 import org.apache.maven.toolchain.Toolchain;
 import org.apache.maven.toolchain.ToolchainManager;
 import org.apache.maven.toolchain.java.DefaultJavaToolChain;
@@ -44,20 +60,30 @@ import org.codehaus.plexus.util.FileUtils;
 import org.codehaus.plexus.util.Os;
 import org.codehaus.plexus.util.StringUtils;
 import org.codehaus.plexus.util.cli.CommandLineException;
-import org.codehaus.plexus.util.io.RawInputStreamFacade;
 import org.sonatype.plexus.build.incremental.BuildContext;
 
 import java.io.File;
 import java.io.IOException;
+import java.io.InterruptedIOException;
+import java.net.MalformedURLException;
+import java.net.URL;
 import java.security.MessageDigest;
 import java.security.NoSuchAlgorithmException;
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.Collection;
 import java.util.Collections;
-import java.util.Enumeration;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
-import java.util.jar.JarEntry;
-import java.util.jar.JarFile;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.TimeUnit;
+import java.util.zip.ZipException;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -65,9 +91,8 @@ import static com.google.common.base.Preconditions.checkState;
 import static java.lang.Math.max;
 import static java.lang.String.format;
 import static java.util.Arrays.asList;
+import static java.util.concurrent.TimeUnit.NANOSECONDS;
 import static org.codehaus.plexus.util.FileUtils.cleanDirectory;
-import static org.codehaus.plexus.util.FileUtils.copyStreamToFile;
-import static org.codehaus.plexus.util.FileUtils.getDefaultExcludesAsString;
 import static org.codehaus.plexus.util.FileUtils.getFiles;
 
 /**
@@ -83,6 +108,26 @@ abstract class AbstractProtocMojo extends AbstractMojo {
 
     private static final String DEFAULT_INCLUDES = "**/*" + PROTO_FILE_SUFFIX;
 
+    private static final String PROTOC_INCLUDE_DIRECTORY = "include";
+
+    private static final String IMPORT_GRAPH_SUFFIX = ".imports";
+
+    private static final String DIRECTORY_INDEX_SUFFIX = ".index";
+
+    private static final FileScanner GENERATED_FILE_SCANNER =
+            new FileScanner(ImmutableSet.<String>of(), FileUtils.getDefaultExcludesAsList());
+
+    private static final String OUTPUT_MANIFEST_SUFFIX = ".outputs";
+
+    private static final String OUTPUT_BUNDLE_SUFFIX = ".outputs.zip";
+
+    /**
+     * The coarsest modification time resolution of supported file systems.
+     */
+    private static final long MODIFICATION_TIME_RESOLUTION_MILLIS = 2000L;
+
+    private static final String JAR_INDEX_FILE_NAME = "jar-index.txt";
+
     /**
      * The current Maven project.
      */
@@ -97,6 +142,22 @@ abstract class AbstractProtocMojo extends AbstractMojo {
     @Parameter(defaultValue = "${session}", readonly = true)
     protected MavenSession session;
 
+    /**
+     * The descriptor of this plugin.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(defaultValue = "${plugin}", readonly = true)
+    private PluginDescriptor pluginDescriptor;
+
+    /**
+     * The current execution of this mojo.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(defaultValue = "${mojoExecution}", readonly = true)
+    private MojoExecution mojoExecution;
+
     /**
      * Build context that tracks changes to the source and target files.
      *
@@ -151,6 +212,22 @@ abstract class AbstractProtocMojo extends AbstractMojo {
     @Component
     private ResolutionErrorHandler resolutionErrorHandler;
 
+    /**
+     * A component that shares indexed and extracted dependency protos between executions within the session.
+     *
+     * @since 0.5.1
+     */
+    @Component
+    private SessionProtoIndex sessionProtoIndex;
+
+    /**
+     * A component that decrypts passwords of servers in {@code settings.xml}.
+     *
+     * @since 0.5.1
+     */
+    @Component
+    private SettingsDecrypter settingsDecrypter;
+
     /**
      * This is the path to the local maven {@code repository}.
      */
@@ -209,6 +286,24 @@ abstract class AbstractProtocMojo extends AbstractMojo {
     )
     private String protocArtifact;
 
+    /**
+     * Specification of an artifact that provides the well-known types of the protobuf distribution,
+     * in {@code groupId:artifactId:version[:type[:classifier]]} format; the default type is {@code jar}.
+     * This can be either a protobuf runtime jar, or a distribution archive with {@code .proto} files
+     * under an {@code include} directory.
+     * <p/>
+     * The well-known types are added to the proto path ahead of dependencies, and the copies of the same
+     * definitions in dependencies are not extracted. If a {@code protobuf} toolchain is used, its
+     * {@code protocIncludeDirectory} takes precedence over this parameter.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protocIncludeArtifact"
+    )
+    private String protocIncludeArtifact;
+
     /**
      * Additional source paths for {@code .proto} definitions.
      */
@@ -219,7 +314,8 @@ abstract class AbstractProtocMojo extends AbstractMojo {
 
     /**
      * Since {@code protoc} cannot access jars, proto files in dependencies are extracted to this location
-     * and deleted on exit. This directory is always cleaned during execution.
+     * and deleted on exit. This directory is cleaned by the first execution that uses it within a build,
+     * and its contents are then shared by all subsequent executions of this plugin in the same module.
      */
     @Parameter(
             required = true,
@@ -240,6 +336,217 @@ abstract class AbstractProtocMojo extends AbstractMojo {
     )
     private boolean hashDependentPaths;
 
+    /**
+     * Set this to {@code true} to extract {@code .proto} files from dependency jars into a persistent,
+     * content-addressed store, instead of re-extracting them into {@link #temporaryProtoFileDirectory}
+     * on every execution.
+     * <p/>
+     * Jars in the store are keyed by a digest of their contents, so each distinct jar is unpacked
+     * only once and then shared by all executions, modules and builds that use the same store.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.useDependencyCache",
+            defaultValue = "false"
+    )
+    private boolean useDependencyCache;
+
+    /**
+     * Set this to {@code false} to disable the persistent index of {@code .proto} files in dependency jars.
+     * <p/>
+     * The index records, for each jar path, size and modification time, which {@code .proto} entries
+     * the jar contains, based on the zip central directory only. Jars that are already known
+     * not to contain any protobuf definitions are then skipped without being opened.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.useDependencyIndex",
+            defaultValue = "true"
+    )
+    private boolean useDependencyIndex;
+
+    /**
+     * The location of the persistent store for {@code .proto} files extracted from dependency jars,
+     * which also holds the persistent index of dependency jars.
+     * The store is only used if {@link #useDependencyCache} is set to {@code true},
+     * and the index is only used if {@link #useDependencyIndex} is set to {@code true}.
+     * When not specified, the store is created in {@code .cache/protobuf-maven-plugin/dependencies}
+     * under the local repository.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.dependencyCacheDirectory"
+    )
+    private File dependencyCacheDirectory;
+
+    /**
+     * Set this to {@code true} to add to the proto path only those dependencies that are actually needed.
+     * <p/>
+     * In this mode, the {@code import} statements of the compiled {@code .proto} files are scanned, and their
+     * transitive import closure is computed against the protobuf definitions found in dependencies.
+     * Only the dependencies that provide at least one definition from the closure are extracted and passed
+     * to {@code protoc}, which reduces both the extraction work and the cost of import lookups in {@code protoc}.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.pruneProtoPath",
+            defaultValue = "false"
+    )
+    private boolean pruneProtoPath;
+
+    /**
+     * Set this to {@code true} to merge {@code .proto} files from all dependencies into a single directory tree,
+     * which is passed to {@code protoc} as a single import root instead of one import root per dependency.
+     * <p/>
+     * Definitions that are present in several dependencies with identical content (for example, well-known types
+     * bundled into multiple jars) are stored once. If a definition is present with different content,
+     * the first dependency in classpath order wins, and the conflict is reported as a warning.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.overlayProtoPath",
+            defaultValue = "false"
+    )
+    private boolean overlayProtoPath;
+
+    /**
+     * A list of &lt;dependencyInclude&gt; elements specifying the dependencies (by pattern) whose
+     * {@code .proto} files should be added to the proto path. Patterns are in {@code groupId[:artifactId]} format,
+     * where {@code *} matches any sequence of characters. When not specified, all dependencies are included.
+     * <p/>
+     * Dependencies that are not included are never opened.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false
+    )
+    private Set<String> dependencyIncludes = ImmutableSet.of();
+
+    /**
+     * A list of &lt;dependencyExclude&gt; elements specifying the dependencies (by pattern) whose
+     * {@code .proto} files should not be added to the proto path, even if they are included.
+     * Patterns are in the same format as for {@code dependencyIncludes}.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false
+    )
+    private Set<String> dependencyExcludes = ImmutableSet.of();
+
+    /**
+     * Set this to {@code true} to add only {@code .proto} files from direct dependencies of the project
+     * to the proto path. This requires that definitions in direct dependencies do not import
+     * definitions from transitive dependencies.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.directDependenciesOnly",
+            defaultValue = "false"
+    )
+    private boolean directDependenciesOnly;
+
+    /**
+     * A list of &lt;dependencyProtoInclude&gt; elements specifying the {@code .proto} files (by pattern)
+     * inside dependencies that should be added to the proto path.
+     * When not specified, all {@code .proto} files are included.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false
+    )
+    private Set<String> dependencyProtoIncludes = ImmutableSet.of();
+
+    /**
+     * A list of &lt;dependencyProtoExclude&gt; elements specifying the {@code .proto} files (by pattern)
+     * inside dependencies that should not be added to the proto path.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false
+    )
+    private Set<String> dependencyProtoExcludes = ImmutableSet.of();
+
+    /**
+     * Set this to {@code true} to use the proto source roots of other modules in the current reactor directly,
+     * instead of extracting {@code .proto} files from their packaged artifacts.
+     * <p/>
+     * This applies to dependencies on reactor modules that compile proto definitions with this plugin.
+     * The proto source roots configured for the main compilation goals of such modules are added
+     * to the proto path in place of the dependency itself.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.useReactorProtoSourceRoots",
+            defaultValue = "false"
+    )
+    private boolean useReactorProtoSourceRoots;
+
+    /**
+     * Set this to {@code true} to use descriptor sets attached to dependencies instead of their {@code .proto} files.
+     * <p/>
+     * For each dependency, an attached artifact of type {@code protobin} (as produced with
+     * {@code writeDescriptorSet} and {@code attachDescriptorSet}) is resolved. If it exists, it is passed
+     * to {@code protoc} with {@code --descriptor_set_in}, and the dependency itself is neither scanned
+     * nor extracted. Dependencies without an attached descriptor set are handled as usual.
+     * <p/>
+     * This requires {@code protoc} 3.1.0 or later. Descriptor sets should be self-contained
+     * (published with {@code includeDependenciesInDescriptorSet}), unless the definitions they import
+     * are available from other dependencies.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.useDependencyDescriptorSets",
+            defaultValue = "false"
+    )
+    private boolean useDependencyDescriptorSets;
+
+    /**
+     * The classifier of descriptor sets attached to dependencies.
+     * Only used if {@code useDependencyDescriptorSets} is set to {@code true}.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.dependencyDescriptorSetClassifier"
+    )
+    private String dependencyDescriptorSetClassifier;
+
+    /**
+     * The maximum number of threads used for scanning dependency jars and extracting {@code .proto} files
+     * from them, and for scanning source and output directories.
+     * When set to {@code 0} or a negative number, one thread per available processor is used.
+     * The order of derived proto path elements does not depend on this setting.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.extractionThreads",
+            defaultValue = "0"
+    )
+    private int extractionThreads;
+
     /**
      * A list of &lt;include&gt; elements specifying the protobuf definition files (by pattern)
      * that should be included in compilation.
@@ -384,164 +691,467 @@ abstract class AbstractProtocMojo extends AbstractMojo {
     private boolean checkStaleness;
 
     /**
-     * When {@code true}, skip the execution.
+     * When {@code true}, the inputs of each execution are fingerprinted, and {@code protoc} is not invoked
+     * if the fingerprint is the same as after the previous successful compilation, and all files generated
+     * by that compilation are still in place with their recorded sizes and modification times.
+     * The check is made before Java plugins and generators are resolved and before the build cache is consulted.
+     * <p/>
+     * The fingerprint covers the contents of {@code .proto} files in the source root, the {@code protoc}
+     * executable and the effective configuration of the execution, including the coordinates of Java plugins.
+     * Dependencies, descriptor sets and additional proto path elements are only covered by their paths,
+     * sizes and modification times, and the resolved classpaths of Java plugins are not covered at all,
+     * so a plugin whose dependencies resolve to different versions does not cause a compilation.
+     * This is why the check is disabled by default. Inputs are not fingerprinted, and compilation is never
+     * skipped, if {@code protoc} cannot be located or a Java plugin is a snapshot.
      *
-     * @since 0.2.0
+     * @since 0.5.1
      */
     @Parameter(
             required = false,
-            property = "protoc.skip",
+            property = "protoc.checkInputFingerprint",
             defaultValue = "false"
     )
-    private boolean skip;
+    private boolean checkInputFingerprint;
 
     /**
-     * Usually most of protobuf mojos will not get executed on parent poms
-     * (i.e. projects with packaging type 'pom').
-     * Setting this parameter to {@code true} will force
-     * the execution of this mojo, even if it would usually get skipped in this case.
+     * The directory where input fingerprints of executions are recorded.
      *
-     * @since 0.2.0
+     * @since 0.5.1
      */
     @Parameter(
             required = false,
-            property = "protoc.force",
+            defaultValue = "${project.build.directory}/protoc-fingerprints"
+    )
+    private File fingerprintDirectory;
+
+    /**
+     * When {@code true}, only the {@code .proto} files that have changed since the previous compilation,
+     * and the files that import them (directly or transitively), are compiled, and the output directory
+     * is not cleared. The import graph of the sources is recorded in {@code fingerprintDirectory}.
+     * <p/>
+     * All files are compiled if the configuration or dependencies have changed, if any {@code .proto} files
+     * have been deleted or renamed, or if a descriptor set is written.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.incrementalCompilation",
             defaultValue = "false"
     )
-    private boolean forceMojoExecution;
+    private boolean incrementalCompilation;
 
     /**
-     * When {@code true}, the output directory will be cleared out prior to code generation.
-     * With the latest versions of protoc (2.5.0 or later) this is generally not required,
-     * although some earlier versions reportedly had issues with running
-     * two code generations in a row without clearing out the output directory in between.
+     * When {@code true}, an index of the proto source root is kept in {@code fingerprintDirectory},
+     * holding the modification times of directories and the sizes, modification times and digests
+     * of {@code .proto} files. Directories and files whose metadata has not changed since the previous build
+     * are neither listed nor read again, which keeps no-op builds fast in large source trees.
      *
-     * @since 0.4.0
+     * @since 0.5.1
      */
     @Parameter(
             required = false,
+            property = "protoc.useDirectoryIndex",
             defaultValue = "true"
     )
-    private boolean clearOutputDirectory;
+    private boolean useDirectoryIndex;
 
     /**
-     * Executes the mojo.
+     * When {@code true}, {@code protoc} generates files into a staging directory, from which only the files
+     * whose contents have changed are moved into the output directory; unchanged files keep their modification
+     * times, and only changed files are reported to the build context. This avoids needless recompilation
+     * of generated sources by incremental compilers and IDEs. Otherwise, files are generated directly
+     * into the output directory.
+     *
+     * @since 0.5.1
      */
-    @Override
-    public void execute() throws MojoExecutionException, MojoFailureException {
-
-        if (skipMojo()) {
-            return;
-        }
-
-        checkParameters();
-        final File protoSourceRoot = getProtoSourceRoot();
-        if (protoSourceRoot.exists()) {
-            try {
-                final ImmutableSet<File> protoFiles = findProtoFilesInDirectory(protoSourceRoot);
-                final File outputDirectory = getOutputDirectory();
-                final ImmutableSet<File> outputFiles = findGeneratedFilesInDirectory(getOutputDirectory());
+    @Parameter(
+            required = false,
+            property = "protoc.useStagingDirectory",
+            defaultValue = "false"
+    )
+    private boolean useStagingDirectory;
 
-                if (protoFiles.isEmpty()) {
-                    getLog().info("No proto files to compile.");
-                } else if (!hasDelta(protoFiles)) {
-                    getLog().info("Skipping compilation because build context has no changes.");
-                    doAttachFiles();
-                } else if (checkStaleness && checkFilesUpToDate(protoFiles, outputFiles)) {
-                    getLog().info("Skipping compilation because target directory newer than sources.");
-                    doAttachFiles();
-                } else {
-                    final ImmutableSet<File> derivedProtoPathElements =
-                            makeProtoPathFromJars(temporaryProtoFileDirectory, getDependencyArtifactFiles());
-                    FileUtils.mkdir(outputDirectory.getAbsolutePath());
+    /**
+     * The directory into which {@code protoc} generates files before they are moved into the output directory
+     * when {@code useStagingDirectory} is set, and into which Java plugins generate files when
+     * {@code splitProtocPlugins} is set. Each execution uses its own subdirectory, so that the files generated
+     * by an execution are known exactly, even if several executions share an output directory.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            defaultValue = "${project.build.directory}/protoc-staging"
+    )
+    private File stagingDirectory;
 
-                    if (clearOutputDirectory) {
-                        cleanDirectory(outputDirectory);
-                    }
+    /**
+     * The maximum number of {@code protoc} processes that compile the sources of an execution in parallel.
+     * When greater than {@code 1}, definitions are split into groups that do not import each other,
+     * which are compiled by separate processes; their descriptor sets, if any, are merged.
+     * When set to {@code 0} or a negative number, one process per available processor is used.
+     * <p/>
+     * Only use more than one process if every generator and plugin writes files for each definition separately.
+     * Files that a generator writes for all definitions together, such as documentation or API descriptions,
+     * are written by every process, and only cover the definitions of the process that writes them last.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.processes",
+            defaultValue = "1"
+    )
+    private int protocProcesses;
 
-                    if (writeDescriptorSet) {
-                        final File descriptorSetOutputDirectory = getDescriptorSetOutputDirectory();
-                        FileUtils.mkdir(descriptorSetOutputDirectory.getAbsolutePath());
-                        if (clearOutputDirectory) {
-                            cleanDirectory(descriptorSetOutputDirectory);
-                        }
-                    }
+    /**
+     * When {@code true}, every Java plugin configured in {@code protocPlugins} is run by a separate
+     * {@code protoc} process, in parallel with the process that runs the built-in generators.
+     * Otherwise, {@code protoc} runs all generators of a process one after another.
+     * <p/>
+     * Plugin processes generate into private directories inside {@code stagingDirectory}, and their outputs are
+     * moved to the output directory afterwards. The execution fails if several generators write the same file
+     * with different contents.
+     * <p/>
+     * Since a plugin process does not see the files of other generators, this option cannot be used with plugins
+     * that insert code into the files of the built-in Java generator or of other plugins through insertion points;
+     * {@code protoc} fails with "Tried to insert into file that doesn't exist" for them.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.splitPlugins",
+            defaultValue = "false"
+    )
+    private boolean splitProtocPlugins;
 
-                    if (protocPlugins != null) {
-                        createProtocPlugins();
-                    }
+    /**
+     * When {@code true}, Java plugins configured in {@code protocPlugins} are run inside the Maven JVM,
+     * instead of in a new JVM started by {@code protoc} for each plugin, which saves the startup time
+     * of the JVMs and lets plugins reuse loaded and compiled classes between executions.
+     * <p/>
+     * An additional {@code protoc} process, which runs in parallel with the others, produces a descriptor set
+     * from which the request to the plugins is built. Each plugin runs in its own class loader, which is
+     * kept as long as the plugin jars do not change. Plugins are run one at a time, as they communicate
+     * through the standard streams of the JVM. {@code jvmArgs} of plugins are ignored, and plugins that
+     * call {@code System.exit} cannot be run in process. This option takes precedence over
+     * {@code splitProtocPlugins}.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.inProcessPlugins",
+            defaultValue = "false"
+    )
+    private boolean runProtocPluginsInProcess;
 
-                    //get toolchain from context
-                    final Toolchain tc = toolchainManager.getToolchainFromBuildContext("protobuf", session); //NOI18N
-                    if (tc != null) {
-                        getLog().info("Toolchain in protobuf-maven-plugin: " + tc);
-                        //when the executable to use is explicitly set by user in mojo's parameter, ignore toolchains.
-                        if (protocExecutable != null) {
-                            getLog().warn(
-                                    "Toolchains are ignored, 'protocExecutable' parameter is set to " + protocExecutable);
-                        } else {
-                            //assign the path to executable from toolchains
-                            protocExecutable = tc.findTool("protoc"); //NOI18N
-                        }
-                    }
-                    if (protocExecutable == null && protocArtifact != null) {
-                        final Artifact artifact = createDependencyArtifact(protocArtifact);
-                        final File file = resolveBinaryArtifact(artifact);
-                        protocExecutable = file.getAbsolutePath();
-                    }
-                    if (protocExecutable == null) {
-                        // Try to fall back to 'protoc' in $PATH
-                        getLog().warn("No 'protocExecutable' parameter is configured, using the default: 'protoc'");
-                        protocExecutable = "protoc";
-                    }
+    /**
+     * When {@code true}, arguments are passed to {@code protoc} in an argument file rather than on
+     * the command line, which avoids limits on the length of the command line when compiling many definitions.
+     * Requires {@code protoc} 3.0.0 or later, which is why it is disabled by default.
+     * {@code protoc} then runs in the first element of the proto path, so that definitions are passed by
+     * their relative paths; relative plugin parameters and files written by plugins relative to the current
+     * directory are resolved against it.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.useArgumentFile",
+            defaultValue = "false"
+    )
+    private boolean useArgumentFile;
 
-                    final Protoc.Builder protocBuilder =
-                            new Protoc.Builder(protocExecutable)
-                                    .addProtoPathElement(protoSourceRoot)
-                                    .addProtoPathElements(derivedProtoPathElements)
-                                    .addProtoPathElements(asList(additionalProtoPathElements))
-                                    .addProtoFiles(protoFiles);
-                    addProtocBuilderParameters(protocBuilder);
-                    final Protoc protoc = protocBuilder.build();
+    /**
+     * The maximum time in seconds a single {@code protoc} process may take.
+     * When the timeout expires, the process is destroyed and the execution fails.
+     * When set to {@code 0}, there is no timeout.
+     * <p/>
+     * Only the {@code protoc} process itself is destroyed, as Java 6 cannot terminate a process tree.
+     * Plugin processes started by {@code protoc} are not killed; they normally exit once {@code protoc}
+     * closes their input, but a plugin that hangs regardless of its input keeps running.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.timeout",
+            defaultValue = "0"
+    )
+    private int protocTimeout;
 
-                    if (getLog().isDebugEnabled()) {
-                        getLog().debug("Proto source root:");
-                        getLog().debug(" " + protoSourceRoot);
-
-                        if (derivedProtoPathElements != null && !derivedProtoPathElements.isEmpty()) {
-                            getLog().debug("Derived proto paths:");
-                            for (final File path : derivedProtoPathElements) {
-                                getLog().debug(" " + path);
-                            }
-                        }
+    /**
+     * The maximum number of lines of {@code protoc} output and error output logged for each process.
+     * Further lines are omitted from the log, with a summary of their number.
+     * Diagnostics are parsed from all lines regardless, and attached to the affected definitions
+     * as build messages.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.maxOutputLines",
+            defaultValue = "200"
+    )
+    private int maxProtocOutputLines;
 
-                        if (additionalProtoPathElements != null && additionalProtoPathElements.length > 0) {
-                            getLog().debug("Additional proto paths:");
-                            for (final File path : additionalProtoPathElements) {
-                                getLog().debug(" " + path);
-                            }
-                        }
-                    }
-                    protoc.logExecutionParameters(getLog());
+    /**
+     * When {@code true}, generated files and descriptor sets are stored in a persistent build cache,
+     * and restored from it instead of running {@code protoc} when all inputs of a compilation are the same
+     * as those of a cached one, for example after a clean build or when switching between branches.
+     * <p/>
+     * The cache key covers the contents of the {@code .proto} files in the source root and on the proto path,
+     * the {@code protoc} executable and native plugin executables, the definitions of Java plugins
+     * and the complete {@code protoc} command line. Compilations that use Java plugins with snapshot versions,
+     * or a {@code protoc} executable from the system path, are not cached. The key does not depend on
+     * the locations of the project and the local repository, so that entries can be shared between machines.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.buildCache",
+            defaultValue = "false"
+    )
+    private boolean useBuildCache;
 
-                    getLog().info(format("Compiling %d proto file(s) to %s", protoFiles.size(), outputDirectory));
+    /**
+     * The root directory of the build cache, which is only used if {@link #useBuildCache} is set to {@code true}.
+     * When not specified, the cache is created in {@code .cache/protobuf-maven-plugin/outputs}
+     * under the local repository.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.buildCacheDirectory"
+    )
+    private File buildCacheDirectory;
 
-                    final int exitStatus = protoc.execute();
-                    if (StringUtils.isNotBlank(protoc.getOutput())) {
-                        getLog().info("PROTOC: " + protoc.getOutput());
-                    }
-                    if (exitStatus != 0) {
-                        getLog().error("PROTOC FAILED: " + protoc.getError());
-                        for (File pf : protoFiles) {
-                            buildContext.removeMessages(pf);
-                            buildContext.addMessage(pf, 0, 0, protoc.getError(), BuildContext.SEVERITY_ERROR, null);
-                        }
-                        throw new MojoFailureException(
-                                "protoc did not exit cleanly. Review output for more information.");
-                    } else if (StringUtils.isNotBlank(protoc.getError())) {
-                        getLog().warn("PROTOC: " + protoc.getError());
-                    }
+    /**
+     * The maximum total size of the build cache, in megabytes.
+     * When exceeded, the least recently used entries are evicted.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.buildCacheMaxSize",
+            defaultValue = "512"
+    )
+    private int buildCacheMaxSize;
+
+    /**
+     * The maximum number of days since an entry of the build cache was last used, after which it is evicted.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.buildCacheMaxAge",
+            defaultValue = "30"
+    )
+    private int buildCacheMaxAge;
+
+    /**
+     * The URL of an optional remote build cache, which is only used if {@link #useBuildCache} is set to
+     * {@code true}. Entries that are not found in the local build cache are downloaded from
+     * {@code <url>/<key>.zip} with HTTP {@code GET}, and new entries are uploaded with HTTP {@code PUT},
+     * unless {@link #remoteBuildCacheReadOnly} is set. A {@code file:} URL can be used to share a cache
+     * in a directory. The URL must not contain credentials; use {@link #remoteBuildCacheServerId} instead.
+     * <p/>
+     * Any failure to access the remote cache is logged and treated as a cache miss.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.remoteBuildCacheUrl"
+    )
+    private String remoteBuildCacheUrl;
+
+    /**
+     * The id of a {@code <server>} in {@code settings.xml}, whose user name and password are sent to
+     * the remote build cache as basic authentication. Encrypted passwords are supported.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.remoteBuildCacheServerId"
+    )
+    private String remoteBuildCacheServerId;
+
+    /**
+     * When {@code true}, entries are only downloaded from the remote build cache, but never uploaded,
+     * which is suitable for developer machines.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.remoteBuildCacheReadOnly",
+            defaultValue = "true"
+    )
+    private boolean remoteBuildCacheReadOnly;
+
+    /**
+     * The connect and read timeout of requests to the remote build cache, in seconds.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.remoteBuildCacheTimeout",
+            defaultValue = "10"
+    )
+    private int remoteBuildCacheTimeout;
+
+    /**
+     * When {@code true}, the generated files and descriptor set of a complete compilation are packaged
+     * into an output bundle, which is attached to the build as an artifact of type {@code zip},
+     * with the classifier given by {@code outputBundleClassifier}. Once deployed, the bundle can be used
+     * by other builds of the same sources with {@code outputBundleArtifact}.
+     * <p/>
+     * The bundle records the build cache key of the compilation, and is not produced
+     * when the compilation cannot be cached (see {@code useBuildCache}) or has been incremental.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.attachOutputBundle",
+            defaultValue = "false"
+    )
+    private boolean attachOutputBundle;
+
+    /**
+     * An output bundle to use instead of running {@code protoc}, in
+     * {@code groupId:artifactId:version[:type[:classifier]]} format. The type defaults to {@code zip},
+     * and the classifier to {@code outputBundleClassifier}.
+     * <p/>
+     * The bundle is resolved from the repositories of the project. Its generated files are only used
+     * if it has been produced from the same inputs as those of the current compilation,
+     * which is verified with the build cache key recorded in the bundle. Otherwise, or if the bundle
+     * cannot be resolved, {@code protoc} is run as usual.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.outputBundleArtifact"
+    )
+    private String outputBundleArtifact;
+
+    /**
+     * When {@code true}, skip the execution.
+     *
+     * @since 0.2.0
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.skip",
+            defaultValue = "false"
+    )
+    private boolean skip;
+
+    /**
+     * Usually most of protobuf mojos will not get executed on parent poms
+     * (i.e. projects with packaging type 'pom').
+     * Setting this parameter to {@code true} will force
+     * the execution of this mojo, even if it would usually get skipped in this case.
+     *
+     * @since 0.2.0
+     */
+    @Parameter(
+            required = false,
+            property = "protoc.force",
+            defaultValue = "false"
+    )
+    private boolean forceMojoExecution;
+
+    /**
+     * When {@code true}, the output directory will be cleared out prior to code generation.
+     * With the latest versions of protoc (2.5.0 or later) this is generally not required,
+     * although some earlier versions reportedly had issues with running
+     * two code generations in a row without clearing out the output directory in between.
+     * <p/>
+     * Since 0.5.1, the files generated by each execution are recorded in {@code fingerprintDirectory}.
+     * When {@code useStagingDirectory} is set and such a record exists, or when only the definitions affected by
+     * changes are compiled by {@code incrementalCompilation}, the output directory is not cleared; instead,
+     * only the recorded files that have not been produced again (for example, those of deleted {@code .proto}
+     * files) are removed, and other files in the output directory are kept.
+     * When {@code false}, files are still recorded, but none are removed.
+     *
+     * @since 0.4.0
+     */
+    @Parameter(
+            required = false,
+            defaultValue = "true"
+    )
+    private boolean clearOutputDirectory;
+
+    /**
+     * The scanner of source definitions, created on first use from {@link #getIncludes()} and {@link #getExcludes()}.
+     */
+    private FileScanner protoFileScanner;
+
+    /**
+     * Resolved classpaths of Java plugins, populated by {@link #createProtocPlugins()}.
+     */
+    private final Map<ProtocPlugin, List<File>> protocPluginClasspaths = new HashMap<ProtocPlugin, List<File>>();
+
+    /**
+     * The staging directory of the current execution, or {@code null} if files are generated directly.
+     */
+    private File stagingOutputDirectory;
+
+    /**
+     * Generated files that have changed in the current execution,
+     * or {@code null} if changes are not tracked and the whole output directory has to be refreshed.
+     */
+    private List<File> changedOutputFiles;
+
+    /**
+     * Executes the mojo.
+     */
+    @Override
+    public void execute() throws MojoExecutionException, MojoFailureException {
+
+        if (skipMojo()) {
+            return;
+        }
+        changedOutputFiles = useStagingDirectory ? new ArrayList<File>() : null;
+
+        checkParameters();
+        final File protoSourceRoot = getProtoSourceRoot();
+        if (protoSourceRoot.exists()) {
+            try {
+                final FingerprintStore fingerprintStore = new FingerprintStore(fingerprintDirectory);
+                final String fingerprintKey = getFingerprintKey();
+                final DirectoryIndex sourceIndex = useDirectoryIndex
+                        ? indexProtoSourceRoot(protoSourceRoot, fingerprintStore, fingerprintKey)
+                        : null;
+                final ImmutableSet<File> protoFiles = sourceIndex != null
+                        ? ImmutableSet.copyOf(sourceIndex.getSelectedFiles())
+                        : findProtoFilesInDirectory(protoSourceRoot);
+                final File outputDirectory = getOutputDirectory();
+                final ImmutableSet<File> outputFiles =
+                        checkStaleness ? findGeneratedFilesInDirectory(outputDirectory) : ImmutableSet.<File>of();
+
+                if (protoFiles.isEmpty()) {
+                    getLog().info("No proto files to compile.");
+                } else if (!hasDelta(protoFiles)) {
+                    getLog().info("Skipping compilation because build context has no changes.");
+                    doAttachFiles();
+                } else if (checkStaleness && checkFilesUpToDate(protoFiles, outputFiles)) {
+                    getLog().info("Skipping compilation because target directory newer than sources.");
                     doAttachFiles();
+                } else {
+                    compile(protoSourceRoot, sourceIndex, protoFiles, fingerprintStore, fingerprintKey);
                 }
             } catch (IOException e) {
                 throw new MojoExecutionException("An IO error occured", e);
@@ -556,16 +1166,491 @@ abstract class AbstractProtocMojo extends AbstractMojo {
         }
     }
 
+    /**
+     * Compiles the source definitions, unless the outputs of a previous compilation are still up to date.
+     *
+     * @param protoSourceRoot the proto source root.
+     * @param sourceIndex the index of the proto source root, or {@code null} if there is none.
+     * @param protoFiles all source definitions.
+     * @param fingerprintStore the store of per-execution records.
+     * @param fingerprintKey a key that identifies this execution.
+     * @throws IOException if one of the file operations fails.
+     * @throws CommandLineException if {@code protoc} cannot be run.
+     * @throws MojoExecutionException if an internal error happens.
+     * @throws MojoFailureException if the compilation fails.
+     *
+     * @since 0.5.1
+     */
+    private void compile(
+            final File protoSourceRoot,
+            final DirectoryIndex sourceIndex,
+            final ImmutableSet<File> protoFiles,
+            final FingerprintStore fingerprintStore,
+            final String fingerprintKey)
+            throws IOException, CommandLineException, MojoExecutionException, MojoFailureException {
+        final File outputDirectory = getOutputDirectory();
+        final File protocIncludeElement = resolveProtoc();
+
+        final ImmutableMap<File, File> dependencyDescriptorSets = useDependencyDescriptorSets
+                ? resolveDependencyDescriptorSets()
+                : ImmutableMap.<File, File>of();
+        final ImmutableSet<File> dependencyElements = ImmutableSet.copyOf(
+                Sets.difference(getDependencyArtifactFiles(), dependencyDescriptorSets.keySet()));
+
+        final String environmentFingerprint = checkInputFingerprint || incrementalCompilation
+                ? computeEnvironmentFingerprint(
+                        dependencyElements,
+                        dependencyDescriptorSets.values(),
+                        protocIncludeElement)
+                : null;
+        final String inputFingerprint = checkInputFingerprint && environmentFingerprint != null
+                ? computeInputFingerprint(environmentFingerprint, protoSourceRoot, sourceIndex)
+                : null;
+
+        // checked before anything is resolved, extracted or downloaded for the compilation
+        final File outputManifestFile =
+                fingerprintStore.getRecordFile(fingerprintKey, OUTPUT_MANIFEST_SUFFIX);
+        if (isUpToDate(fingerprintStore, fingerprintKey, inputFingerprint, outputManifestFile)) {
+            getLog().info("Skipping compilation because inputs have not changed.");
+            doAttachFiles();
+            return;
+        }
+        // the previous fingerprint is no longer valid, even if this compilation fails
+        fingerprintStore.remove(fingerprintKey);
+        fingerprintStore.remove(fingerprintKey, OUTPUT_BUNDLE_SUFFIX);
+
+        final ImmutableSet<File> derivedProtoPathElements = makeProtoPathFromJars(
+                temporaryProtoFileDirectory,
+                dependencyElements,
+                protoFiles,
+                protocIncludeElement);
+        FileUtils.mkdir(outputDirectory.getAbsolutePath());
+
+        if (writeDescriptorSet) {
+            FileUtils.mkdir(getDescriptorSetOutputDirectory().getAbsolutePath());
+        }
+
+        // when staging, protoc generates into a directory of its own, from which only changed files are moved
+        stagingOutputDirectory = useStagingDirectory
+                ? new File(stagingDirectory, FingerprintStore.toFileName(fingerprintKey))
+                : null;
+        final OutputSynchroniser outputSynchroniser =
+                new OutputSynchroniser(stagingOutputDirectory, outputDirectory, useStagingDirectory);
+
+        final Protoc fullProtoc = buildProtoc(
+                protoSourceRoot, derivedProtoPathElements, dependencyDescriptorSets.values(), protoFiles);
+
+        final OutputCache outputCache = useBuildCache ? createOutputCache() : null;
+        final String cacheKey =
+                outputCache != null || attachOutputBundle || StringUtils.isNotBlank(outputBundleArtifact)
+                ? computeBuildCacheKey(
+                        fullProtoc,
+                        protoSourceRoot,
+                        sourceIndex,
+                        derivedProtoPathElements,
+                        dependencyDescriptorSets.values())
+                : null;
+        final File cachedOutputs = cacheKey != null ? lookupCachedOutputs(outputCache, cacheKey) : null;
+
+        // Java plugins are only needed if the outputs cannot be restored from the build cache
+        if (protocPlugins != null && cachedOutputs == null) {
+            createProtocPlugins();
+        }
+
+        ImmutableSet<File> compiledProtoFiles = protoFiles;
+        ProtoImportGraph importGraph = null;
+        final File importGraphFile = fingerprintStore.getRecordFile(fingerprintKey, IMPORT_GRAPH_SUFFIX);
+        if (incrementalCompilation) {
+            if (environmentFingerprint != null) {
+                importGraph = ProtoImportGraph.scan(protoSourceRoot, environmentFingerprint);
+                if (cachedOutputs == null) {
+                    compiledProtoFiles = selectAffectedProtoFiles(
+                            protoSourceRoot, protoFiles, importGraph, importGraphFile);
+                }
+            }
+            // an interrupted compilation must not leave a graph that does not match the outputs
+            fingerprintStore.remove(fingerprintKey, IMPORT_GRAPH_SUFFIX);
+        }
+        final boolean incremental = compiledProtoFiles != protoFiles;
+
+        if (incremental && compiledProtoFiles.isEmpty()) {
+            getLog().info("Skipping compilation because no proto files are affected by changes.");
+            importGraph.save(importGraphFile);
+            if (inputFingerprint != null) {
+                fingerprintStore.write(fingerprintKey, inputFingerprint);
+            }
+            doAttachFiles();
+            return;
+        }
+
+        final OutputManifest previousOutputManifest = clearOutputDirectory && !incremental
+                ? clearOutputDirectories(OutputManifest.load(outputManifestFile, getLog()))
+                : OutputManifest.load(outputManifestFile, getLog());
+        fingerprintStore.remove(fingerprintKey, OUTPUT_MANIFEST_SUFFIX);
+        if (cachedOutputs == null) {
+            final Protoc protoc = incremental
+                    ? buildProtoc(
+                            protoSourceRoot,
+                            derivedProtoPathElements,
+                            dependencyDescriptorSets.values(),
+                            compiledProtoFiles)
+                    : fullProtoc;
+            runProtoc(
+                    protoc,
+                    protoSourceRoot,
+                    derivedProtoPathElements,
+                    dependencyDescriptorSets.values(),
+                    protoFiles,
+                    compiledProtoFiles,
+                    fingerprintKey,
+                    outputSynchroniser);
+        } else {
+            outputSynchroniser.prepare(System.currentTimeMillis() - MODIFICATION_TIME_RESOLUTION_MILLIS);
+            restoreCachedOutputs(cachedOutputs);
+        }
+        final Set<String> writtenOutputs = synchroniseStagedOutputs(outputSynchroniser);
+        if (outputCache != null && cacheKey != null && cachedOutputs == null && !incremental) {
+            storeBuildCacheEntry(outputCache, cacheKey, writtenOutputs);
+        }
+        if (attachOutputBundle && !incremental) {
+            writeOutputBundle(
+                    fingerprintStore.getRecordFile(fingerprintKey, OUTPUT_BUNDLE_SUFFIX),
+                    cacheKey,
+                    writtenOutputs);
+        }
+        recordOutputs(
+                previousOutputManifest,
+                protoSourceRoot,
+                protoFiles,
+                compiledProtoFiles,
+                writtenOutputs)
+                .save(outputManifestFile);
+        if (importGraph != null) {
+            importGraph.save(importGraphFile);
+        }
+        if (inputFingerprint != null) {
+            fingerprintStore.write(fingerprintKey, inputFingerprint);
+        }
+        doAttachFiles();
+    }
+
+    /**
+     * Locates the {@code protoc} executable, using the toolchain, the configured artifact or the system path.
+     *
+     * @return the directory or archive with the include files of {@code protoc}, or {@code null} if there is none.
+     * @throws MojoExecutionException if an artifact cannot be resolved.
+     *
+     * @since 0.5.1
+     */
+    private File resolveProtoc() throws MojoExecutionException {
+        //get toolchain from context
+        final Toolchain tc = toolchainManager.getToolchainFromBuildContext("protobuf", session); //NOI18N
+        File protocIncludeElement = null;
+        if (tc != null) {
+            getLog().info("Toolchain in protobuf-maven-plugin: " + tc);
+            //when the executable to use is explicitly set by user in mojo's parameter, ignore toolchains.
+            if (protocExecutable != null) {
+                getLog().warn(
+                        "Toolchains are ignored, 'protocExecutable' parameter is set to " + protocExecutable);
+            } else {
+                //assign the path to executable from toolchains
+                protocExecutable = tc.findTool("protoc"); //NOI18N
+                final String protocIncludeDirectory = tc.findTool("protoc-include"); //NOI18N
+                if (protocIncludeDirectory != null) {
+                    protocIncludeElement = new File(protocIncludeDirectory);
+                }
+            }
+        }
+        if (protocExecutable == null && protocArtifact != null) {
+            final Artifact artifact = createDependencyArtifact(protocArtifact);
+            final File file = resolveBinaryArtifact(artifact);
+            protocExecutable = file.getAbsolutePath();
+        }
+        if (protocExecutable == null) {
+            // Try to fall back to 'protoc' in $PATH
+            getLog().warn("No 'protocExecutable' parameter is configured, using the default: 'protoc'");
+            protocExecutable = "protoc";
+        }
+        if (protocIncludeElement == null && protocIncludeArtifact != null) {
+            final Artifact artifact = createDependencyArtifact(protocIncludeArtifact, "jar");
+            protocIncludeElement = resolveArtifact(artifact).getFile();
+        }
+        return protocIncludeElement;
+    }
+
+    /**
+     * Computes the fingerprint of all inputs of the compilation.
+     *
+     * @param environmentFingerprint the fingerprint of everything but the source definitions.
+     * @param protoSourceRoot the proto source root.
+     * @param sourceIndex the index of the proto source root, or {@code null} if there is none.
+     * @return the fingerprint.
+     * @throws IOException if a source definition cannot be read.
+     *
+     * @since 0.5.1
+     */
+    private static String computeInputFingerprint(
+            final String environmentFingerprint,
+            final File protoSourceRoot,
+            final DirectoryIndex sourceIndex) throws IOException {
+        if (sourceIndex != null) {
+            return new InputFingerprint()
+                    .putString("environment", environmentFingerprint)
+                    .putString("source", protoSourceRoot.getAbsolutePath())
+                    .putString("sourceDigest", sourceIndex.getDigest())
+                    .hash();
+        }
+        return new InputFingerprint()
+                .putString("environment", environmentFingerprint)
+                .putContents("source", protoSourceRoot)
+                .hash();
+    }
+
+    /**
+     * Checks whether the previous compilation had the same inputs, and its outputs are still in place.
+     *
+     * @param fingerprintStore the store of per-execution records.
+     * @param fingerprintKey a key that identifies this execution.
+     * @param inputFingerprint the fingerprint of the current inputs, or {@code null} if they are not known.
+     * @param outputManifestFile the file with the outputs of the previous compilation.
+     * @return {@code true} if the compilation can be skipped.
+     * @throws IOException if a record cannot be read.
+     *
+     * @since 0.5.1
+     */
+    private boolean isUpToDate(
+            final FingerprintStore fingerprintStore,
+            final String fingerprintKey,
+            final String inputFingerprint,
+            final File outputManifestFile) throws IOException {
+        return inputFingerprint != null
+                && inputFingerprint.equals(fingerprintStore.read(fingerprintKey))
+                && hasRecordedOutputs(outputManifestFile);
+    }
+
+    /**
+     * Runs the compilation, sharded across several {@code protoc} processes if configured to.
+     *
+     * @param protoc the invocation that compiles the affected source definitions.
+     * @param protoSourceRoot the proto source root.
+     * @param derivedProtoPathElements the proto path elements extracted from dependencies.
+     * @param descriptorSetInputFiles the descriptor sets of dependencies.
+     * @param protoFiles all source definitions.
+     * @param compiledProtoFiles the source definitions to compile.
+     * @param fingerprintKey a key that identifies this execution.
+     * @param outputSynchroniser the synchroniser of the staged outputs.
+     * @throws IOException if one of the file operations fails.
+     * @throws CommandLineException if {@code protoc} cannot be run.
+     * @throws MojoExecutionException if an internal error happens.
+     * @throws MojoFailureException if the compilation fails.
+     *
+     * @since 0.5.1
+     */
+    private void runProtoc(
+            final Protoc protoc,
+            final File protoSourceRoot,
+            final ImmutableSet<File> derivedProtoPathElements,
+            final Collection<File> descriptorSetInputFiles,
+            final ImmutableSet<File> protoFiles,
+            final ImmutableSet<File> compiledProtoFiles,
+            final String fingerprintKey,
+            final OutputSynchroniser outputSynchroniser)
+            throws IOException, CommandLineException, MojoExecutionException, MojoFailureException {
+        final List<Protoc> invocations = createShardedInvocations(
+                protoc,
+                protoSourceRoot,
+                derivedProtoPathElements,
+                descriptorSetInputFiles,
+                compiledProtoFiles);
+        final List<File> pluginRequestFiles =
+                runProtocPluginsInProcess && !protocPluginClasspaths.isEmpty()
+                        ? new ArrayList<File>()
+                        : null;
+        final long writeTimeThreshold = System.currentTimeMillis() - MODIFICATION_TIME_RESOLUTION_MILLIS;
+        final PluginOutputMerger pluginOutputMerger = splitProtocPlugins && pluginRequestFiles == null
+                ? new PluginOutputMerger(writeTimeThreshold)
+                : null;
+        final List<Protoc> processes;
+        if (pluginRequestFiles != null) {
+            final File requestDirectory =
+                    new File(stagingDirectory, FingerprintStore.toFileName(fingerprintKey) + ".requests");
+            processes = ProtocPluginRunner.addRequestInvocations(invocations, requestDirectory, pluginRequestFiles);
+            getLog().info(format("Running %d Java plugin(s) in process", protocPluginClasspaths.size()));
+        } else if (pluginOutputMerger != null) {
+            final File pluginOutputBaseDirectory =
+                    new File(stagingDirectory, FingerprintStore.toFileName(fingerprintKey) + ".plugins");
+            processes = pluginOutputMerger.split(invocations, pluginOutputBaseDirectory);
+            if (processes.size() > invocations.size()) {
+                getLog().info(format("Running Java plugins in %d separate protoc processes",
+                        processes.size() - invocations.size()));
+            }
+        } else {
+            processes = invocations;
+        }
+
+        logExecutionParameters(protoSourceRoot, derivedProtoPathElements, processes);
+        if (compiledProtoFiles != protoFiles) {
+            getLog().info(format("Compiling %d of %d proto file(s) affected by changes to %s",
+                    compiledProtoFiles.size(), protoFiles.size(), getOutputDirectory()));
+        } else {
+            getLog().info(format("Compiling %d proto file(s) to %s", protoFiles.size(), getOutputDirectory()));
+        }
+
+        outputSynchroniser.prepare(writeTimeThreshold);
+        if (pluginOutputMerger != null) {
+            pluginOutputMerger.prepare();
+        }
+        final List<Integer> exitStatuses = executeProtoc(processes);
+        if (!ProtocDiagnostics.reportResults(processes, exitStatuses, protoFiles, buildContext, getLog())) {
+            deleteShardDescriptorSets(invocations.size());
+            ProtocPluginRunner.deleteRequestFiles(pluginRequestFiles);
+            if (pluginOutputMerger != null) {
+                pluginOutputMerger.discard();
+                if (PluginOutputMerger.hasMissingInsertionTarget(processes)) {
+                    getLog().error("Java plugins that use insertion points cannot be run"
+                            + " in separate protoc processes, disable 'splitProtocPlugins'");
+                }
+            }
+            throw new MojoFailureException(
+                    "protoc did not exit cleanly. Review output for more information.");
+        }
+        if (pluginRequestFiles != null) {
+            final ProtocPlugin failedPlugin;
+            try {
+                failedPlugin = ProtocPluginRunner.runAll(
+                        invocations, pluginRequestFiles, protocPluginClasspaths, getLog());
+            } finally {
+                ProtocPluginRunner.deleteRequestFiles(pluginRequestFiles);
+            }
+            if (failedPlugin != null) {
+                throw new MojoFailureException(
+                        "protoc plugin " + failedPlugin.getId() + " failed. Review output for more information.");
+            }
+        }
+        if (pluginOutputMerger != null) {
+            mergePluginOutputs(pluginOutputMerger);
+        }
+        if (invocations.size() > 1 && writeDescriptorSet) {
+            mergeShardDescriptorSets(invocations.size());
+        }
+    }
+
+    private void logExecutionParameters(
+            final File protoSourceRoot,
+            final ImmutableSet<File> derivedProtoPathElements,
+            final List<Protoc> processes) {
+        if (getLog().isDebugEnabled()) {
+            getLog().debug("Proto source root:");
+            getLog().debug(" " + protoSourceRoot);
+
+            if (derivedProtoPathElements != null && !derivedProtoPathElements.isEmpty()) {
+                getLog().debug("Derived proto paths:");
+                for (final File path : derivedProtoPathElements) {
+                    getLog().debug(" " + path);
+                }
+            }
+
+            if (additionalProtoPathElements != null && additionalProtoPathElements.length > 0) {
+                getLog().debug("Additional proto paths:");
+                for (final File path : additionalProtoPathElements) {
+                    getLog().debug(" " + path);
+                }
+            }
+        }
+        for (final Protoc invocation : processes) {
+            invocation.logExecutionParameters(getLog());
+        }
+    }
+
+    /**
+     * Merges the descriptor sets written by each shard into the configured descriptor set file.
+     *
+     * @param shards the number of shards.
+     * @throws IOException if a descriptor set cannot be read or written.
+     *
+     * @since 0.5.1
+     */
+    private void mergeShardDescriptorSets(final int shards) throws IOException {
+        final List<File> shardDescriptorSetFiles = new ArrayList<File>();
+        for (int i = 0; i < shards; i++) {
+            shardDescriptorSetFiles.add(getShardDescriptorSetFile(i));
+        }
+        ProtocShards.mergeDescriptorSets(
+                shardDescriptorSetFiles,
+                new File(getDescriptorSetOutputDirectory(), descriptorSetFileName));
+        deleteShardDescriptorSets(shards);
+    }
+
+    /**
+     * Removes the outputs of previous compilations before a complete compilation.
+     * When staging, the output directory is kept, and outputs that are not produced again
+     * are removed after the compilation instead.
+     *
+     * @param previousOutputManifest the outputs of the previous compilation, or {@code null} if they are not known.
+     * @return the outputs of the previous compilation that are still in place, or {@code null} if there are none.
+     * @throws IOException if the output directories cannot be cleaned.
+     *
+     * @since 0.5.1
+     */
+    private OutputManifest clearOutputDirectories(final OutputManifest previousOutputManifest) throws IOException {
+        if (writeDescriptorSet) {
+            cleanDirectory(getDescriptorSetOutputDirectory());
+        }
+        if (useStagingDirectory) {
+            return previousOutputManifest;
+        }
+        cleanDirectory(getOutputDirectory());
+        return null;
+    }
+
+    /**
+     * Records the outputs of this compilation in the output manifest.
+     *
+     * @param previousOutputManifest the outputs of the previous compilation, or {@code null} if they are not known.
+     * @param protoSourceRoot the proto source root.
+     * @param protoFiles all source definitions.
+     * @param compiledProtoFiles the source definitions that have been compiled.
+     * @param writtenOutputs relative names of generated files that have been written.
+     * @return the updated manifest.
+     * @throws IOException if an output cannot be removed.
+     *
+     * @since 0.5.1
+     */
+    private OutputManifest recordOutputs(
+            final OutputManifest previousOutputManifest,
+            final File protoSourceRoot,
+            final ImmutableSet<File> protoFiles,
+            final ImmutableSet<File> compiledProtoFiles,
+            final Set<String> writtenOutputs) throws IOException {
+        final OutputManifest outputManifest;
+        if (previousOutputManifest != null) {
+            outputManifest = previousOutputManifest;
+        } else {
+            outputManifest = new OutputManifest();
+            if (clearOutputDirectory && useStagingDirectory && compiledProtoFiles == protoFiles) {
+                removeUnrecordedOutputs(writtenOutputs);
+            }
+        }
+        return updateOutputManifest(
+                outputManifest,
+                protoSourceRoot,
+                protoFiles,
+                compiledProtoFiles,
+                writtenOutputs);
+    }
+
     /**
      * Generates native launchers for java protoc plugins.
      * These launchers will later be added as parameters for protoc compiler.
      *
+     * @return the combined classpath of all plugins.
      * @throws MojoExecutionException if plugins launchers could not be created.
      *
      * @since 0.3.0
      */
-    protected void createProtocPlugins() throws MojoExecutionException {
+    protected ImmutableList<File> createProtocPlugins() throws MojoExecutionException {
         final String javaHome = detectJavaHome();
+        final ImmutableList.Builder<File> classpath = ImmutableList.builder();
 
         for (final ProtocPlugin plugin : protocPlugins) {
 
@@ -589,7 +1674,10 @@ abstract class AbstractProtocMojo extends AbstractMojo {
                     protocPluginDirectory,
                     getLog());
             assembler.execute();
+            classpath.addAll(assembler.getResolvedJars());
+            protocPluginClasspaths.put(plugin, assembler.getResolvedJars());
         }
+        return classpath.build();
     }
 
     /**
@@ -637,28 +1725,115 @@ abstract class AbstractProtocMojo extends AbstractMojo {
     }
 
     /**
-     * Adds mojo-specific parameters to the protoc builder.
+     * Adds mojo-specific parameters to the protoc builder.
+     *
+     * @param protocBuilder the builder to be modified.
+     * @throws MojoExecutionException if parameters cannot be resolved or configured.
+     */
+    protected void addProtocBuilderParameters(final Protoc.Builder protocBuilder) throws MojoExecutionException {
+        if (protocPlugins != null) {
+            for (final ProtocPlugin plugin : protocPlugins) {
+                protocBuilder.addPlugin(plugin);
+            }
+            protocPluginDirectory.mkdirs();
+            protocBuilder.setPluginDirectory(protocPluginDirectory);
+        }
+        if (writeDescriptorSet) {
+            final File descriptorSetFile = new File(getDescriptorSetOutputDirectory(), descriptorSetFileName);
+            getLog().info("Will write descriptor set:");
+            getLog().info(" " + descriptorSetFile.getAbsolutePath());
+            protocBuilder.withDescriptorSetFile(
+                    descriptorSetFile,
+                    includeDependenciesInDescriptorSet,
+                    includeSourceInfoInDescriptorSet);
+        }
+        final List<ProtocGenerator> generators = getProtocGenerators();
+        if (generators != null) {
+            addProtocGenerators(protocBuilder, generators);
+        }
+    }
+
+    /**
+     * Returns the generators of goals that run several generators in a single {@code protoc} invocation.
+     *
+     * @return the generators, or {@code null} if the goal only runs its own generator.
+     *
+     * @since 0.5.1
+     */
+    protected List<ProtocGenerator> getProtocGenerators() {
+        return null;
+    }
+
+    /**
+     * Returns the directories that contain generated sources: the output directories of all generators,
+     * for goals that run several generators, or otherwise the output directory.
+     *
+     * @return the directories to add to the project as source roots.
+     *
+     * @since 0.5.1
+     */
+    protected List<File> getGeneratedSourceRoots() {
+        final List<ProtocGenerator> generators = getProtocGenerators();
+        if (generators == null) {
+            return Collections.singletonList(getOutputDirectory());
+        }
+        final List<File> sourceRoots = new ArrayList<File>();
+        for (final ProtocGenerator generator : generators) {
+            sourceRoots.add(getGeneratorOutputDirectory(generator));
+        }
+        return sourceRoots;
+    }
+
+    /**
+     * Configures several generators to be run by a single {@code protoc} invocation.
+     * Each generator writes into its own directory, which must be located inside the output directory,
+     * so that stale outputs can be tracked and removed for all generators at once.
      *
      * @param protocBuilder the builder to be modified.
-     * @throws MojoExecutionException if parameters cannot be resolved or configured.
+     * @param generators the generators to configure.
+     * @throws MojoExecutionException if a generator executable cannot be resolved.
+     *
+     * @since 0.5.1
      */
-    protected void addProtocBuilderParameters(final Protoc.Builder protocBuilder) throws MojoExecutionException {
-        if (protocPlugins != null) {
-            for (final ProtocPlugin plugin : protocPlugins) {
-                protocBuilder.addPlugin(plugin);
+    private void addProtocGenerators(final Protoc.Builder protocBuilder, final List<ProtocGenerator> generators)
+            throws MojoExecutionException {
+        for (final ProtocGenerator generator : generators) {
+            final File outputDirectory = getGeneratorOutputDirectory(generator);
+            final File protocOutputDirectory =
+                    new File(getProtocOutputDirectory(), OutputManifest.getRelativeName(getOutputDirectory(), outputDirectory));
+            protocOutputDirectory.mkdirs();
+            String executable = generator.getExecutable();
+            if (executable == null && generator.getArtifact() != null) {
+                final Artifact artifact = createDependencyArtifact(generator.getArtifact());
+                executable = resolveBinaryArtifact(artifact).getAbsolutePath();
             }
-            protocPluginDirectory.mkdirs();
-            protocBuilder.setPluginDirectory(protocPluginDirectory);
+            protocBuilder.addGenerator(generator.getId(), protocOutputDirectory, generator.getParameter(), executable);
         }
-        if (writeDescriptorSet) {
-            final File descriptorSetFile = new File(getDescriptorSetOutputDirectory(), descriptorSetFileName);
-            getLog().info("Will write descriptor set:");
-            getLog().info(" " + descriptorSetFile.getAbsolutePath());
-            protocBuilder.withDescriptorSetFile(
-                    descriptorSetFile,
-                    includeDependenciesInDescriptorSet,
-                    includeSourceInfoInDescriptorSet);
+    }
+
+    /**
+     * Returns the directory into which a generator writes its files.
+     *
+     * @param generator a generator.
+     * @return the configured output directory of the generator, or a subdirectory of the output directory
+     *         named after the generator's id.
+     *
+     * @since 0.5.1
+     */
+    protected File getGeneratorOutputDirectory(final ProtocGenerator generator) {
+        final String id = generator.getId();
+        if (id == null || id.trim().isEmpty()) {
+            throw new IllegalArgumentException("Generator id must be specified: " + generator);
+        }
+        final File outputDirectory = generator.getOutputDirectory() != null
+                ? generator.getOutputDirectory()
+                : new File(getOutputDirectory(), id);
+        final String basePath = getOutputDirectory().getAbsolutePath() + File.separator;
+        if (!outputDirectory.getAbsolutePath().startsWith(basePath)) {
+            throw new IllegalArgumentException("Output directory of generator '" + id
+                    + "' must be located inside " + getOutputDirectory() + ": " + outputDirectory);
         }
+        return outputDirectory;
     }
 
     /**
@@ -688,13 +1863,12 @@ abstract class AbstractProtocMojo extends AbstractMojo {
         return false;
     }
 
-    protected static ImmutableSet<File> findGeneratedFilesInDirectory(final File directory) throws IOException {
+    protected ImmutableSet<File> findGeneratedFilesInDirectory(final File directory) throws IOException {
         if (directory == null || !directory.isDirectory()) {
             return ImmutableSet.of();
         }
 
-        final List<File> generatedFilesInDirectory = getFiles(directory, "**/*", getDefaultExcludesAsString());
-        return ImmutableSet.copyOf(generatedFilesInDirectory);
+        return scanDirectory(GENERATED_FILE_SCANNER, directory);
     }
 
     /**
@@ -708,18 +1882,755 @@ abstract class AbstractProtocMojo extends AbstractMojo {
         for (final File file : files) {
             result = max(result, file.lastModified());
         }
-        return result;
+        return result;
+    }
+
+    /**
+     * Checks that the source files don't have modification time that is later than the target files.
+     *
+     * @param sourceFiles a set of source files.
+     * @param targetFiles a set of target files.
+     * @return {@code true}, if source files are not later than the target files; {@code false}, otherwise.
+     */
+    protected boolean checkFilesUpToDate(final ImmutableSet<File> sourceFiles, final ImmutableSet<File> targetFiles) {
+        return lastModified(sourceFiles) + staleMillis < lastModified(targetFiles);
+    }
+
+    /**
+     * Creates a {@code protoc} invocation for the specified definitions.
+     *
+     * @param protoSourceRoot the proto source root.
+     * @param derivedProtoPathElements import roots derived from dependencies.
+     * @param descriptorSetInputFiles descriptor sets of dependencies.
+     * @param protoFiles protobuf definitions to compile.
+     * @return a configured {@link Protoc} instance.
+     * @throws MojoExecutionException if mojo-specific parameters cannot be resolved.
+     *
+     * @since 0.5.1
+     */
+    private Protoc buildProtoc(
+            final File protoSourceRoot,
+            final ImmutableSet<File> derivedProtoPathElements,
+            final Collection<File> descriptorSetInputFiles,
+            final ImmutableSet<File> protoFiles)
+            throws MojoExecutionException {
+        return buildProtoc(protoSourceRoot, derivedProtoPathElements, descriptorSetInputFiles, protoFiles, null);
+    }
+
+    /**
+     * Creates a {@code protoc} invocation for the specified definitions,
+     * optionally writing the descriptor set to a different file.
+     *
+     * @param protoSourceRoot the proto source root.
+     * @param derivedProtoPathElements import roots derived from dependencies.
+     * @param descriptorSetInputFiles descriptor sets of dependencies.
+     * @param protoFiles protobuf definitions to compile.
+     * @param descriptorSetFile the descriptor set file to write instead of the configured one,
+     *                          or {@code null} to use the configuration.
+     * @return a configured {@link Protoc} instance.
+     * @throws MojoExecutionException if mojo-specific parameters cannot be resolved.
+     *
+     * @since 0.5.1
+     */
+    private Protoc buildProtoc(
+            final File protoSourceRoot,
+            final ImmutableSet<File> derivedProtoPathElements,
+            final Collection<File> descriptorSetInputFiles,
+            final ImmutableSet<File> protoFiles,
+            final File descriptorSetFile)
+            throws MojoExecutionException {
+        final Protoc.Builder protocBuilder =
+                new Protoc.Builder(protocExecutable)
+                        .addProtoPathElement(protoSourceRoot)
+                        .addProtoPathElements(derivedProtoPathElements)
+                        .addProtoPathElements(asList(additionalProtoPathElements))
+                        .addDescriptorSetInputFiles(descriptorSetInputFiles)
+                        .addProtoFiles(protoFiles)
+                        .setUseArgumentFile(useArgumentFile)
+                        .setTimeout(TimeUnit.SECONDS.toMillis(Math.max(protocTimeout, 0)))
+                        .setMaxOutputLines(Math.max(maxProtocOutputLines, 0));
+        addProtocBuilderParameters(protocBuilder);
+        if (descriptorSetFile != null) {
+            protocBuilder.withDescriptorSetFile(
+                    descriptorSetFile,
+                    includeDependenciesInDescriptorSet,
+                    includeSourceInfoInDescriptorSet);
+        }
+        return protocBuilder.build();
+    }
+
+    /**
+     * Splits a compilation into several invocations, when parallel {@code protoc} processes are allowed.
+     * Each invocation writes its descriptor set, if any, into a separate file to be merged afterwards.
+     *
+     * @param protoc the invocation that compiles all definitions.
+     * @param protoSourceRoot the proto source root.
+     * @param derivedProtoPathElements import roots derived from dependencies.
+     * @param descriptorSetInputFiles descriptor sets of dependencies.
+     * @param protoFiles protobuf definitions to compile.
+     * @return invocations to execute, which only consist of the original one if the compilation is not split.
+     * @throws IOException if a definition cannot be read.
+     * @throws MojoExecutionException if mojo-specific parameters cannot be resolved.
+     *
+     * @since 0.5.1
+     */
+    private List<Protoc> createShardedInvocations(
+            final Protoc protoc,
+            final File protoSourceRoot,
+            final ImmutableSet<File> derivedProtoPathElements,
+            final Collection<File> descriptorSetInputFiles,
+            final ImmutableSet<File> protoFiles)
+            throws IOException, MojoExecutionException {
+        final int processes = ParallelTasks.effectiveThreads(protocProcesses);
+        if (processes <= 1 || protoFiles.size() <= 1) {
+            return Collections.singletonList(protoc);
+        }
+        final ImmutableList<ImmutableSet<File>> shards =
+                ProtocShards.partition(protoSourceRoot, protoFiles, processes);
+        if (shards.size() <= 1) {
+            return Collections.singletonList(protoc);
+        }
+        final List<Protoc> invocations = new ArrayList<Protoc>(shards.size());
+        for (int i = 0; i < shards.size(); i++) {
+            invocations.add(buildProtoc(
+                    protoSourceRoot,
+                    derivedProtoPathElements,
+                    descriptorSetInputFiles,
+                    shards.get(i),
+                    writeDescriptorSet ? getShardDescriptorSetFile(i) : null));
+        }
+        getLog().info(format("Splitting compilation into %d parallel protoc processes", shards.size()));
+        return invocations;
+    }
+
+    /**
+     * Moves the outputs of Java plugins that have run in separate processes to the output directory.
+     *
+     * @param pluginOutputMerger the merger of plugin outputs.
+     * @throws IOException if the outputs cannot be moved.
+     * @throws MojoFailureException if several generators have written the same file.
+     *
+     * @since 0.5.1
+     */
+    private void mergePluginOutputs(final PluginOutputMerger pluginOutputMerger)
+            throws IOException, MojoFailureException {
+        final List<String> conflicts = pluginOutputMerger.findConflicts();
+        if (!conflicts.isEmpty()) {
+            pluginOutputMerger.discard();
+            for (final String conflict : conflicts) {
+                getLog().error(conflict);
+            }
+            throw new MojoFailureException(format(
+                    "%d file(s) are generated by more than one generator. Review output for more information.",
+                    conflicts.size()));
+        }
+        pluginOutputMerger.merge();
+    }
+
+    /**
+     * Runs {@code protoc} invocations, in parallel if there are several.
+     *
+     * @param invocations invocations to run.
+     * @return exit statuses, in the order of invocations.
+     * @throws CommandLineException if the command line of an invocation cannot be set up.
+     * @throws IOException if an invocation has failed with an I/O error.
+     * @throws MojoExecutionException if the execution was interrupted or has failed with an internal error.
+     *
+     * @since 0.5.1
+     */
+    private List<Integer> executeProtoc(final List<Protoc> invocations)
+            throws CommandLineException, IOException, MojoExecutionException {
+        final List<Callable<Integer>> tasks = new ArrayList<Callable<Integer>>(invocations.size());
+        for (final Protoc invocation : invocations) {
+            tasks.add(new Callable<Integer>() {
+                @Override
+                public Integer call() throws CommandLineException, InterruptedException {
+                    return invocation.execute();
+                }
+            });
+        }
+        try {
+            return ParallelTasks.invokeAll(tasks, invocations.size());
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while running protoc", e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof InterruptedException) {
+                Thread.currentThread().interrupt();
+                throw new MojoExecutionException("Interrupted while running protoc", e.getCause());
+            }
+            Throwables.propagateIfInstanceOf(e.getCause(), CommandLineException.class);
+            throw propagateExecutionFailure(e);
+        }
+    }
+
+    private File getShardDescriptorSetFile(final int shard) {
+        return new File(getDescriptorSetOutputDirectory(), format(".%s.shard-%d", descriptorSetFileName, shard));
+    }
+
+    private void deleteShardDescriptorSets(final int shards) {
+        if (shards > 1 && writeDescriptorSet) {
+            for (int i = 0; i < shards; i++) {
+                FileUtils.fileDelete(getShardDescriptorSetFile(i).getAbsolutePath());
+            }
+        }
+    }
+
+    /**
+     * Computes a fingerprint of all inputs of the compilation, except for the source definitions.
+     * Instead of the {@code protoc} command line, the fingerprint covers the configuration of the execution,
+     * so that it can be computed before plugins and generators are resolved.
+     *
+     * @param dependencyElements dependency jars and directories.
+     * @param descriptorSetInputFiles descriptor sets of dependencies.
+     * @param protocIncludeElement an optional jar file or directory with the well-known types.
+     * @return a fingerprint string, or {@code null} if the inputs cannot be fingerprinted.
+     * @throws IOException if one of the inputs cannot be read.
+     *
+     * @since 0.5.1
+     */
+    private String computeEnvironmentFingerprint(
+            final Iterable<File> dependencyElements,
+            final Iterable<File> descriptorSetInputFiles,
+            final File protocIncludeElement)
+            throws IOException {
+        final File protocExecutableFile = findProtocExecutableFile();
+        if (protocExecutableFile == null) {
+            getLog().debug("Not fingerprinting inputs, because the protoc executable cannot be located");
+            return null;
+        }
+        if (protocPlugins != null) {
+            for (final ProtocPlugin plugin : protocPlugins) {
+                if (plugin.getVersion() != null && plugin.getVersion().endsWith(Artifact.SNAPSHOT_VERSION)) {
+                    getLog().debug("Not fingerprinting inputs, because of a snapshot plugin: " + plugin.getId());
+                    return null;
+                }
+            }
+        }
+        final InputFingerprint fingerprint = new InputFingerprint()
+                .putString("plugin", pluginDescriptor.getId())
+                .putConfiguration(
+                        "configuration",
+                        mojoExecution != null ? mojoExecution.getConfiguration() : null,
+                        mojoExecution != null ? new PluginParameterExpressionEvaluator(session, mojoExecution) : null)
+                .putStamp("protoc", protocExecutableFile);
+        for (final File dependencyElement : dependencyElements) {
+            fingerprint.putStamp("dependency", dependencyElement);
+        }
+        for (final File descriptorSetInputFile : descriptorSetInputFiles) {
+            fingerprint.putStamp("descriptorSet", descriptorSetInputFile);
+        }
+        if (protocIncludeElement != null) {
+            fingerprint.putStamp("include", protocIncludeElement);
+        }
+        for (final File additionalProtoPathElement : additionalProtoPathElements) {
+            fingerprint.putStamp("additional", additionalProtoPathElement);
+        }
+        return fingerprint.hash();
+    }
+
+    /**
+     * Locates the {@code protoc} executable, looking it up in the system path if only a name is configured.
+     *
+     * @return the executable, or {@code null} if it cannot be found.
+     */
+    private File findProtocExecutableFile() {
+        final File protocExecutableFile = new File(protocExecutable);
+        if (protocExecutableFile.isFile()) {
+            return protocExecutableFile;
+        }
+        final String path = System.getenv("PATH");
+        if (path == null || protocExecutable.indexOf('/') >= 0 || protocExecutable.indexOf(File.separatorChar) >= 0) {
+            return null;
+        }
+        for (final String directory : Splitter.on(File.pathSeparatorChar).omitEmptyStrings().split(path)) {
+            for (final String name : asList(protocExecutable, protocExecutable + ".exe")) {
+                final File candidate = new File(directory, name);
+                if (candidate.isFile()) {
+                    return candidate;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Computes the key of a compilation in the build cache, which also identifies the inputs of output bundles.
+     * The key does not depend on the locations of the project, the local repository and the inputs,
+     * so that entries can be shared between machines.
+     *
+     * @param protoc the {@code protoc} invocation that compiles all source definitions.
+     * @param protoSourceRoot the proto source root.
+     * @param sourceIndex the index of the proto source root, or {@code null} if there is none.
+     * @param derivedProtoPathElements import roots derived from dependencies.
+     * @param descriptorSetInputFiles descriptor sets of dependencies.
+     * @return the key, or {@code null} if the compilation cannot be cached.
+     * @throws IOException if one of the inputs cannot be read.
+     *
+     * @since 0.5.1
+     */
+    private String computeBuildCacheKey(
+            final Protoc protoc,
+            final File protoSourceRoot,
+            final DirectoryIndex sourceIndex,
+            final Iterable<File> derivedProtoPathElements,
+            final Iterable<File> descriptorSetInputFiles)
+            throws IOException {
+        final File protocExecutableFile = new File(protocExecutable);
+        if (!protocExecutableFile.isFile()) {
+            getLog().debug("Not using the build cache, because protoc is resolved from the system path");
+            return null;
+        }
+        // absolute paths in the command line are replaced with the names under which the inputs are fingerprinted
+        final InputFingerprint key = new InputFingerprint().putString("plugin", pluginDescriptor.getId());
+        key.putFileContents("protoc", key.nameLocation(protocExecutableFile, "protoc"), protocExecutableFile);
+        final String sourceName = key.nameLocation(protoSourceRoot, "source");
+        if (sourceIndex != null) {
+            key.putString("sourceDigest", sourceIndex.getDigest());
+        } else {
+            key.putContents("source", sourceName, protoSourceRoot);
+        }
+        for (final File derivedProtoPathElement : derivedProtoPathElements) {
+            key.putNamedContents("import", derivedProtoPathElement);
+        }
+        for (final File additionalProtoPathElement : additionalProtoPathElements) {
+            key.putNamedContents("additional", additionalProtoPathElement);
+        }
+        for (final File descriptorSetInputFile : descriptorSetInputFiles) {
+            key.putNamedFileContents("descriptorSet", descriptorSetInputFile);
+        }
+        for (final String nativePluginExecutable : protoc.getNativePluginExecutables()) {
+            key.putNamedFileContents("nativePlugin", new File(nativePluginExecutable));
+        }
+        if (protocPlugins != null) {
+            for (final ProtocPlugin plugin : protocPlugins) {
+                if (plugin.getVersion() != null && plugin.getVersion().endsWith(Artifact.SNAPSHOT_VERSION)) {
+                    getLog().debug("Not using the build cache, because of a snapshot plugin: " + plugin.getId());
+                    return null;
+                }
+                key.putString("javaPlugin", plugin.toString());
+            }
+        }
+        // outputs, staging directories and Java plugin launchers
+        key.nameLocation(project.getBasedir(), "basedir");
+        key.nameLocation(new File(localRepository.getBasedir()), "localRepository");
+        return key.putCommand("command", protoc.buildProtocCommand()).hash();
+    }
+
+    /**
+     * Creates the build cache, backed by the remote build cache if one is configured.
+     *
+     * @return the build cache.
+     * @throws MojoExecutionException if the remote build cache is configured incorrectly.
+     *
+     * @since 0.5.1
+     */
+    private OutputCache createOutputCache() throws MojoExecutionException {
+        return new OutputCache(
+                getBuildCacheDirectory(),
+                Math.max(buildCacheMaxSize, 0) * 1024L * 1024L,
+                TimeUnit.DAYS.toMillis(Math.max(buildCacheMaxAge, 0)),
+                createRemoteOutputCache(),
+                getLog());
+    }
+
+    /**
+     * Returns the descriptor set that is stored with generated files in the build cache and output bundles.
+     *
+     * @return the descriptor set file, or {@code null} if no descriptor set is written.
+     *
+     * @since 0.5.1
+     */
+    private File getCachedDescriptorSetFile() {
+        return writeDescriptorSet ? new File(getDescriptorSetOutputDirectory(), descriptorSetFileName) : null;
+    }
+
+    /**
+     * Restores the outputs of a previous compilation from an entry of the build cache or an output bundle.
+     *
+     * @param cachedOutputs the entry of the build cache or the output bundle.
+     * @throws IOException if the outputs cannot be restored.
+     *
+     * @since 0.5.1
+     */
+    private void restoreCachedOutputs(final File cachedOutputs) throws IOException {
+        final Set<String> restoredOutputs = OutputCache.restore(
+                cachedOutputs,
+                getProtocOutputDirectory(),
+                getCachedDescriptorSetFile());
+        getLog().info(format("Restored %d previously generated file(s)", restoredOutputs.size()));
+    }
+
+    /**
+     * Stores the outputs of a complete compilation in the build cache.
+     * Failures are logged, but do not fail the build.
+     *
+     * @param outputCache the build cache.
+     * @param cacheKey the key of the compilation.
+     * @param writtenOutputs relative names of generated files.
+     *
+     * @since 0.5.1
+     */
+    private void storeBuildCacheEntry(
+            final OutputCache outputCache,
+            final String cacheKey,
+            final Set<String> writtenOutputs) {
+        try {
+            outputCache.store(
+                    cacheKey,
+                    getOutputDirectory(),
+                    writtenOutputs,
+                    getCachedDescriptorSetFile());
+        } catch (IOException e) {
+            getLog().warn("Unable to store generated files in the build cache: " + e.getMessage());
+        }
+    }
+
+    /**
+     * Looks up the outputs of a compilation in the build cache, and then in the configured output bundle.
+     *
+     * @param outputCache the build cache, or {@code null} if it is not used.
+     * @param cacheKey the key of the compilation.
+     * @return an entry of the build cache or an output bundle, or {@code null} if the outputs are not available.
+     * @throws IOException if an entry downloaded from the remote build cache cannot be stored.
+     * @throws MojoExecutionException if the specification of the output bundle is invalid.
+     *
+     * @since 0.5.1
+     */
+    private File lookupCachedOutputs(final OutputCache outputCache, final String cacheKey)
+            throws IOException, MojoExecutionException {
+        if (outputCache != null) {
+            final File entryFile = outputCache.lookup(cacheKey);
+            if (entryFile != null) {
+                return entryFile;
+            }
+        }
+        if (StringUtils.isBlank(outputBundleArtifact)) {
+            return null;
+        }
+        final String artifactSpec = outputBundleArtifact.trim();
+        // without a type and a classifier, the bundle attached by the same execution is resolved
+        final Artifact artifact = createDependencyArtifact(
+                artifactSpec.split(":").length == 3
+                        ? artifactSpec + ":zip:" + getOutputBundleClassifier()
+                        : artifactSpec,
+                "zip");
+        final File bundleFile;
+        final String bundleKey;
+        try {
+            bundleFile = resolveArtifact(artifact).getFile();
+            bundleKey = OutputCache.readKey(bundleFile);
+        } catch (MojoExecutionException e) {
+            getLog().warn("Unable to resolve output bundle " + artifact + ": " + e.getMessage());
+            return null;
+        } catch (IOException e) {
+            getLog().warn("Unable to read output bundle " + artifact + ": " + e.getMessage());
+            return null;
+        }
+        if (!cacheKey.equals(bundleKey)) {
+            getLog().info("Not using output bundle " + artifact + ", because it has been generated from other inputs");
+            return null;
+        }
+        getLog().info("Using generated files from output bundle " + artifact);
+        return bundleFile;
+    }
+
+    /**
+     * Packages the outputs of a complete compilation into an output bundle, which is attached to the build
+     * by {@link #doAttachFiles()}.
+     *
+     * @param bundleFile the location of the bundle.
+     * @param cacheKey the key of the compilation, or {@code null} if it cannot be cached.
+     * @param writtenOutputs relative names of generated files.
+     * @throws IOException if the bundle cannot be written.
+     *
+     * @since 0.5.1
+     */
+    private void writeOutputBundle(final File bundleFile, final String cacheKey, final Set<String> writtenOutputs)
+            throws IOException {
+        if (cacheKey == null) {
+            getLog().warn("Not producing an output bundle, because the compilation cannot be cached");
+            return;
+        }
+        OutputCache.write(
+                bundleFile,
+                cacheKey,
+                getOutputDirectory(),
+                writtenOutputs,
+                getCachedDescriptorSetFile());
+    }
+
+    /**
+     * Selects source definitions that need to be recompiled after changes since the previous compilation.
+     *
+     * @param protoSourceRoot the proto source root.
+     * @param protoFiles all source definitions to compile.
+     * @param importGraph the import graph of the current sources.
+     * @param importGraphFile the location of the import graph recorded after the previous compilation.
+     * @return a subset of definitions that have to be recompiled, or the same set instance
+     *         if all definitions have to be recompiled.
+     *
+     * @since 0.5.1
+     */
+    private ImmutableSet<File> selectAffectedProtoFiles(
+            final File protoSourceRoot,
+            final ImmutableSet<File> protoFiles,
+            final ProtoImportGraph importGraph,
+            final File importGraphFile) {
+        if (writeDescriptorSet) {
+            // a descriptor set always has to describe all definitions
+            getLog().debug("Incremental compilation is not possible when a descriptor set is written");
+            return protoFiles;
+        }
+        final ProtoImportGraph previousImportGraph = ProtoImportGraph.load(importGraphFile, getLog());
+        if (previousImportGraph == null || !hasOutputs()) {
+            return protoFiles;
+        }
+        final ImmutableSet<String> affectedNames = importGraph.findAffected(previousImportGraph);
+        if (affectedNames == null) {
+            getLog().debug("Incremental compilation is not possible, the configuration has changed"
+                    + " or proto files have been deleted");
+            return protoFiles;
+        }
+        final ImmutableSet.Builder<File> affectedProtoFiles = ImmutableSet.builder();
+        for (final File protoFile : protoFiles) {
+            if (affectedNames.contains(OutputManifest.getRelativeName(protoSourceRoot, protoFile))) {
+                affectedProtoFiles.add(protoFile);
+            }
+        }
+        return affectedProtoFiles.build();
+    }
+
+    /**
+     * Removes outputs of previous compilations that have not been produced again, if {@code clearOutputDirectory}
+     * is set, and records the outputs of the current compilation.
+     * Outputs that are not recorded in the manifest are never removed.
+     *
+     * @param outputManifest the manifest of previous compilations, which is updated in place.
+     * @param protoSourceRoot the proto source root.
+     * @param protoFiles all source definitions.
+     * @param compiledProtoFiles source definitions that have been compiled.
+     * @param writtenOutputs relative paths of the outputs produced by the compilation.
+     * @return the updated manifest.
+     * @throws IOException if a stale output cannot be removed.
+     *
+     * @since 0.5.1
+     */
+    private OutputManifest updateOutputManifest(
+            final OutputManifest outputManifest,
+            final File protoSourceRoot,
+            final ImmutableSet<File> protoFiles,
+            final ImmutableSet<File> compiledProtoFiles,
+            final Set<String> writtenOutputs)
+            throws IOException {
+        final ImmutableSet<String> compiledNames = OutputManifest.getRelativeNames(protoSourceRoot, compiledProtoFiles);
+        final ImmutableSet<String> currentNames =
+                compiledProtoFiles == protoFiles ? compiledNames : OutputManifest.getRelativeNames(protoSourceRoot, protoFiles);
+        final ImmutableSet<String> staleOutputs = clearOutputDirectory
+                ? outputManifest.findStaleOutputs(compiledNames, currentNames, writtenOutputs)
+                : ImmutableSet.<String>of();
+        for (final String staleOutput : staleOutputs) {
+            removeOutput(staleOutput);
+        }
+        if (!staleOutputs.isEmpty()) {
+            getLog().info(format("Removed %d stale generated file(s)", staleOutputs.size()));
+        }
+        outputManifest.update(getOutputDirectory(), compiledNames, writtenOutputs, staleOutputs);
+        return outputManifest;
+    }
+
+    /**
+     * Moves changed outputs from the staging directory into the output directory when {@code useStagingDirectory}
+     * is set; otherwise, finds the outputs that have been generated directly into the output directory.
+     *
+     * @param outputSynchroniser the synchroniser of this execution.
+     * @return relative paths of all outputs produced by the compilation.
+     * @throws IOException if one of the outputs cannot be moved.
+     * @throws MojoExecutionException if the synchronisation has failed with an internal error.
+     *
+     * @since 0.5.1
+     */
+    private Set<String> synchroniseStagedOutputs(final OutputSynchroniser outputSynchroniser)
+            throws IOException, MojoExecutionException {
+        final long start = System.nanoTime();
+        final OutputSynchroniser.Result result;
+        try {
+            result = outputSynchroniser.synchronise(ParallelTasks.effectiveThreads(extractionThreads));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while updating generated files", e);
+        } catch (ExecutionException e) {
+            throw propagateExecutionFailure(e);
+        }
+        if (changedOutputFiles != null) {
+            changedOutputFiles.addAll(result.getChangedFiles());
+            getLog().info(format("Updated %d of %d generated file(s) in %d ms",
+                    result.getChangedFiles().size(),
+                    result.getStagedOutputs().size(),
+                    NANOSECONDS.toMillis(System.nanoTime() - start)));
+        } else if (getLog().isDebugEnabled()) {
+            getLog().debug(format("Found %d generated file(s) in %d ms",
+                    result.getStagedOutputs().size(),
+                    NANOSECONDS.toMillis(System.nanoTime() - start)));
+        }
+        return result.getStagedOutputs();
+    }
+
+    /**
+     * Removes all files from the output directory that have not been produced by the compilation.
+     * This replaces clearing the output directory before a compilation into the staging directory.
+     *
+     * @param writtenOutputs relative paths of the outputs produced by the compilation.
+     * @throws IOException if the output directory cannot be listed or a file cannot be removed.
+     *
+     * @since 0.5.1
+     */
+    private void removeUnrecordedOutputs(final Set<String> writtenOutputs) throws IOException {
+        final File outputDirectory = getOutputDirectory();
+        for (final File outputFile : findGeneratedFilesInDirectory(outputDirectory)) {
+            final String output = OutputManifest.getRelativeName(outputDirectory, outputFile);
+            if (!writtenOutputs.contains(output)) {
+                removeOutput(output);
+            }
+        }
+    }
+
+    private void removeOutput(final String output) throws IOException {
+        final File outputDirectory = getOutputDirectory();
+        final File outputFile = new File(outputDirectory, output);
+        if (getLog().isDebugEnabled()) {
+            getLog().debug("Removing stale output " + outputFile);
+        }
+        if (outputFile.exists() && !outputFile.delete()) {
+            throw new IOException("Unable to delete " + outputFile);
+        }
+        removeEmptyParentDirectories(outputFile, outputDirectory);
+        if (changedOutputFiles != null) {
+            changedOutputFiles.add(outputFile);
+        }
+    }
+
+    /**
+     * Returns the directory into which {@code protoc} should generate files.
+     * This is either the output directory, or a staging directory when {@code useStagingDirectory} is set.
+     *
+     * @return the directory to pass to {@code protoc}.
+     *
+     * @since 0.5.1
+     */
+    protected File getProtocOutputDirectory() {
+        return stagingOutputDirectory != null ? stagingOutputDirectory : getOutputDirectory();
+    }
+
+    /**
+     * Notifies the build context about changed generated files.
+     * After a compilation into the staging directory, only the files that have actually changed
+     * are refreshed; otherwise, the whole output directory is.
+     *
+     * @since 0.5.1
+     */
+    protected void refreshGeneratedFiles() {
+        if (changedOutputFiles == null) {
+            buildContext.refresh(getOutputDirectory());
+        } else {
+            for (final File changedOutputFile : changedOutputFiles) {
+                buildContext.refresh(changedOutputFile);
+            }
+        }
+    }
+
+    private static void removeEmptyParentDirectories(final File file, final File rootDirectory) {
+        File directory = file.getParentFile();
+        while (directory != null && !directory.equals(rootDirectory)) {
+            final String[] children = directory.list();
+            if (children == null || children.length > 0 || !directory.delete()) {
+                break;
+            }
+            directory = directory.getParentFile();
+        }
+    }
+
+    /**
+     * Checks that all outputs recorded after the previous compilation are still in place, unmodified.
+     *
+     * @param outputManifestFile the location of the output manifest.
+     * @return {@code true}, if there is a manifest, its outputs are unchanged and the descriptor set file exists,
+     *         if one is expected.
+     *
+     * @since 0.5.1
+     */
+    private boolean hasRecordedOutputs(final File outputManifestFile) {
+        final OutputManifest outputManifest = OutputManifest.load(outputManifestFile, getLog());
+        if (outputManifest == null || !outputManifest.isUnchanged(getOutputDirectory())) {
+            return false;
+        }
+        return !writeDescriptorSet || new File(getDescriptorSetOutputDirectory(), descriptorSetFileName).isFile();
+    }
+
+    /**
+     * Checks that the outputs of a previous compilation are still in place.
+     * The output directory is only searched until the first generated file is found.
+     *
+     * @return {@code true}, if there are generated files and the descriptor set file, if one is expected.
+     *
+     * @since 0.5.1
+     */
+    protected boolean hasOutputs() {
+        if (!containsFiles(getOutputDirectory())) {
+            return false;
+        }
+        return !writeDescriptorSet || new File(getDescriptorSetOutputDirectory(), descriptorSetFileName).isFile();
+    }
+
+    private static boolean containsFiles(final File directory) {
+        final File[] children = directory.listFiles();
+        if (children == null) {
+            return false;
+        }
+        for (final File child : children) {
+            if (child.isFile() || child.isDirectory() && containsFiles(child)) {
+                return true;
+            }
+        }
+        return false;
     }
 
     /**
-     * Checks that the source files don't have modification time that is later than the target files.
+     * Scans the proto source root, reusing the directory index recorded by the previous execution.
      *
-     * @param sourceFiles a set of source files.
-     * @param targetFiles a set of target files.
-     * @return {@code true}, if source files are not later than the target files; {@code false}, otherwise.
+     * @param protoSourceRoot the proto source root.
+     * @param fingerprintStore the store that keeps the index.
+     * @param fingerprintKey a key that identifies this execution.
+     * @return the updated index.
+     * @throws IOException if the source root cannot be scanned or the index cannot be saved.
+     *
+     * @since 0.5.1
      */
-    protected boolean checkFilesUpToDate(final ImmutableSet<File> sourceFiles, final ImmutableSet<File> targetFiles) {
-        return lastModified(sourceFiles) + staleMillis < lastModified(targetFiles);
+    private DirectoryIndex indexProtoSourceRoot(
+            final File protoSourceRoot,
+            final FingerprintStore fingerprintStore,
+            final String fingerprintKey)
+            throws IOException {
+        final long start = System.nanoTime();
+        final File indexFile = fingerprintStore.getRecordFile(fingerprintKey, DIRECTORY_INDEX_SUFFIX);
+        final Joiner joiner = Joiner.on(',');
+        final String patternsKey = protoSourceRoot.getAbsolutePath()
+                + '|' + joiner.join(getIncludes())
+                + '|' + joiner.join(getProtoFileExcludes());
+        final DirectoryIndex sourceIndex = DirectoryIndex.scan(
+                protoSourceRoot,
+                getProtoFileScanner(),
+                patternsKey,
+                DirectoryIndex.load(indexFile, getLog()));
+        sourceIndex.save(indexFile);
+        if (getLog().isDebugEnabled()) {
+            getLog().debug(format("Indexed %s in %d ms, listed %d directories, read %d files",
+                    protoSourceRoot,
+                    NANOSECONDS.toMillis(System.nanoTime() - start),
+                    sourceIndex.getListedDirectories(),
+                    sourceIndex.getReadFiles()));
+        }
+        return sourceIndex;
     }
 
     /**
@@ -762,10 +2673,50 @@ abstract class AbstractProtocMojo extends AbstractMojo {
         return excludes;
     }
 
-    // TODO add artifact filtering (inclusions and exclusions)
-    // TODO add filtering for proto definitions in included artifacts
     protected abstract List<Artifact> getDependencyArtifacts();
 
+    /**
+     * Returns the dependency artifacts that may contribute {@code .proto} files to the proto path,
+     * according to the configured dependency filters.
+     *
+     * @return a list of dependency artifacts, in their original order.
+     *
+     * @since 0.5.1
+     */
+    protected List<Artifact> getProtoDependencyArtifacts() {
+        final ProtoDependencyFilter dependencyFilter = getProtoDependencyFilter();
+        final List<Artifact> protoDependencyArtifacts = new ArrayList<Artifact>();
+        for (final Artifact artifact : getDependencyArtifacts()) {
+            if (dependencyFilter.includes(artifact)) {
+                protoDependencyArtifacts.add(artifact);
+            } else if (getLog().isDebugEnabled()) {
+                getLog().debug("Excluded from proto path by dependency filters: " + artifact);
+            }
+        }
+        return protoDependencyArtifacts;
+    }
+
+    /**
+     * Creates a filter for dependency artifacts and proto definitions inside them.
+     *
+     * @return a filter according to the current configuration.
+     */
+    private ProtoDependencyFilter getProtoDependencyFilter() {
+        List<String> directDependencies = null;
+        if (directDependenciesOnly) {
+            directDependencies = new ArrayList<String>();
+            for (final Dependency dependency : project.getDependencies()) {
+                directDependencies.add(dependency.getManagementKey());
+            }
+        }
+        return new ProtoDependencyFilter(
+                dependencyIncludes,
+                dependencyExcludes,
+                directDependencies,
+                dependencyProtoIncludes,
+                dependencyProtoExcludes);
+    }
+
     /**
      * Returns the output directory for generated sources. Depends on build phase so must
      * be defined in concrete implementation.
@@ -789,6 +2740,32 @@ abstract class AbstractProtocMojo extends AbstractMojo {
             doAttachProtoSources();
         }
         doAttachGeneratedFiles();
+        if (attachOutputBundle) {
+            final File bundleFile =
+                    new FingerprintStore(fingerprintDirectory).getRecordFile(getFingerprintKey(), OUTPUT_BUNDLE_SUFFIX);
+            if (bundleFile.isFile()) {
+                projectHelper.attachArtifact(project, "zip", getOutputBundleClassifier(), bundleFile);
+            }
+        }
+    }
+
+    /**
+     * Returns the classifier of output bundles. Depends on build phase so must
+     * be defined in concrete implementation.
+     *
+     * @return the classifier of output bundles.
+     *
+     * @since 0.5.1
+     */
+    protected abstract String getOutputBundleClassifier();
+
+    /**
+     * Returns the key under which records of the current execution are kept in {@code fingerprintDirectory}.
+     *
+     * @return a key that identifies the execution.
+     */
+    private String getFingerprintKey() {
+        return mojoExecution.getGoal() + '-' + mojoExecution.getExecutionId();
     }
 
     protected abstract void doAttachProtoSources();
@@ -797,23 +2774,109 @@ abstract class AbstractProtocMojo extends AbstractMojo {
 
     /**
      * Gets the {@link File} for each dependency artifact.
+     * If {@link #useReactorProtoSourceRoots} is enabled, dependencies on reactor modules
+     * are replaced with the proto source roots of those modules.
      *
      * @return A set of all dependency artifacts.
      */
     protected ImmutableSet<File> getDependencyArtifactFiles() {
         final Set<File> dependencyArtifactFiles = new LinkedHashSet<File>();
-        for (final Artifact artifact : getDependencyArtifacts()) {
+        final ReactorProtoSourceRoots reactorProtoSourceRoots = getReactorProtoSourceRoots();
+        for (final Artifact artifact : getProtoDependencyArtifacts()) {
+            if (reactorProtoSourceRoots != null) {
+                final ImmutableList<File> protoSourceRoots = reactorProtoSourceRoots.find(artifact);
+                if (!protoSourceRoots.isEmpty()) {
+                    if (getLog().isDebugEnabled()) {
+                        getLog().debug("Using reactor proto source roots for " + artifact + ": " + protoSourceRoots);
+                    }
+                    dependencyArtifactFiles.addAll(protoSourceRoots);
+                    continue;
+                }
+            }
             dependencyArtifactFiles.add(artifact.getFile());
         }
         return ImmutableSet.copyOf(dependencyArtifactFiles);
     }
 
+    /**
+     * Returns a mapping of reactor dependencies to proto source roots, if it is enabled.
+     *
+     * @return a mapping instance, or {@code null} if {@link #useReactorProtoSourceRoots} is disabled.
+     */
+    private ReactorProtoSourceRoots getReactorProtoSourceRoots() {
+        return useReactorProtoSourceRoots
+                ? new ReactorProtoSourceRoots(session, pluginDescriptor.getPluginLookupKey())
+                : null;
+    }
+
+    /**
+     * Resolves descriptor sets attached to dependency artifacts.
+     * Dependencies without an attached descriptor set are silently skipped.
+     *
+     * @return a map from dependency artifact files to their descriptor set files,
+     *         in the order of dependencies.
+     *
+     * @since 0.5.1
+     */
+    protected ImmutableMap<File, File> resolveDependencyDescriptorSets() {
+        final Map<File, File> descriptorSets = new LinkedHashMap<File, File>();
+        final ReactorProtoSourceRoots reactorProtoSourceRoots = getReactorProtoSourceRoots();
+        for (final Artifact artifact : getProtoDependencyArtifacts()) {
+            // directories are reactor modules that have not been packaged, there is nothing attached to them yet
+            if (artifact.getFile() == null || !artifact.getFile().isFile()) {
+                continue;
+            }
+            // reactor modules that are replaced with their sources do not need descriptor sets
+            if (reactorProtoSourceRoots != null && !reactorProtoSourceRoots.find(artifact).isEmpty()) {
+                continue;
+            }
+            final Artifact descriptorSetArtifact = artifactFactory.createArtifactWithClassifier(
+                    artifact.getGroupId(),
+                    artifact.getArtifactId(),
+                    artifact.getVersion(),
+                    "protobin",
+                    dependencyDescriptorSetClassifier);
+            final ArtifactResolutionRequest request = new ArtifactResolutionRequest()
+                    .setArtifact(descriptorSetArtifact)
+                    .setResolveRoot(true)
+                    .setResolveTransitively(false)
+                    .setLocalRepository(localRepository)
+                    .setRemoteRepositories(remoteRepositories)
+                    .setOffline(session.isOffline())
+                    .setForceUpdate(session.getRequest().isUpdateSnapshots())
+                    .setServers(session.getRequest().getServers())
+                    .setMirrors(session.getRequest().getMirrors())
+                    .setProxies(session.getRequest().getProxies());
+            final ArtifactResolutionResult result = repositorySystem.resolve(request);
+            final File descriptorSetFile = descriptorSetArtifact.getFile();
+            if (result.isSuccess() && descriptorSetFile != null && descriptorSetFile.isFile()) {
+                if (getLog().isDebugEnabled()) {
+                    getLog().debug("Using descriptor set " + descriptorSetFile + " for " + artifact);
+                }
+                descriptorSets.put(artifact.getFile(), descriptorSetFile);
+            } else if (getLog().isDebugEnabled()) {
+                getLog().debug("No descriptor set attached to " + artifact + ", using its proto files");
+            }
+        }
+        return ImmutableMap.copyOf(descriptorSets);
+    }
+
     /**
      * Unpacks proto descriptors that are bundled inside dependent artifacts into a temporary directory.
      * This is needed because protobuf compiler cannot handle imported descriptors that are packed inside jar files.
      *
+     * <p>If {@link #pruneProtoPath} is enabled, only those classpath elements are unpacked
+     * that contain definitions from the transitive import closure of the specified proto files.</p>
+     *
+     * <p>If {@link #overlayProtoPath} is enabled, all unpacked definitions are merged into a single import root.</p>
+     *
+     * <p>If the well-known types of the protobuf distribution are provided, they become the first import root,
+     * and definitions with the same names are not unpacked from classpath elements.</p>
+     *
      * @param temporaryProtoFileDirectory temporary directory to serve as root for unpacked structure.
      * @param classpathElementFiles classpath elements, can be either jar files or directories.
+     * @param protoFiles protobuf definitions to be compiled.
+     * @param protocIncludeElement an optional jar file or directory with the well-known types.
      * @throws IOException if one of the file operations fails.
      * @throws MojoExecutionException if an internal error happens.
      * @return a set of import roots for protobuf compiler
@@ -821,64 +2884,527 @@ abstract class AbstractProtocMojo extends AbstractMojo {
      */
     protected ImmutableSet<File> makeProtoPathFromJars(
             final File temporaryProtoFileDirectory,
-            final Iterable<File> classpathElementFiles)
+            final Iterable<File> classpathElementFiles,
+            final ImmutableSet<File> protoFiles,
+            final File protocIncludeElement)
             throws IOException, MojoExecutionException {
         checkNotNull(classpathElementFiles, "classpathElementFiles");
-        if (!classpathElementFiles.iterator().hasNext()) {
+        if (!classpathElementFiles.iterator().hasNext() && protocIncludeElement == null) {
             return ImmutableSet.of(); // Return an empty set
         }
-        // clean the temporary directory to ensure that stale files aren't used
-        if (temporaryProtoFileDirectory.exists()) {
+        // clean the temporary directory to ensure that stale files aren't used,
+        // but only once per session, as other executions may share files extracted into it
+        if (sessionProtoIndex.claimDirectory(session, temporaryProtoFileDirectory)
+                && temporaryProtoFileDirectory.exists()) {
             cleanDirectory(temporaryProtoFileDirectory);
         }
-        final Set<File> protoDirectories = new LinkedHashSet<File>();
-        for (final File classpathElementFile : classpathElementFiles) {
-            // for some reason under IAM, we receive poms as dependent files
-            // I am excluding .xml rather than including .jar as there may be other extensions in use (sar, har, zip)
-            if (classpathElementFile.isFile() && classpathElementFile.canRead() &&
-                    !classpathElementFile.getName().endsWith(".xml")) {
-
-                // create the jar file. the constructor validates.
-                final JarFile classpathJar;
-                try {
-                    classpathJar = new JarFile(classpathElementFile);
-                } catch (IOException e) {
-                    throw new IllegalArgumentException(format(
-                            "%s was not a readable artifact", classpathElementFile), e);
+        final ProtoExtractionStore extractionStore =
+                useDependencyCache ? new ProtoExtractionStore(getDependencyCacheDirectory(), getLog()) : null;
+        final ProtoJarIndex jarIndex = sessionProtoIndex.getJarIndex(
+                session,
+                useDependencyIndex ? new File(getDependencyCacheDirectory(), JAR_INDEX_FILE_NAME) : null,
+                getLog());
+        final ProtoDependencyFilter dependencyFilter = getProtoDependencyFilter();
+
+        // The well-known types shadow any copies of them in classpath elements
+        final ImmutableSet.Builder<File> protoPath = ImmutableSet.builder();
+        final List<File> sourceRoots = new ArrayList<File>();
+        sourceRoots.add(getProtoSourceRoot());
+        final Set<String> protocIncludeEntries = new HashSet<String>();
+        if (protocIncludeElement != null) {
+            final File protocIncludeDirectory = materialiseProtocIncludeElement(
+                    temporaryProtoFileDirectory, protocIncludeElement, jarIndex, extractionStore, protocIncludeEntries);
+            if (protocIncludeDirectory != null) {
+                protoPath.add(protocIncludeDirectory);
+                sourceRoots.add(protocIncludeDirectory);
+            }
+        }
+
+        // First, find out which proto definitions each classpath element contains
+        final List<File> elements = ImmutableList.copyOf(classpathElementFiles);
+        final List<Callable<ImmutableList<String>>> indexTasks = new ArrayList<Callable<ImmutableList<String>>>();
+        for (final File classpathElementFile : elements) {
+            indexTasks.add(new Callable<ImmutableList<String>>() {
+                @Override
+                public ImmutableList<String> call() throws Exception {
+                    final long start = System.nanoTime();
+                    final ImmutableList<String> allProtoEntries = listProtoEntries(classpathElementFile, jarIndex);
+                    final ImmutableList<String> includedProtoEntries = dependencyFilter.filterEntries(allProtoEntries);
+                    final ImmutableList<String> protoEntries =
+                            removeEntries(includedProtoEntries, protocIncludeEntries);
+                    if (getLog().isDebugEnabled()) {
+                        getLog().debug(format(
+                                "Scanned %s in %d ms, %d proto file(s), %d excluded, %d provided by protoc",
+                                classpathElementFile,
+                                NANOSECONDS.toMillis(System.nanoTime() - start),
+                                protoEntries.size(),
+                                allProtoEntries.size() - includedProtoEntries.size(),
+                                includedProtoEntries.size() - protoEntries.size()));
+                    }
+                    return protoEntries;
+                }
+            });
+        }
+        final List<ImmutableList<String>> elementEntries = invokeExtractionTasks(indexTasks);
+        jarIndex.save();
+
+        final BitSet neededElements;
+        if (pruneProtoPath) {
+            neededElements = new ProtoImportClosure(
+                    sourceRoots,
+                    elements,
+                    elementEntries,
+                    asList(additionalProtoPathElements),
+                    getLog()).compute(protoFiles);
+        } else {
+            neededElements = new BitSet(elements.size());
+            neededElements.set(0, elements.size());
+        }
+
+        if (overlayProtoPath) {
+            return protoPath
+                    .addAll(makeOverlayProtoPath(temporaryProtoFileDirectory, elements, elementEntries, neededElements))
+                    .build();
+        }
+
+        // Then, extract only those elements that are needed
+        final List<Callable<File>> extractionTasks = new ArrayList<Callable<File>>();
+        for (int i = 0; i < elements.size(); i++) {
+            final File classpathElementFile = elements.get(i);
+            final ImmutableList<String> protoEntries = elementEntries.get(i);
+            if (protoEntries.isEmpty()) {
+                continue;
+            }
+            if (!neededElements.get(i)) {
+                if (getLog().isDebugEnabled()) {
+                    getLog().debug("Pruned from proto path, not in import closure: " + classpathElementFile);
                 }
-                final Enumeration<JarEntry> jarEntries = classpathJar.entries();
-                while (jarEntries.hasMoreElements()) {
-                    final JarEntry jarEntry = jarEntries.nextElement();
-                    final String jarEntryName = jarEntry.getName();
-                    // TODO try using org.codehaus.plexus.util.SelectorUtils.matchPath() with DEFAULT_INCLUDES
-                    if (jarEntryName.endsWith(PROTO_FILE_SUFFIX)) {
-                        final File jarDirectory =
-                                new File(temporaryProtoFileDirectory, truncatePath(classpathJar.getName()));
-                        final File uncompressedCopy = new File(jarDirectory, jarEntryName);
-                        FileUtils.mkdir(uncompressedCopy.getParentFile().getAbsolutePath());
-                        copyStreamToFile(
-                                new RawInputStreamFacade(classpathJar.getInputStream(jarEntry)),
-                                uncompressedCopy);
-                        protoDirectories.add(jarDirectory);
+                continue;
+            }
+            extractionTasks.add(new Callable<File>() {
+                @Override
+                public File call() throws Exception {
+                    final long start = System.nanoTime();
+                    final File protoDirectory = materialiseProtoPathElement(
+                            temporaryProtoFileDirectory, classpathElementFile, protoEntries, extractionStore);
+                    if (getLog().isDebugEnabled()) {
+                        getLog().debug(format("Prepared %s in %d ms, proto path: %s",
+                                classpathElementFile,
+                                NANOSECONDS.toMillis(System.nanoTime() - start),
+                                protoDirectory));
                     }
+                    return protoDirectory;
+                }
+            });
+        }
+
+        // Results are in the order of classpath elements, which keeps the order of imports predictable
+        return protoPath.addAll(invokeExtractionTasks(extractionTasks)).build();
+    }
+
+    /**
+     * Makes the well-known types of the protobuf distribution available to the protobuf compiler.
+     * If all definitions are located under an {@code include} directory, as in protobuf distribution archives,
+     * that directory becomes the import root.
+     *
+     * @param temporaryProtoFileDirectory temporary directory to serve as root for unpacked structure.
+     * @param protocIncludeElement a jar file or a directory with the well-known types.
+     * @param jarIndex an index of proto definitions in jar files.
+     * @param extractionStore an optional persistent store for extracted proto definitions.
+     * @param protocIncludeEntries receives the names of definitions available in the import root.
+     * @return an import root for protobuf compiler, or {@code null} if there are no definitions.
+     * @throws IOException if one of the file operations fails.
+     * @throws MojoExecutionException if an internal error happens.
+     *
+     * @since 0.5.1
+     */
+    private File materialiseProtocIncludeElement(
+            final File temporaryProtoFileDirectory,
+            final File protocIncludeElement,
+            final ProtoJarIndex jarIndex,
+            final ProtoExtractionStore extractionStore,
+            final Set<String> protocIncludeEntries)
+            throws IOException, MojoExecutionException {
+        final ImmutableList<String> protoEntries = listProtoEntries(protocIncludeElement, jarIndex);
+        if (protoEntries.isEmpty()) {
+            getLog().warn("No proto files found in " + protocIncludeElement + ", well-known types are not provided");
+            return null;
+        }
+        String prefix = PROTOC_INCLUDE_DIRECTORY + '/';
+        for (final String protoEntry : protoEntries) {
+            if (!protoEntry.startsWith(prefix)) {
+                prefix = "";
+                break;
+            }
+        }
+        for (final String protoEntry : protoEntries) {
+            protocIncludeEntries.add(protoEntry.substring(prefix.length()));
+        }
+        final File protoDirectory = materialiseProtoPathElement(
+                temporaryProtoFileDirectory, protocIncludeElement, protoEntries, extractionStore);
+        return prefix.isEmpty() ? protoDirectory : new File(protoDirectory, PROTOC_INCLUDE_DIRECTORY);
+    }
+
+    /**
+     * Removes the specified names from a list of proto definitions.
+     *
+     * @param protoEntries relative names of proto definitions.
+     * @param excludedEntries names to remove.
+     * @return the remaining names, in their original order.
+     */
+    private static ImmutableList<String> removeEntries(
+            final ImmutableList<String> protoEntries,
+            final Set<String> excludedEntries) {
+        if (excludedEntries.isEmpty()) {
+            return protoEntries;
+        }
+        final ImmutableList.Builder<String> remainingEntries = ImmutableList.builder();
+        for (final String protoEntry : protoEntries) {
+            if (!excludedEntries.contains(protoEntry)) {
+                remainingEntries.add(protoEntry);
+            }
+        }
+        return remainingEntries.build();
+    }
+
+    /**
+     * Merges proto definitions from all needed classpath elements into a single import root.
+     * The merged tree is built at most once per session for the same set of classpath elements.
+     *
+     * @param temporaryProtoFileDirectory temporary directory to serve as root for the merged tree.
+     * @param elements classpath elements, can be either jar files or directories.
+     * @param elementEntries relative names of proto definitions in each classpath element.
+     * @param neededElements indexes of classpath elements that should be merged.
+     * @return a set with a single import root, or an empty set if there are no proto definitions.
+     * @throws IOException if one of the file operations fails.
+     * @throws MojoExecutionException if an internal error happens.
+     *
+     * @since 0.5.1
+     */
+    private ImmutableSet<File> makeOverlayProtoPath(
+            final File temporaryProtoFileDirectory,
+            final List<File> elements,
+            final List<ImmutableList<String>> elementEntries,
+            final BitSet neededElements)
+            throws IOException, MojoExecutionException {
+        final BitSet mergedElements = new BitSet(elements.size());
+        final StringBuilder key = new StringBuilder();
+        for (int i = neededElements.nextSetBit(0); i >= 0; i = neededElements.nextSetBit(i + 1)) {
+            if (!elementEntries.get(i).isEmpty()) {
+                mergedElements.set(i);
+                key.append(getMaterialisationKey(elements.get(i), elementEntries.get(i)))
+                        .append(File.pathSeparatorChar);
+            }
+        }
+        if (mergedElements.isEmpty()) {
+            return ImmutableSet.of();
+        }
+        // the directory name depends on the merged elements, so that different sets never share a tree
+        final File overlayDirectory = new File(temporaryProtoFileDirectory,
+                "overlay-" + Hashing.md5().hashString(key, Charsets.UTF_8));
+        final long start = System.nanoTime();
+        try {
+            final File protoDirectory = sessionProtoIndex.materialise(
+                    session,
+                    overlayDirectory.getAbsolutePath(),
+                    new Callable<File>() {
+                        @Override
+                        public File call() throws IOException {
+                            return new ProtoPathOverlay(overlayDirectory, getLog())
+                                    .build(elements, elementEntries, mergedElements);
+                        }
+                    });
+            if (getLog().isDebugEnabled()) {
+                getLog().debug(format("Prepared %d classpath element(s) in %d ms, proto path: %s",
+                        mergedElements.cardinality(),
+                        NANOSECONDS.toMillis(System.nanoTime() - start),
+                        protoDirectory));
+            }
+            return ImmutableSet.of(protoDirectory);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while extracting proto files from dependencies", e);
+        } catch (ExecutionException e) {
+            throw propagateExecutionFailure(e);
+        }
+    }
+
+    /**
+     * Runs tasks that scan or extract classpath elements on a bounded pool of threads.
+     *
+     * @param tasks tasks to run.
+     * @param <T> the type of task results.
+     * @return task results, in the order of tasks.
+     * @throws IOException if one of the tasks has failed with an I/O error.
+     * @throws MojoExecutionException if one of the tasks has failed with an internal error.
+     */
+    private <T> List<T> invokeExtractionTasks(final List<? extends Callable<T>> tasks)
+            throws IOException, MojoExecutionException {
+        try {
+            return ParallelTasks.invokeAll(tasks, ParallelTasks.effectiveThreads(extractionThreads));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while extracting proto files from dependencies", e);
+        } catch (ExecutionException e) {
+            throw propagateExecutionFailure(e);
+        }
+    }
+
+    /**
+     * Lists proto definitions in a single classpath element.
+     * This method may be invoked concurrently for different classpath elements.
+     *
+     * @param classpathElementFile a classpath element, can be either a jar file or a directory.
+     * @param jarIndex an index of proto definitions in jar files.
+     * @return relative names of proto definitions in the element, which is empty if there are none.
+     * @throws IOException if one of the file operations fails.
+     *
+     * @since 0.5.1
+     */
+    private ImmutableList<String> listProtoEntries(final File classpathElementFile, final ProtoJarIndex jarIndex)
+            throws IOException {
+        // for some reason under IAM, we receive poms as dependent files
+        // I am excluding .xml rather than including .jar as there may be other extensions in use (sar, har, zip)
+        if (classpathElementFile.isFile() && classpathElementFile.canRead() &&
+                !classpathElementFile.getName().endsWith(".xml")) {
+            // the index only opens the jar if it has not been seen before
+            try {
+                return jarIndex.getProtoEntries(classpathElementFile);
+            } catch (ZipException e) {
+                throw new IllegalArgumentException(format(
+                        "%s was not a readable artifact", classpathElementFile), e);
+            }
+        } else if (classpathElementFile.isDirectory()) {
+            final ImmutableList.Builder<String> protoEntries = ImmutableList.builder();
+            final String basePath = classpathElementFile.getAbsolutePath();
+            for (final File protoFile : getFiles(classpathElementFile, DEFAULT_INCLUDES, null)) {
+                protoEntries.add(protoFile.getAbsolutePath()
+                        .substring(basePath.length() + 1)
+                        .replace(File.separatorChar, '/'));
+            }
+            return protoEntries.build();
+        }
+        return ImmutableList.of();
+    }
+
+    /**
+     * Makes proto definitions from a single classpath element available to the protobuf compiler.
+     * Directories are used as they are, while jar files are extracted at most once per session
+     * and target location. This method may be invoked concurrently for different classpath elements.
+     *
+     * @param temporaryProtoFileDirectory temporary directory to serve as root for unpacked structure.
+     * @param classpathElementFile a classpath element, can be either a jar file or a directory.
+     * @param protoEntries relative names of proto definitions in the element.
+     * @param extractionStore an optional persistent store for extracted proto definitions.
+     * @return an import root for protobuf compiler.
+     * @throws IOException if one of the file operations fails.
+     * @throws MojoExecutionException if an internal error happens.
+     *
+     * @since 0.5.1
+     */
+    private File materialiseProtoPathElement(
+            final File temporaryProtoFileDirectory,
+            final File classpathElementFile,
+            final ImmutableList<String> protoEntries,
+            final ProtoExtractionStore extractionStore)
+            throws IOException, MojoExecutionException {
+        if (classpathElementFile.isDirectory()) {
+            return classpathElementFile;
+        }
+
+        final File targetDirectory;
+        final Callable<File> materialisation;
+        if (extractionStore != null) {
+            targetDirectory = getDependencyCacheDirectory();
+            materialisation = new Callable<File>() {
+                @Override
+                public File call() throws IOException {
+                    return extractionStore.extract(classpathElementFile, protoEntries);
                 }
-            } else if (classpathElementFile.isDirectory()) {
-                final List<File> protoFiles = getFiles(classpathElementFile, DEFAULT_INCLUDES, null);
-                if (!protoFiles.isEmpty()) {
-                    protoDirectories.add(classpathElementFile);
+            };
+        } else {
+            targetDirectory = temporaryProtoFileDirectory;
+            // executions may select different entries from the same jar, so each selection has its own directory
+            final String selection = Hashing.sha1()
+                    .hashString(Joiner.on('\n').join(protoEntries), Charsets.UTF_8).toString().substring(0, 8);
+            final File jarDirectory = new File(
+                    temporaryProtoFileDirectory, truncatePath(classpathElementFile.getPath()) + '-' + selection);
+            materialisation = new Callable<File>() {
+                @Override
+                public File call() throws IOException {
+                    // the jar may have been rebuilt within the session
+                    if (jarDirectory.exists()) {
+                        FileUtils.deleteDirectory(jarDirectory);
+                    }
+                    ProtoJarIndex.extract(classpathElementFile, protoEntries, jarDirectory);
+                    return jarDirectory;
                 }
+            };
+        }
+        final String key = targetDirectory.getAbsolutePath()
+                + File.pathSeparatorChar + getMaterialisationKey(classpathElementFile, protoEntries);
+        try {
+            return sessionProtoIndex.materialise(session, key, materialisation);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new MojoExecutionException("Interrupted while extracting proto files from dependencies", e);
+        } catch (ExecutionException e) {
+            throw propagateExecutionFailure(e);
+        }
+    }
+
+    /**
+     * Returns a key that identifies a classpath element together with its current state
+     * and the selection of proto definitions taken from it.
+     *
+     * @param classpathElementFile a classpath element.
+     * @param protoEntries relative names of selected proto definitions in the element.
+     * @return a key composed of the path, size and modification time of the element, and a hash of the selection.
+     */
+    private static String getMaterialisationKey(final File classpathElementFile, final List<String> protoEntries) {
+        return classpathElementFile.getAbsolutePath()
+                + File.pathSeparatorChar + classpathElementFile.length()
+                + File.pathSeparatorChar + classpathElementFile.lastModified()
+                + File.pathSeparatorChar + protoEntries.hashCode();
+    }
+
+    /**
+     * Rethrows the cause of a failed concurrent task.
+     *
+     * @param e an exception thrown by a concurrent task.
+     * @return never returns normally, the return type only allows callers to use a {@code throw} statement.
+     * @throws IOException if the task failed with an I/O error.
+     * @throws MojoExecutionException if the task failed with an internal error.
+     */
+    private static RuntimeException propagateExecutionFailure(final ExecutionException e)
+            throws IOException, MojoExecutionException {
+        final Throwable cause = e.getCause();
+        Throwables.propagateIfInstanceOf(cause, IOException.class);
+        Throwables.propagateIfInstanceOf(cause, MojoExecutionException.class);
+        throw Throwables.propagate(cause);
+    }
+
+    /**
+     * Creates the remote backend of the build cache, if one is configured.
+     *
+     * @return a remote cache, or {@code null} if there is none.
+     * @throws MojoExecutionException if the URL of the remote cache is invalid,
+     *                                or its server is not defined in {@code settings.xml}.
+     *
+     * @since 0.5.1
+     */
+    private RemoteOutputCache createRemoteOutputCache() throws MojoExecutionException {
+        if (StringUtils.isBlank(remoteBuildCacheUrl)) {
+            return null;
+        }
+        final URL url;
+        try {
+            url = new URL(remoteBuildCacheUrl.trim());
+        } catch (MalformedURLException e) {
+            throw new MojoExecutionException(
+                    "Invalid remote build cache URL: " + RemoteOutputCache.redact(remoteBuildCacheUrl));
+        }
+        if (url.getUserInfo() != null) {
+            throw new MojoExecutionException("The remote build cache URL "
+                    + RemoteOutputCache.redact(remoteBuildCacheUrl)
+                    + " must not contain credentials, configure a server in settings.xml"
+                    + " and set 'remoteBuildCacheServerId' instead");
+        }
+        Server server = null;
+        if (StringUtils.isNotBlank(remoteBuildCacheServerId)) {
+            server = session.getSettings().getServer(remoteBuildCacheServerId);
+            if (server == null) {
+                throw new MojoExecutionException("Server '" + remoteBuildCacheServerId
+                        + "' of the remote build cache is not defined in settings.xml");
             }
+            final SettingsDecryptionResult result =
+                    settingsDecrypter.decrypt(new DefaultSettingsDecryptionRequest(server));
+            for (final SettingsProblem problem : result.getProblems()) {
+                getLog().warn(problem.getMessage());
+            }
+            server = result.getServer();
+        }
+        return new RemoteOutputCache(
+                url,
+                server != null ? server.getUsername() : null,
+                server != null ? server.getPassword() : null,
+                remoteBuildCacheReadOnly,
+                (int) TimeUnit.SECONDS.toMillis(Math.max(remoteBuildCacheTimeout, 0)),
+                getLog());
+    }
+
+    /**
+     * Returns the root directory of the build cache.
+     *
+     * @return the configured cache directory, or the default location under the local repository.
+     *
+     * @since 0.5.1
+     */
+    protected File getBuildCacheDirectory() {
+        if (buildCacheDirectory != null) {
+            return buildCacheDirectory;
         }
-        return ImmutableSet.copyOf(protoDirectories);
+        return new File(localRepository.getBasedir(), ".cache/protobuf-maven-plugin/outputs");
+    }
+
+    /**
+     * Returns the root directory of the persistent store for {@code .proto} files extracted from dependencies.
+     *
+     * @return the configured store directory, or the default location under the local repository.
+     *
+     * @since 0.5.1
+     */
+    protected File getDependencyCacheDirectory() {
+        if (dependencyCacheDirectory != null) {
+            return dependencyCacheDirectory;
+        }
+        return new File(localRepository.getBasedir(), ".cache/protobuf-maven-plugin/dependencies");
     }
 
     protected ImmutableSet<File> findProtoFilesInDirectory(final File directory) throws IOException {
         checkNotNull(directory);
         checkArgument(directory.isDirectory(), "%s is not a directory", directory);
-        final Joiner joiner = Joiner.on(',');
-        final List<File> protoFilesInDirectory =
-                getFiles(directory, joiner.join(getIncludes()), joiner.join(getExcludes()));
-        return ImmutableSet.copyOf(protoFilesInDirectory);
+        return scanDirectory(getProtoFileScanner(), directory);
+    }
+
+    private FileScanner getProtoFileScanner() {
+        if (protoFileScanner == null) {
+            protoFileScanner = new FileScanner(getIncludes(), getProtoFileExcludes());
+        }
+        return protoFileScanner;
+    }
+
+    /**
+     * Returns the configured excludes together with the default excludes of Plexus,
+     * which have always been applied when scanning for source definitions.
+     *
+     * @return exclude patterns for source definitions.
+     */
+    private List<String> getProtoFileExcludes() {
+        final List<String> excludes = new ArrayList<String>(getExcludes());
+        excludes.addAll(FileUtils.getDefaultExcludesAsList());
+        return excludes;
+    }
+
+    /**
+     * Scans a directory tree on a bounded pool of threads.
+     *
+     * @param scanner a scanner with the patterns to match.
+     * @param directory the root of the tree.
+     * @return matching files, sorted by their relative paths.
+     * @throws IOException if the scan was interrupted.
+     *
+     * @since 0.5.1
+     */
+    private ImmutableSet<File> scanDirectory(final FileScanner scanner, final File directory) throws IOException {
+        try {
+            return ImmutableSet.copyOf(scanner.scan(directory, ParallelTasks.effectiveThreads(extractionThreads)));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new InterruptedIOException("Interrupted while scanning " + directory);
+        } catch (ExecutionException e) {
+            throw Throwables.propagate(e.getCause());
+        }
     }
 
     protected ImmutableSet<File> findProtoFilesInDirectories(final Iterable<File> directories) throws IOException {
@@ -938,7 +3464,16 @@ abstract class AbstractProtocMojo extends AbstractMojo {
         return hexString.toString();
     }
 
-    protected File resolveBinaryArtifact(final Artifact artifact) throws MojoExecutionException {
+    /**
+     * Resolves an artifact from the repositories of the current project.
+     *
+     * @param artifact the artifact to resolve.
+     * @return the resolved artifact, with a file.
+     * @throws MojoExecutionException if the artifact cannot be resolved.
+     *
+     * @since 0.5.1
+     */
+    protected Artifact resolveArtifact(final Artifact artifact) throws MojoExecutionException {
         final ArtifactResolutionResult result;
         try {
             final ArtifactResolutionRequest request = new ArtifactResolutionRequest()
@@ -965,13 +3500,18 @@ abstract class AbstractProtocMojo extends AbstractMojo {
         final Set<Artifact> artifacts = result.getArtifacts();
 
         if (artifacts == null || artifacts.isEmpty()) {
-            throw new MojoExecutionException("Unable to resolve plugin artifact");
+            throw new MojoExecutionException("Unable to resolve artifact " + artifact);
         }
 
-        final Artifact resolvedBinaryArtifact = artifacts.iterator().next();
+        final Artifact resolvedArtifact = artifacts.iterator().next();
         if (getLog().isDebugEnabled()) {
-            getLog().debug("Resolved artifact: " + resolvedBinaryArtifact);
+            getLog().debug("Resolved artifact: " + resolvedArtifact);
         }
+        return resolvedArtifact;
+    }
+
+    protected File resolveBinaryArtifact(final Artifact artifact) throws MojoExecutionException {
+        final Artifact resolvedBinaryArtifact = resolveArtifact(artifact);
 
         // Copy the file to the project build directory and make it executable
         final File sourceFile = resolvedBinaryArtifact.getFile();
@@ -988,10 +3528,14 @@ abstract class AbstractProtocMojo extends AbstractMojo {
         } catch (final IOException e) {
             throw new MojoExecutionException("Unable to create directory " + protocPluginDirectory, e);
         }
-        try {
-            FileUtils.copyFile(sourceFile, targetFile);
-        } catch (final IOException e) {
-            throw new MojoExecutionException("Unable to copy the file to " + protocPluginDirectory, e);
+        // the copy keeps the timestamp of the source, so that an unchanged binary is not copied again
+        if (targetFile.length() != sourceFile.length() || targetFile.lastModified() != sourceFile.lastModified()) {
+            try {
+                FileUtils.copyFile(sourceFile, targetFile);
+            } catch (final IOException e) {
+                throw new MojoExecutionException("Unable to copy the file to " + protocPluginDirectory, e);
+            }
+            targetFile.setLastModified(sourceFile.lastModified());
         }
         if (!Os.isFamily(Os.FAMILY_WINDOWS)) {
             targetFile.setExecutable(true);
@@ -1012,6 +3556,22 @@ abstract class AbstractProtocMojo extends AbstractMojo {
      * @throws MojoExecutionException if artifact specification cannot be parsed.
      */
     protected Artifact createDependencyArtifact(final String artifactSpec) throws MojoExecutionException {
+        return createDependencyArtifact(artifactSpec, "exe");
+    }
+
+    /**
+     * Creates a dependency artifact from a specification in
+     * {@code groupId:artifactId:version[:type[:classifier]]} format.
+     *
+     * @param artifactSpec artifact specification.
+     * @param defaultType artifact type to use if the specification does not include one.
+     * @return artifact object instance.
+     * @throws MojoExecutionException if artifact specification cannot be parsed.
+     *
+     * @since 0.5.1
+     */
+    protected Artifact createDependencyArtifact(final String artifactSpec, final String defaultType)
+            throws MojoExecutionException {
         final String[] parts = artifactSpec.split(":");
         if (parts.length < 3 || parts.length > 5) {
             throw new MojoExecutionException(
@@ -1019,7 +3579,7 @@ abstract class AbstractProtocMojo extends AbstractMojo {
                             + ", expected: groupId:artifactId:version[:type[:classifier]]"
                             + ", actual: " + artifactSpec);
         }
-        final String type = parts.length >= 4 ? parts[3] : "exe";
+        final String type = parts.length >= 4 ? parts[3] : defaultType;
         final String classifier = parts.length == 5 ? parts[4] : null;
         return createDependencyArtifact(parts[0], parts[1], parts[2], type, classifier);
     }
@@ -61,6 +61,19 @@ public abstract class AbstractProtocTestCompileMojo extends AbstractProtocMojo {
     )
     protected String descriptorSetClassifier;
 
+    /**
+     * The classifier of the output bundle, which is attached to the build when {@code attachOutputBundle}
+     * is set, and used by default to resolve {@code outputBundleArtifact}. Executions that attach bundles
+     * in the same project must use different classifiers.
+     *
+     * @since 0.5.1
+     */
+    @Parameter(
+            required = true,
+            defaultValue = "protoc-test-outputs"
+    )
+    private String outputBundleClassifier;
+
     @Override
     protected void doAttachProtoSources() {
         projectHelper.addTestResource(project, getProtoSourceRoot().getAbsolutePath(),
@@ -69,13 +82,14 @@ public abstract class AbstractProtocTestCompileMojo extends AbstractProtocMojo {
 
     @Override
     protected void doAttachGeneratedFiles() {
-        final File outputDirectory = getOutputDirectory();
-        project.addTestCompileSourceRoot(outputDirectory.getAbsolutePath());
+        for (final File sourceRoot : getGeneratedSourceRoots()) {
+            project.addTestCompileSourceRoot(sourceRoot.getAbsolutePath());
+        }
         if (writeDescriptorSet) {
             final File descriptorSetFile = new File(getDescriptorSetOutputDirectory(), descriptorSetFileName);
             projectHelper.attachArtifact(project, "test-protobin", descriptorSetClassifier, descriptorSetFile);
         }
-        buildContext.refresh(outputDirectory);
+        refreshGeneratedFiles();
     }
 
     @Override
@@ -88,6 +102,11 @@ public abstract class AbstractProtocTestCompileMojo extends AbstractProtocMojo {
         return descriptorSetOutputDirectory;
     }
 
+    @Override
+    protected String getOutputBundleClassifier() {
+        return outputBundleClassifier;
+    }
+
     @Override
     protected File getProtoSourceRoot() {
         return protoTestSourceRoot;
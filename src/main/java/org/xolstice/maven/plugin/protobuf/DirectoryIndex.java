@@ -0,0 +1,498 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A persistent Merkle index of the protobuf definitions in a source root.
+ *
+ * <p>Each directory is recorded with its modification time, its subdirectories and its definitions;
+ * each definition with its size, modification time and content digest. The digest of a directory
+ * is computed from the digests of its definitions and subdirectories, so the digest of the root
+ * identifies the contents of the whole tree.</p>
+ *
+ * <p>When a tree is scanned again, a directory whose modification time has not moved cannot have gained
+ * or lost entries, so it is not listed again, and its entries are not matched against patterns again.
+ * A definition whose size and modification time have not changed is not read again. Entries modified
+ * shortly before the previous scan are always checked, because a later change within the resolution
+ * of file system timestamps would go unnoticed otherwise.</p>
+ *
+ * <p>All {@code .proto} files are indexed, including those that are not selected for compilation,
+ * because they may still be imported by selected ones. Symbolic links to directories are followed,
+ * except for those that lead back to a directory that contains them.</p>
+ *
+ * @since 0.5.1
+ */
+final class DirectoryIndex {
+
+    private static final String FORMAT_VERSION = "#protoc-directory-index:1";
+
+    private static final char SEPARATOR = '\t';
+
+    private static final String DIRECTORY_RECORD = "D";
+
+    private static final String FILE_RECORD = "F";
+
+    private static final String PROTO_FILE_SUFFIX = ".proto";
+
+    /**
+     * The coarsest modification time resolution of supported file systems.
+     */
+    private static final long MODIFICATION_TIME_RESOLUTION_MILLIS = 2000L;
+
+    /**
+     * Identifies the patterns the index was built with; selection flags are only valid for the same patterns.
+     */
+    private final String patternsKey;
+
+    /**
+     * The time when the index was built.
+     */
+    private final long scanTime;
+
+    /**
+     * Directories by relative path, with {@code ""} for the root.
+     */
+    private final Map<String, DirectoryNode> directories;
+
+    private final String digest;
+
+    private final ImmutableList<File> selectedFiles;
+
+    private final int listedDirectories;
+
+    private final int readFiles;
+
+    private DirectoryIndex(
+            final String patternsKey,
+            final long scanTime,
+            final Map<String, DirectoryNode> directories,
+            final String digest,
+            final ImmutableList<File> selectedFiles,
+            final int listedDirectories,
+            final int readFiles) {
+        this.patternsKey = checkNotNull(patternsKey, "patternsKey");
+        this.scanTime = scanTime;
+        this.directories = directories;
+        this.digest = digest;
+        this.selectedFiles = selectedFiles;
+        this.listedDirectories = listedDirectories;
+        this.readFiles = readFiles;
+    }
+
+    /**
+     * Scans a source root, reusing unchanged parts of a previous index.
+     *
+     * @param root the source root.
+     * @param scanner a scanner that selects definitions for compilation.
+     * @param patternsKey a key that identifies the patterns of the scanner.
+     * @param previous the previous index of the same root, or {@code null} if there is none.
+     * @return a new index.
+     * @throws IOException if a definition cannot be read.
+     */
+    static DirectoryIndex scan(
+            final File root,
+            final FileScanner scanner,
+            final String patternsKey,
+            final DirectoryIndex previous)
+            throws IOException {
+        final Scan scan = new Scan(
+                scanner,
+                previous != null && patternsKey.equals(previous.patternsKey) ? previous : null);
+        final String digest = scan.scanDirectory(root, "");
+        Collections.sort(scan.selectedPaths);
+        final ImmutableList.Builder<File> selectedFiles = ImmutableList.builder();
+        for (final String path : scan.selectedPaths) {
+            selectedFiles.add(new File(root, path));
+        }
+        return new DirectoryIndex(
+                patternsKey,
+                scan.scanTime,
+                scan.directories,
+                digest,
+                selectedFiles.build(),
+                scan.listedDirectories,
+                scan.readFiles);
+    }
+
+    /**
+     * Returns the digest of all definitions in the tree.
+     *
+     * @return a hexadecimal digest.
+     */
+    String getDigest() {
+        return digest;
+    }
+
+    /**
+     * Returns the definitions selected for compilation.
+     *
+     * @return files sorted by their relative paths.
+     */
+    ImmutableList<File> getSelectedFiles() {
+        return selectedFiles;
+    }
+
+    /**
+     * Returns the number of directories that had to be listed during the scan.
+     *
+     * @return the number of listed directories.
+     */
+    int getListedDirectories() {
+        return listedDirectories;
+    }
+
+    /**
+     * Returns the number of definitions that had to be read during the scan.
+     *
+     * @return the number of read files.
+     */
+    int getReadFiles() {
+        return readFiles;
+    }
+
+    /**
+     * Loads a previously saved index.
+     *
+     * @param indexFile the location of the index.
+     * @param log a logger for diagnostic output.
+     * @return the index, or {@code null} if there is no readable index at the specified location.
+     */
+    static DirectoryIndex load(final File indexFile, final Log log) {
+        if (!indexFile.isFile()) {
+            return null;
+        }
+        try {
+            final BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), Charsets.UTF_8));
+            try {
+                if (!FORMAT_VERSION.equals(reader.readLine())) {
+                    log.debug("Ignoring directory index in unknown format: " + indexFile);
+                    return null;
+                }
+                final String patternsKey = reader.readLine();
+                final String scanTime = reader.readLine();
+                if (patternsKey == null || scanTime == null) {
+                    return null;
+                }
+                final Map<String, DirectoryNode> directories = new HashMap<String, DirectoryNode>();
+                final Splitter splitter = Splitter.on(SEPARATOR);
+                DirectoryNode directory = null;
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final List<String> fields = splitter.splitToList(line);
+                    if (DIRECTORY_RECORD.equals(fields.get(0)) && fields.size() >= 4) {
+                        directory = new DirectoryNode(Long.parseLong(fields.get(2)), fields.get(3));
+                        directory.subdirectories.addAll(fields.subList(4, fields.size()));
+                        directories.put(fields.get(1), directory);
+                    } else if (FILE_RECORD.equals(fields.get(0)) && fields.size() == 6 && directory != null) {
+                        directory.files.add(new FileNode(
+                                fields.get(1),
+                                Boolean.parseBoolean(fields.get(2)),
+                                Long.parseLong(fields.get(3)),
+                                Long.parseLong(fields.get(4)),
+                                fields.get(5)));
+                    } else {
+                        return null;
+                    }
+                }
+                return new DirectoryIndex(
+                        patternsKey,
+                        Long.parseLong(scanTime),
+                        directories,
+                        null,
+                        ImmutableList.<File>of(),
+                        0,
+                        0);
+            } finally {
+                reader.close();
+            }
+        } catch (NumberFormatException e) {
+            log.debug("Ignoring malformed directory index: " + indexFile);
+            return null;
+        } catch (IOException e) {
+            log.warn("Unable to read directory index " + indexFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Saves this index.
+     *
+     * @param indexFile the location of the index.
+     * @throws IOException if the index cannot be written.
+     */
+    void save(final File indexFile) throws IOException {
+        FileUtils.forceMkdir(indexFile.getParentFile());
+        final Writer writer =
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(indexFile), Charsets.UTF_8));
+        try {
+            writer.write(FORMAT_VERSION);
+            writer.write('\n');
+            writer.write(patternsKey);
+            writer.write('\n');
+            writer.write(String.valueOf(scanTime));
+            writer.write('\n');
+            for (final Map.Entry<String, DirectoryNode> entry : directories.entrySet()) {
+                final DirectoryNode directory = entry.getValue();
+                writer.write(DIRECTORY_RECORD);
+                writer.write(SEPARATOR);
+                writer.write(entry.getKey());
+                writer.write(SEPARATOR);
+                writer.write(String.valueOf(directory.lastModified));
+                writer.write(SEPARATOR);
+                writer.write(directory.digest);
+                for (final String subdirectory : directory.subdirectories) {
+                    writer.write(SEPARATOR);
+                    writer.write(subdirectory);
+                }
+                writer.write('\n');
+                for (final FileNode file : directory.files) {
+                    writer.write(FILE_RECORD);
+                    writer.write(SEPARATOR);
+                    writer.write(file.name);
+                    writer.write(SEPARATOR);
+                    writer.write(String.valueOf(file.selected));
+                    writer.write(SEPARATOR);
+                    writer.write(String.valueOf(file.length));
+                    writer.write(SEPARATOR);
+                    writer.write(String.valueOf(file.lastModified));
+                    writer.write(SEPARATOR);
+                    writer.write(file.digest);
+                    writer.write('\n');
+                }
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * The state of a single scan.
+     */
+    private static final class Scan {
+
+        private final FileScanner scanner;
+
+        private final DirectoryIndex previous;
+
+        /**
+         * Entries modified after this time are not trusted to be unchanged when their timestamps match.
+         */
+        private final long trustedBefore;
+
+        private final long scanTime = System.currentTimeMillis();
+
+        private final Map<String, DirectoryNode> directories = new HashMap<String, DirectoryNode>();
+
+        private final List<String> selectedPaths = new ArrayList<String>();
+
+        /**
+         * Canonical paths of the directories that are being scanned, from the root to the current directory.
+         */
+        private final Set<String> activeDirectories = new HashSet<String>();
+
+        private int listedDirectories;
+
+        private int readFiles;
+
+        Scan(final FileScanner scanner, final DirectoryIndex previous) {
+            this.scanner = scanner;
+            this.previous = previous;
+            this.trustedBefore = previous != null ? previous.scanTime - MODIFICATION_TIME_RESOLUTION_MILLIS : 0L;
+        }
+
+        /**
+         * Scans a directory and its subdirectories.
+         *
+         * @param directory the directory.
+         * @param path the path of the directory relative to the root, empty or ending with {@code '/'}.
+         * @return the digest of the directory, or {@code null} if it is being scanned already,
+         *         because a symbolic link points to a directory that contains it.
+         * @throws IOException if a definition cannot be read.
+         */
+        String scanDirectory(final File directory, final String path) throws IOException {
+            final String canonicalPath = directory.getCanonicalPath();
+            if (!activeDirectories.add(canonicalPath)) {
+                return null;
+            }
+            final long lastModified = directory.lastModified();
+            final DirectoryNode previousNode = previous != null ? previous.directories.get(path) : null;
+            final DirectoryNode node = new DirectoryNode(lastModified, null);
+            final Map<String, FileNode> previousFiles = new HashMap<String, FileNode>();
+            if (previousNode != null) {
+                for (final FileNode file : previousNode.files) {
+                    previousFiles.put(file.name, file);
+                }
+            }
+
+            final List<String> fileNames = new ArrayList<String>();
+            final Map<String, Boolean> selection = new HashMap<String, Boolean>();
+            if (previousNode != null && isTrusted(previousNode.lastModified, lastModified)) {
+                // no entries have been added, removed or renamed since the previous scan
+                node.subdirectories.addAll(previousNode.subdirectories);
+                for (final FileNode file : previousNode.files) {
+                    fileNames.add(file.name);
+                    selection.put(file.name, file.selected);
+                }
+            } else {
+                listedDirectories++;
+                final String[] names = directory.list();
+                if (names != null) {
+                    Arrays.sort(names);
+                    for (final String name : names) {
+                        final File child = new File(directory, name);
+                        if (child.isDirectory()) {
+                            node.subdirectories.add(name);
+                        } else {
+                            final boolean selected = scanner.isIncluded(path + name);
+                            if (selected || name.endsWith(PROTO_FILE_SUFFIX)) {
+                                fileNames.add(name);
+                                selection.put(name, selected);
+                            }
+                        }
+                    }
+                }
+            }
+
+            final Hasher hasher = Hashing.sha1().newHasher();
+            for (final String name : fileNames) {
+                final File file = new File(directory, name);
+                final long length = file.length();
+                final long fileLastModified = file.lastModified();
+                final FileNode previousFile = previousFiles.get(name);
+                final String fileDigest;
+                if (previousFile != null
+                        && previousFile.length == length
+                        && isTrusted(previousFile.lastModified, fileLastModified)) {
+                    fileDigest = previousFile.digest;
+                } else {
+                    readFiles++;
+                    fileDigest = Files.hash(file, Hashing.sha1()).toString();
+                }
+                final boolean selected = selection.get(name);
+                node.files.add(new FileNode(name, selected, length, fileLastModified, fileDigest));
+                if (selected) {
+                    selectedPaths.add(path + name);
+                }
+                hasher.putString(name, Charsets.UTF_8).putChar('\0').putString(fileDigest, Charsets.UTF_8);
+            }
+            final Iterator<String> subdirectories = node.subdirectories.iterator();
+            while (subdirectories.hasNext()) {
+                final String name = subdirectories.next();
+                final File subdirectory = new File(directory, name);
+                if (!subdirectory.isDirectory()) {
+                    // removed, although the parent directory appears unchanged
+                    subdirectories.remove();
+                    continue;
+                }
+                final String subdirectoryDigest = scanDirectory(subdirectory, path + name + '/');
+                if (subdirectoryDigest == null) {
+                    // a symbolic link loop, which is not followed
+                    subdirectories.remove();
+                    continue;
+                }
+                hasher.putString(name, Charsets.UTF_8).putChar('/').putString(subdirectoryDigest, Charsets.UTF_8);
+            }
+            node.digest = hasher.hash().toString();
+            directories.put(path, node);
+            activeDirectories.remove(canonicalPath);
+            return node.digest;
+        }
+
+        private boolean isTrusted(final long previousLastModified, final long lastModified) {
+            return previousLastModified == lastModified && lastModified < trustedBefore;
+        }
+    }
+
+    /**
+     * A directory in the index.
+     */
+    private static final class DirectoryNode {
+
+        private final long lastModified;
+
+        private String digest;
+
+        private final List<String> subdirectories = new ArrayList<String>();
+
+        private final List<FileNode> files = new ArrayList<FileNode>();
+
+        DirectoryNode(final long lastModified, final String digest) {
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+
+    /**
+     * A definition in the index.
+     */
+    private static final class FileNode {
+
+        private final String name;
+
+        private final boolean selected;
+
+        private final long length;
+
+        private final long lastModified;
+
+        private final String digest;
+
+        FileNode(
+                final String name,
+                final boolean selected,
+                final long length,
+                final long lastModified,
+                final String digest) {
+            this.name = name;
+            this.selected = selected;
+            this.length = length;
+            this.lastModified = lastModified;
+            this.digest = digest;
+        }
+    }
+}
@@ -0,0 +1,235 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.regex.Pattern;
+
+/**
+ * Finds files in a directory tree that match Ant-style include and exclude patterns.
+ *
+ * <p>This is a faster replacement for {@link org.codehaus.plexus.util.FileUtils#getFiles(File, String, String)}
+ * with the same pattern semantics. Patterns are compiled
+ * once per scanner rather than once per scan, directories that are excluded as a whole are not descended
+ * into, and independent subtrees are traversed in parallel. Results are sorted by relative path,
+ * so that they do not depend on the order in which the file system lists directories.
+ * Symbolic links to directories are followed, except for those that lead back to a directory that contains them.</p>
+ *
+ * @since 0.5.1
+ */
+final class FileScanner {
+
+    /**
+     * The number of subtrees per thread to aim for when splitting the traversal.
+     */
+    private static final int SUBTREES_PER_THREAD = 4;
+
+    /**
+     * The maximum depth, relative to the scanned directory, at which subtrees are split for parallel traversal.
+     */
+    private static final int MAX_SPLIT_DEPTH = 3;
+
+    private final List<Pattern> includes;
+
+    private final List<Pattern> excludes;
+
+    /**
+     * Exclude patterns that match everything below a directory, used to prune the traversal.
+     */
+    private final List<Pattern> directoryExcludes;
+
+    /**
+     * Constructs a new scanner.
+     *
+     * @param includes patterns of files to include; an empty collection includes all files.
+     * @param excludes patterns of files to exclude.
+     */
+    FileScanner(final Collection<String> includes, final Collection<String> excludes) {
+        this.includes = new ArrayList<Pattern>();
+        for (final String include : includes) {
+            this.includes.add(ProtoDependencyFilter.compileEntryPattern(include));
+        }
+        this.excludes = new ArrayList<Pattern>();
+        this.directoryExcludes = new ArrayList<Pattern>();
+        for (final String exclude : excludes) {
+            final Pattern pattern = ProtoDependencyFilter.compileEntryPattern(exclude);
+            this.excludes.add(pattern);
+            final String normalizedExclude = exclude.trim().replace('\\', '/');
+            if (normalizedExclude.endsWith("/**") || normalizedExclude.endsWith("/")) {
+                directoryExcludes.add(pattern);
+            }
+        }
+    }
+
+    /**
+     * Scans a directory tree.
+     *
+     * @param directory the root of the tree.
+     * @param threads maximum number of worker threads.
+     * @return matching files, sorted by their paths relative to the directory.
+     * @throws ExecutionException if the traversal of a subtree has failed.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    ImmutableList<File> scan(final File directory, final int threads)
+            throws ExecutionException, InterruptedException {
+        final Map<String, File> matches = new TreeMap<String, File>();
+        List<Subtree> subtrees = new ArrayList<Subtree>();
+        subtrees.add(new Subtree(directory, "", ImmutableSet.of(getCanonicalPath(directory))));
+
+        // descend breadth-first until there are enough independent subtrees to keep all threads busy
+        int depth = 0;
+        while (threads > 1 && subtrees.size() < threads * SUBTREES_PER_THREAD
+                && depth < MAX_SPLIT_DEPTH && !subtrees.isEmpty()) {
+            final List<Subtree> children = new ArrayList<Subtree>();
+            for (final Subtree subtree : subtrees) {
+                subtree.list(matches, children);
+            }
+            subtrees = children;
+            depth++;
+        }
+
+        final List<Callable<Map<String, File>>> tasks = new ArrayList<Callable<Map<String, File>>>();
+        for (final Subtree subtree : subtrees) {
+            tasks.add(new Callable<Map<String, File>>() {
+                @Override
+                public Map<String, File> call() {
+                    final Map<String, File> subtreeMatches = new TreeMap<String, File>();
+                    subtree.walk(subtreeMatches);
+                    return subtreeMatches;
+                }
+            });
+        }
+        for (final Map<String, File> subtreeMatches : ParallelTasks.invokeAll(tasks, threads)) {
+            matches.putAll(subtreeMatches);
+        }
+        return ImmutableList.copyOf(matches.values());
+    }
+
+    /**
+     * Checks whether a file matches the patterns of this scanner.
+     *
+     * @param path the path of the file relative to the scanned directory, with {@code '/'} as a separator.
+     * @return {@code true} if the file is included and not excluded.
+     */
+    boolean isIncluded(final String path) {
+        if (!includes.isEmpty() && !matchesAny(includes, path)) {
+            return false;
+        }
+        return !matchesAny(excludes, path);
+    }
+
+    private boolean isExcludedDirectory(final String path) {
+        return matchesAny(directoryExcludes, path + '/');
+    }
+
+    private static String getCanonicalPath(final File directory) {
+        try {
+            return directory.getCanonicalPath();
+        } catch (IOException e) {
+            return directory.getAbsolutePath();
+        }
+    }
+
+    private static boolean matchesAny(final List<Pattern> patterns, final String path) {
+        for (final Pattern pattern : patterns) {
+            if (pattern.matcher(path).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * A directory to traverse, together with its path relative to the scanned directory.
+     */
+    private final class Subtree {
+
+        private final File directory;
+
+        /**
+         * The relative path prefix of entries in this directory, empty or ending with {@code '/'}.
+         */
+        private final String prefix;
+
+        /**
+         * Canonical paths of this directory and of all directories that contain it, up to the scanned directory.
+         */
+        private final ImmutableSet<String> ancestors;
+
+        Subtree(final File directory, final String prefix, final ImmutableSet<String> ancestors) {
+            this.directory = directory;
+            this.prefix = prefix;
+            this.ancestors = ancestors;
+        }
+
+        /**
+         * Lists the immediate entries of this directory.
+         *
+         * @param matches receives matching files.
+         * @param children receives subdirectories that have to be traversed.
+         */
+        void list(final Map<String, File> matches, final List<Subtree> children) {
+            final String[] names = directory.list();
+            if (names == null) {
+                // unreadable directories are skipped, like DirectoryScanner does
+                return;
+            }
+            for (final String name : names) {
+                final File file = new File(directory, name);
+                final String path = prefix + name;
+                if (file.isDirectory()) {
+                    if (!isExcludedDirectory(path)) {
+                        final String canonicalPath = getCanonicalPath(file);
+                        // a symbolic link to a directory that contains it would be followed forever
+                        if (!ancestors.contains(canonicalPath)) {
+                            children.add(new Subtree(file, path + '/', ImmutableSet.<String>builder()
+                                    .addAll(ancestors)
+                                    .add(canonicalPath)
+                                    .build()));
+                        }
+                    }
+                } else if (isIncluded(path)) {
+                    matches.put(path, file);
+                }
+            }
+        }
+
+        /**
+         * Traverses this directory and all its subdirectories.
+         *
+         * @param matches receives matching files.
+         */
+        void walk(final Map<String, File> matches) {
+            final List<Subtree> children = new ArrayList<Subtree>();
+            list(matches, children);
+            for (final Subtree child : children) {
+                child.walk(matches);
+            }
+        }
+    }
+}
@@ -0,0 +1,126 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.io.Files;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Persists input fingerprints of plugin executions between builds.
+ * Each execution has its own record, which is a small text file in the store directory.
+ *
+ * @since 0.5.1
+ */
+final class FingerprintStore {
+
+    private static final String RECORD_SUFFIX = ".fingerprint";
+
+    private final File storeDirectory;
+
+    /**
+     * Constructs a new store instance.
+     *
+     * @param storeDirectory the directory holding fingerprint records; it will be created when needed.
+     */
+    FingerprintStore(final File storeDirectory) {
+        this.storeDirectory = checkNotNull(storeDirectory, "storeDirectory");
+    }
+
+    /**
+     * Reads the fingerprint recorded for an execution.
+     *
+     * @param key a key that identifies the execution.
+     * @return the recorded fingerprint, or {@code null} if there is none.
+     * @throws IOException if the record exists, but cannot be read.
+     */
+    String read(final String key) throws IOException {
+        final File recordFile = getRecordFile(key);
+        if (!recordFile.isFile()) {
+            return null;
+        }
+        return Files.toString(recordFile, Charsets.UTF_8).trim();
+    }
+
+    /**
+     * Records the fingerprint of an execution.
+     *
+     * @param key a key that identifies the execution.
+     * @param fingerprint the fingerprint.
+     * @throws IOException if the record cannot be written.
+     */
+    void write(final String key, final String fingerprint) throws IOException {
+        FileUtils.forceMkdir(storeDirectory);
+        Files.write(fingerprint, getRecordFile(key), Charsets.UTF_8);
+    }
+
+    /**
+     * Removes the fingerprint of an execution, so that it is not considered up to date
+     * until it completes successfully again.
+     *
+     * @param key a key that identifies the execution.
+     * @throws IOException if the record cannot be deleted.
+     */
+    void remove(final String key) throws IOException {
+        remove(key, RECORD_SUFFIX);
+    }
+
+    /**
+     * Removes an additional record of an execution.
+     *
+     * @param key a key that identifies the execution.
+     * @param suffix the suffix of the record.
+     * @throws IOException if the record cannot be deleted.
+     */
+    void remove(final String key, final String suffix) throws IOException {
+        final File recordFile = getRecordFile(key, suffix);
+        if (recordFile.exists() && !recordFile.delete()) {
+            throw new IOException("Unable to delete " + recordFile);
+        }
+    }
+
+    /**
+     * Returns the location of a record of an execution.
+     * Besides fingerprints, executions may keep additional records in the store.
+     *
+     * @param key a key that identifies the execution.
+     * @param suffix the suffix that identifies the kind of record.
+     * @return the location of the record.
+     */
+    File getRecordFile(final String key, final String suffix) {
+        return new File(storeDirectory, toFileName(key) + suffix);
+    }
+
+    /**
+     * Converts an execution key into a name that is safe to use in file names.
+     *
+     * @param key a key that identifies the execution.
+     * @return the key, with all characters that may not be portable in file names replaced.
+     */
+    static String toFileName(final String key) {
+        return key.replaceAll("[^A-Za-z0-9._-]", "_");
+    }
+
+    private File getRecordFile(final String key) {
+        return getRecordFile(key, RECORD_SUFFIX);
+    }
+}
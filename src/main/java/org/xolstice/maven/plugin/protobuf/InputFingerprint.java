@@ -0,0 +1,319 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.codehaus.plexus.component.configurator.expression.ExpressionEvaluationException;
+import org.codehaus.plexus.component.configurator.expression.ExpressionEvaluator;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.SortedMap;
+import java.util.TreeMap;
+
+import static org.codehaus.plexus.util.FileUtils.getFiles;
+
+/**
+ * Computes a fingerprint of the inputs of a single {@code protoc} invocation.
+ *
+ * <p>Source definitions are fingerprinted by their contents. Other inputs, such as dependency jars
+ * and executables, are fingerprinted by their path, size and modification time, which is sufficient
+ * for files that are replaced rather than edited in place.</p>
+ *
+ * <p>Fingerprints that are shared between machines identify inputs by names instead of locations.
+ * Locations are given names with {@link #nameLocation(File, String)}, and are replaced with their names
+ * in command lines added with {@link #putCommand(String, Iterable)}.</p>
+ *
+ * @since 0.5.1
+ */
+final class InputFingerprint {
+
+    private static final String VERSION = "protoc-input-fingerprint:1";
+
+    private static final String PROTO_FILE_INCLUDES = "**/*.proto";
+
+    private final Hasher hasher = Hashing.sha1().newHasher();
+
+    /**
+     * Names of locations, keyed by absolute paths, in the order in which they have been named.
+     */
+    private final Map<String, String> locationNames = new LinkedHashMap<String, String>();
+
+    InputFingerprint() {
+        putString("version", VERSION);
+    }
+
+    /**
+     * Adds a labelled value to the fingerprint.
+     *
+     * @param label a label that separates this value from other inputs.
+     * @param value the value, may be {@code null}.
+     * @return this instance.
+     */
+    InputFingerprint putString(final String label, final String value) {
+        hasher.putString(label, Charsets.UTF_8).putChar('=');
+        if (value == null) {
+            hasher.putBoolean(false);
+        } else {
+            hasher.putBoolean(true).putInt(value.length()).putString(value, Charsets.UTF_8);
+        }
+        hasher.putChar('\n');
+        return this;
+    }
+
+    /**
+     * Adds the effective configuration of a mojo execution to the fingerprint, with all expressions evaluated.
+     * Parameters that evaluate to objects other than strings, numbers, booleans and files
+     * (such as the project or the session) are left out.
+     *
+     * @param label a label that separates this input from other inputs.
+     * @param configuration the configuration of the execution, may be {@code null}.
+     * @param evaluator the evaluator of expressions in the configuration, may be {@code null} without a configuration.
+     * @return this instance.
+     */
+    InputFingerprint putConfiguration(
+            final String label,
+            final Xpp3Dom configuration,
+            final ExpressionEvaluator evaluator) {
+        final List<String> lines = new ArrayList<String>();
+        if (configuration != null) {
+            describeConfiguration(configuration, "", evaluator, lines);
+        }
+        return putString(label, Joiner.on('\n').join(lines));
+    }
+
+    /**
+     * Adds the path, size and modification time of a file or directory to the fingerprint.
+     * A directory is fingerprinted by the stamps of all {@code .proto} files in it.
+     *
+     * @param label a label that separates this input from other inputs.
+     * @param file a file or a directory, which may not exist.
+     * @return this instance.
+     * @throws IOException if a directory cannot be listed.
+     */
+    InputFingerprint putStamp(final String label, final File file) throws IOException {
+        putString(label, file.getAbsolutePath());
+        if (file.isDirectory()) {
+            final List<File> protoFiles = getFiles(file, PROTO_FILE_INCLUDES, null);
+            hasher.putInt(protoFiles.size());
+            for (final File protoFile : protoFiles) {
+                putFileStamp(protoFile);
+            }
+        } else {
+            putFileStamp(file);
+        }
+        return this;
+    }
+
+    /**
+     * Adds the contents of all {@code .proto} files in a directory to the fingerprint.
+     *
+     * @param label a label that separates this input from other inputs.
+     * @param directory a directory.
+     * @return this instance.
+     * @throws IOException if the directory cannot be listed or one of the files cannot be read.
+     */
+    InputFingerprint putContents(final String label, final File directory) throws IOException {
+        return putContents(label, directory.getAbsolutePath(), directory);
+    }
+
+    /**
+     * Adds the contents of all {@code .proto} files in a directory to the fingerprint.
+     * The directory is identified by a name rather than by its location, and the files by their paths
+     * relative to the directory, so that the fingerprint is the same wherever the directory is.
+     *
+     * @param label a label that separates this input from other inputs.
+     * @param name the name of the directory.
+     * @param directory a directory.
+     * @return this instance.
+     * @throws IOException if the directory cannot be listed or one of the files cannot be read.
+     */
+    InputFingerprint putContents(final String label, final String name, final File directory) throws IOException {
+        putString(label, name);
+        final String basePath = directory.getAbsolutePath();
+        final SortedMap<String, File> protoFiles = new TreeMap<String, File>();
+        for (final File protoFile : getFiles(directory, PROTO_FILE_INCLUDES, null)) {
+            protoFiles.put(
+                    protoFile.getAbsolutePath().substring(basePath.length() + 1).replace(File.separatorChar, '/'),
+                    protoFile);
+        }
+        hasher.putInt(protoFiles.size());
+        for (final Map.Entry<String, File> entry : protoFiles.entrySet()) {
+            hasher.putString(entry.getKey(), Charsets.UTF_8).putChar('\n');
+            final byte[] content = Files.toByteArray(entry.getValue());
+            hasher.putInt(content.length).putBytes(content);
+        }
+        return this;
+    }
+
+    /**
+     * Adds the path and contents of a file to the fingerprint.
+     *
+     * @param label a label that separates this input from other inputs.
+     * @param file a file, which may not exist.
+     * @return this instance.
+     * @throws IOException if the file exists, but cannot be read.
+     */
+    InputFingerprint putFileContents(final String label, final File file) throws IOException {
+        return putFileContents(label, file.getAbsolutePath(), file);
+    }
+
+    /**
+     * Adds the contents of a file to the fingerprint, identifying the file by a name rather than by its location.
+     *
+     * @param label a label that separates this input from other inputs.
+     * @param name the name of the file.
+     * @param file a file, which may not exist.
+     * @return this instance.
+     * @throws IOException if the file exists, but cannot be read.
+     */
+    InputFingerprint putFileContents(final String label, final String name, final File file) throws IOException {
+        putString(label, name);
+        if (file.isFile()) {
+            hasher.putBoolean(true).putBytes(Files.asByteSource(file).hash(Hashing.sha1()).asBytes());
+        } else {
+            hasher.putBoolean(false);
+        }
+        return this;
+    }
+
+    /**
+     * Adds the contents of all {@code .proto} files in a directory to the fingerprint,
+     * identifying the directory by a name that is derived from the label.
+     *
+     * @param label a label that separates this input from other inputs.
+     * @param directory a directory.
+     * @return this instance.
+     * @throws IOException if the directory cannot be listed or one of the files cannot be read.
+     */
+    InputFingerprint putNamedContents(final String label, final File directory) throws IOException {
+        return putContents(label, nameLocation(directory, label + '.' + locationNames.size()), directory);
+    }
+
+    /**
+     * Adds the contents of a file to the fingerprint, identifying the file by a name that is derived from the label.
+     *
+     * @param label a label that separates this input from other inputs.
+     * @param file a file, which may not exist.
+     * @return this instance.
+     * @throws IOException if the file exists, but cannot be read.
+     */
+    InputFingerprint putNamedFileContents(final String label, final File file) throws IOException {
+        return putFileContents(label, nameLocation(file, label + '.' + locationNames.size()), file);
+    }
+
+    /**
+     * Adds a command line to the fingerprint, replacing all named locations in its arguments with their names.
+     *
+     * @param label a label that separates this input from other inputs.
+     * @param command the arguments of the command line.
+     * @return this instance.
+     */
+    InputFingerprint putCommand(final String label, final Iterable<String> command) {
+        final StringBuilder portableCommand = new StringBuilder();
+        for (final String argument : command) {
+            String portableArgument = argument;
+            for (final Map.Entry<String, String> locationName : locationNames.entrySet()) {
+                portableArgument = portableArgument.replace(locationName.getKey(), locationName.getValue());
+            }
+            if (portableCommand.length() > 0) {
+                portableCommand.append('\n');
+            }
+            portableCommand.append(portableArgument);
+        }
+        return putString(label, portableCommand.toString());
+    }
+
+    /**
+     * Gives a location a name, which replaces the location in command lines added afterwards.
+     * A location that already has a name keeps it.
+     *
+     * @param file a file or a directory.
+     * @param name the name of the location.
+     * @return the name under which the location appears in command lines.
+     */
+    String nameLocation(final File file, final String name) {
+        final String path = file.getAbsolutePath();
+        if (!locationNames.containsKey(path)) {
+            locationNames.put(path, "${" + name + "}");
+        }
+        return locationNames.get(path);
+    }
+
+    private static void describeConfiguration(
+            final Xpp3Dom element,
+            final String path,
+            final ExpressionEvaluator evaluator,
+            final List<String> lines) {
+        for (final String attributeName : element.getAttributeNames()) {
+            if (!"default-value".equals(attributeName)) {
+                lines.add(path + '@' + attributeName + '=' + element.getAttribute(attributeName));
+            }
+        }
+        if (element.getChildCount() == 0) {
+            final String expression = element.getValue() != null
+                    ? element.getValue()
+                    : element.getAttribute("default-value");
+            Object value;
+            try {
+                value = evaluator.evaluate(expression);
+                if (value == null && element.getValue() != null && element.getAttribute("default-value") != null) {
+                    value = evaluator.evaluate(element.getAttribute("default-value"));
+                }
+            } catch (ExpressionEvaluationException e) {
+                value = expression;
+            }
+            if (value instanceof String || value instanceof Number || value instanceof Boolean
+                    || value instanceof Character || value instanceof File) {
+                lines.add(path + '=' + value);
+            }
+        } else {
+            final Xpp3Dom[] children = element.getChildren();
+            for (int i = 0; i < children.length; i++) {
+                final String childPath = path + '/' + children[i].getName() + '[' + i + ']';
+                describeConfiguration(children[i], childPath, evaluator, lines);
+            }
+        }
+    }
+
+    private void putFileStamp(final File file) {
+        hasher.putString(file.getAbsolutePath(), Charsets.UTF_8).putChar('\n');
+        if (file.isFile()) {
+            hasher.putLong(file.length()).putLong(file.lastModified());
+        } else {
+            hasher.putLong(-1L);
+        }
+    }
+
+    /**
+     * Returns the fingerprint. This instance should not be used any more after this method is invoked.
+     *
+     * @return a hexadecimal fingerprint string.
+     */
+    String hash() {
+        return hasher.hash().toString();
+    }
+}
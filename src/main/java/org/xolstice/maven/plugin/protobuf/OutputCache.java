@@ -0,0 +1,395 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.ByteStreams;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.FilenameFilter;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.Enumeration;
+import java.util.UUID;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+import java.util.zip.ZipOutputStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A persistent cache of generated files, keyed by a digest of all inputs of a compilation.
+ *
+ * <p>Each entry is a zip archive holding the generated files, optionally the descriptor set, and the key.
+ * The same archives are used as output bundles, which are attached to the build and published to repositories.
+ * Entries are published atomically by renaming a fully written temporary archive,
+ * which makes the cache safe to use from concurrent builds.</p>
+ *
+ * <p>The modification time of an entry is updated whenever the entry is used, and entries are evicted
+ * in the order of least recent use when the cache exceeds its maximum size, or when they exceed
+ * the maximum age.</p>
+ *
+ * <p>An optional {@link RemoteOutputCache remote cache} is consulted when an entry is not found locally,
+ * and receives new entries when they are stored.</p>
+ *
+ * @since 0.5.1
+ */
+final class OutputCache {
+
+    private static final String ENTRY_SUFFIX = ".zip";
+
+    private static final String OUTPUTS_PREFIX = "outputs/";
+
+    private static final String DESCRIPTOR_SET_ENTRY = "descriptor-set";
+
+    private static final String KEY_ENTRY = "key";
+
+    /**
+     * Temporary archives older than this are leftovers of interrupted builds.
+     */
+    private static final long TEMPORARY_FILE_EXPIRY_MILLIS = 60L * 60L * 1000L;
+
+    private final File cacheDirectory;
+
+    private final long maxSize;
+
+    private final long maxAgeMillis;
+
+    private final RemoteOutputCache remoteCache;
+
+    private final Log log;
+
+    /**
+     * Constructs a new cache instance.
+     *
+     * @param cacheDirectory the root directory of the cache; it will be created if it does not exist.
+     * @param maxSize the maximum total size of entries, in bytes.
+     * @param maxAgeMillis the maximum time since the last use of an entry, in milliseconds.
+     * @param remoteCache an optional remote cache, may be {@code null}.
+     * @param log a logger for diagnostic output.
+     */
+    OutputCache(
+            final File cacheDirectory,
+            final long maxSize,
+            final long maxAgeMillis,
+            final RemoteOutputCache remoteCache,
+            final Log log) {
+        this.cacheDirectory = checkNotNull(cacheDirectory, "cacheDirectory");
+        checkArgument(maxSize >= 0, "Negative maximum size: %s", maxSize);
+        checkArgument(maxAgeMillis >= 0, "Negative maximum age: %s", maxAgeMillis);
+        this.maxSize = maxSize;
+        this.maxAgeMillis = maxAgeMillis;
+        this.remoteCache = remoteCache;
+        this.log = checkNotNull(log, "log");
+    }
+
+    /**
+     * Looks up the entry for a key, and marks it as recently used.
+     * If there is no local entry, it is downloaded from the remote cache, if any.
+     * A damaged entry is removed and treated as missing.
+     *
+     * @param key a digest of all inputs of a compilation.
+     * @return the entry, or {@code null} if there is none.
+     * @throws IOException if a downloaded entry cannot be added to the local cache.
+     */
+    File lookup(final String key) throws IOException {
+        final File entryFile = getEntryFile(key);
+        if (!entryFile.isFile() && (remoteCache == null || !download(key, entryFile))) {
+            return null;
+        }
+        if (!isValid(entryFile)) {
+            log.warn("Removing damaged cache entry " + entryFile);
+            entryFile.delete();
+            return null;
+        }
+        entryFile.setLastModified(System.currentTimeMillis());
+        return entryFile;
+    }
+
+    private boolean download(final String key, final File entryFile) throws IOException {
+        FileUtils.forceMkdir(cacheDirectory);
+        final File temporaryFile = new File(cacheDirectory, '.' + entryFile.getName() + '.' + UUID.randomUUID());
+        try {
+            if (!remoteCache.download(key, temporaryFile)) {
+                return false;
+            }
+            if (!isValid(temporaryFile)) {
+                log.warn("Ignoring damaged entry " + key + " of the remote build cache");
+                return false;
+            }
+            if (!temporaryFile.renameTo(entryFile) && !entryFile.isFile()) {
+                throw new IOException("Unable to publish " + temporaryFile + " as " + entryFile);
+            }
+            log.info("Downloaded generated files from the remote build cache");
+            return true;
+        } finally {
+            if (temporaryFile.exists()) {
+                temporaryFile.delete();
+            }
+        }
+    }
+
+    private static boolean isValid(final File entryFile) {
+        try {
+            new ZipFile(entryFile).close();
+            return true;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    /**
+     * Restores generated files from an entry.
+     *
+     * @param entryFile an entry returned by {@link #lookup(String)}, or an output bundle.
+     * @param outputDirectory the directory into which generated files are restored.
+     * @param descriptorSetFile the location to restore the descriptor set to,
+     *                          or {@code null} if no descriptor set is expected.
+     * @return relative names of the restored files, with {@code '/'} as a separator.
+     * @throws IOException if the entry cannot be read or a file cannot be written,
+     *                     or the entry does not contain an expected descriptor set.
+     */
+    static ImmutableSet<String> restore(final File entryFile, final File outputDirectory, final File descriptorSetFile)
+            throws IOException {
+        final ImmutableSet.Builder<String> restoredNames = ImmutableSet.builder();
+        boolean descriptorSetRestored = false;
+        // entries may have been downloaded, so they must not escape the output directory
+        final String outputPath = outputDirectory.getCanonicalPath() + File.separator;
+        final ZipFile zipFile = new ZipFile(entryFile);
+        try {
+            final Enumeration<? extends ZipEntry> entries = zipFile.entries();
+            while (entries.hasMoreElements()) {
+                final ZipEntry entry = entries.nextElement();
+                final File targetFile;
+                if (entry.getName().equals(DESCRIPTOR_SET_ENTRY)) {
+                    if (descriptorSetFile == null) {
+                        continue;
+                    }
+                    targetFile = descriptorSetFile;
+                    descriptorSetRestored = true;
+                } else if (entry.getName().startsWith(OUTPUTS_PREFIX) && !entry.isDirectory()) {
+                    final String name = entry.getName().substring(OUTPUTS_PREFIX.length());
+                    targetFile = new File(outputDirectory, name);
+                    if (name.isEmpty() || name.startsWith("/") || name.contains("\\")
+                            || Arrays.asList(name.split("/")).contains("..")
+                            || !targetFile.getCanonicalPath().startsWith(outputPath)) {
+                        throw new IOException("Invalid entry " + entry.getName() + " in " + entryFile);
+                    }
+                    restoredNames.add(name);
+                } else {
+                    continue;
+                }
+                FileUtils.forceMkdir(targetFile.getParentFile());
+                final InputStream in = zipFile.getInputStream(entry);
+                try {
+                    final OutputStream out = new BufferedOutputStream(new FileOutputStream(targetFile));
+                    try {
+                        ByteStreams.copy(in, out);
+                    } finally {
+                        out.close();
+                    }
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+        if (descriptorSetFile != null && !descriptorSetRestored) {
+            throw new IOException("Cache entry " + entryFile + " does not contain a descriptor set");
+        }
+        return restoredNames.build();
+    }
+
+    /**
+     * Stores generated files as the entry for a key, and evicts entries that exceed the limits of the cache.
+     *
+     * @param key a digest of all inputs of a compilation.
+     * @param outputDirectory the directory containing generated files.
+     * @param outputNames relative names of the generated files, with {@code '/'} as a separator.
+     * @param descriptorSetFile the generated descriptor set, or {@code null} if there is none.
+     * @throws IOException if a file cannot be read or the cache cannot be updated.
+     */
+    void store(
+            final String key,
+            final File outputDirectory,
+            final Iterable<String> outputNames,
+            final File descriptorSetFile)
+            throws IOException {
+        final File entryFile = getEntryFile(key);
+        FileUtils.forceMkdir(cacheDirectory);
+        final File temporaryFile = new File(cacheDirectory, '.' + entryFile.getName() + '.' + UUID.randomUUID());
+        try {
+            write(temporaryFile, key, outputDirectory, outputNames, descriptorSetFile);
+            if (!temporaryFile.renameTo(entryFile) && !entryFile.isFile()) {
+                throw new IOException("Unable to publish " + temporaryFile + " as " + entryFile);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Stored generated files in " + entryFile);
+            }
+        } finally {
+            // Either the rename succeeded, or another build has published the same entry concurrently
+            if (temporaryFile.exists()) {
+                temporaryFile.delete();
+            }
+        }
+        if (remoteCache != null) {
+            remoteCache.upload(key, entryFile);
+        }
+        evict();
+    }
+
+    /**
+     * Writes generated files to an archive in the format of cache entries.
+     *
+     * @param entryFile the archive to write.
+     * @param key a digest of all inputs of the compilation.
+     * @param outputDirectory the directory containing generated files.
+     * @param outputNames relative names of the generated files, with {@code '/'} as a separator.
+     * @param descriptorSetFile the generated descriptor set, or {@code null} if there is none.
+     * @throws IOException if a file cannot be read or the archive cannot be written.
+     */
+    static void write(
+            final File entryFile,
+            final String key,
+            final File outputDirectory,
+            final Iterable<String> outputNames,
+            final File descriptorSetFile)
+            throws IOException {
+        final ZipOutputStream out =
+                new ZipOutputStream(new BufferedOutputStream(new FileOutputStream(entryFile)));
+        try {
+            out.putNextEntry(new ZipEntry(KEY_ENTRY));
+            out.write(key.getBytes(Charsets.UTF_8));
+            out.closeEntry();
+            for (final String outputName : outputNames) {
+                addEntry(out, OUTPUTS_PREFIX + outputName, new File(outputDirectory, outputName));
+            }
+            if (descriptorSetFile != null) {
+                addEntry(out, DESCRIPTOR_SET_ENTRY, descriptorSetFile);
+            }
+        } finally {
+            out.close();
+        }
+    }
+
+    /**
+     * Reads the key recorded in an archive.
+     *
+     * @param entryFile an entry or an output bundle.
+     * @return the key, or {@code null} if the archive does not record one.
+     * @throws IOException if the archive cannot be read.
+     */
+    static String readKey(final File entryFile) throws IOException {
+        final ZipFile zipFile = new ZipFile(entryFile);
+        try {
+            final ZipEntry entry = zipFile.getEntry(KEY_ENTRY);
+            if (entry == null) {
+                return null;
+            }
+            final InputStream in = zipFile.getInputStream(entry);
+            try {
+                return new String(ByteStreams.toByteArray(in), Charsets.UTF_8).trim();
+            } finally {
+                in.close();
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    private static void addEntry(final ZipOutputStream out, final String name, final File file) throws IOException {
+        out.putNextEntry(new ZipEntry(name));
+        final InputStream in = new BufferedInputStream(new FileInputStream(file));
+        try {
+            ByteStreams.copy(in, out);
+        } finally {
+            in.close();
+        }
+        out.closeEntry();
+    }
+
+    /**
+     * Removes entries that have not been used for longer than the maximum age, and then the least recently
+     * used entries, until the total size of the cache does not exceed the maximum size.
+     */
+    private void evict() {
+        final long now = System.currentTimeMillis();
+        final File[] temporaryFiles = cacheDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return name.startsWith(".");
+            }
+        });
+        if (temporaryFiles != null) {
+            for (final File temporaryFile : temporaryFiles) {
+                if (temporaryFile.lastModified() < now - TEMPORARY_FILE_EXPIRY_MILLIS) {
+                    temporaryFile.delete();
+                }
+            }
+        }
+        final File[] entryFiles = cacheDirectory.listFiles(new FilenameFilter() {
+            @Override
+            public boolean accept(final File dir, final String name) {
+                return !name.startsWith(".") && name.endsWith(ENTRY_SUFFIX);
+            }
+        });
+        if (entryFiles == null) {
+            return;
+        }
+        // the most recently used entries first
+        final long[] lastUsed = new long[entryFiles.length];
+        final Integer[] order = new Integer[entryFiles.length];
+        for (int i = 0; i < entryFiles.length; i++) {
+            lastUsed[i] = entryFiles[i].lastModified();
+            order[i] = i;
+        }
+        Arrays.sort(order, new Comparator<Integer>() {
+            @Override
+            public int compare(final Integer left, final Integer right) {
+                return Long.valueOf(lastUsed[right]).compareTo(lastUsed[left]);
+            }
+        });
+        long totalSize = 0;
+        for (final Integer i : order) {
+            final File entryFile = entryFiles[i];
+            final long size = entryFile.length();
+            totalSize += size;
+            if ((totalSize > maxSize || lastUsed[i] < now - maxAgeMillis) && entryFile.delete()) {
+                totalSize -= size;
+                if (log.isDebugEnabled()) {
+                    log.debug("Evicted cache entry " + entryFile);
+                }
+            }
+        }
+    }
+
+    private File getEntryFile(final String key) {
+        return new File(cacheDirectory, key + ENTRY_SUFFIX);
+    }
+}
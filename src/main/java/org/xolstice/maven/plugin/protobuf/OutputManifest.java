@@ -0,0 +1,308 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableSet;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+/**
+ * Records which source definitions produced each generated file of an execution.
+ *
+ * <p>A single {@code protoc} invocation does not report which output belongs to which input,
+ * so each output is attributed to the whole set of definitions compiled by the invocation that last
+ * wrote it. An output is stale when it was not written again, although all of its producers have been
+ * recompiled or no longer exist. Full compilations therefore remove every stale output, and incremental
+ * compilations remove the stale outputs of the definitions they recompile.</p>
+ *
+ * <p>Each output is recorded with its size and modification time, so that a compilation can be skipped
+ * only as long as all of its outputs are still in place, unmodified.</p>
+ *
+ * @since 0.5.1
+ */
+final class OutputManifest {
+
+    private static final String FORMAT_VERSION = "#protoc-output-manifest:2";
+
+    private static final char SEPARATOR = '\t';
+
+    private static final String SOURCES_RECORD = "S";
+
+    private static final String OUTPUT_RECORD = "O";
+
+    /**
+     * Relative paths of generated files, mapped to the definitions that produced them.
+     */
+    private final Map<String, ImmutableSet<String>> producers;
+
+    /**
+     * Relative paths of generated files, mapped to their sizes and modification times when they were recorded.
+     */
+    private final Map<String, Stamp> stamps;
+
+    /**
+     * Constructs an empty manifest.
+     */
+    OutputManifest() {
+        this(new TreeMap<String, ImmutableSet<String>>(), new HashMap<String, Stamp>());
+    }
+
+    private OutputManifest(final Map<String, ImmutableSet<String>> producers, final Map<String, Stamp> stamps) {
+        this.producers = producers;
+        this.stamps = stamps;
+    }
+
+    /**
+     * Loads a previously saved manifest.
+     *
+     * @param manifestFile the location of the manifest.
+     * @param log a logger for diagnostic output.
+     * @return the manifest, or {@code null} if there is no readable manifest at the specified location.
+     */
+    static OutputManifest load(final File manifestFile, final Log log) {
+        if (!manifestFile.isFile()) {
+            return null;
+        }
+        try {
+            final BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(new FileInputStream(manifestFile), Charsets.UTF_8));
+            try {
+                if (!FORMAT_VERSION.equals(reader.readLine())) {
+                    log.debug("Ignoring output manifest in unknown format: " + manifestFile);
+                    return null;
+                }
+                final List<ImmutableSet<String>> sourceSets = new ArrayList<ImmutableSet<String>>();
+                final Map<String, ImmutableSet<String>> producers = new TreeMap<String, ImmutableSet<String>>();
+                final Map<String, Stamp> stamps = new HashMap<String, Stamp>();
+                final Splitter splitter = Splitter.on(SEPARATOR);
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final Iterator<String> fields = splitter.split(line).iterator();
+                    final String kind = fields.next();
+                    if (SOURCES_RECORD.equals(kind)) {
+                        sourceSets.add(ImmutableSet.copyOf(fields));
+                    } else if (OUTPUT_RECORD.equals(kind) && fields.hasNext()) {
+                        final int sourceSetIndex = Integer.parseInt(fields.next());
+                        if (sourceSetIndex < 0 || sourceSetIndex >= sourceSets.size() || !fields.hasNext()) {
+                            return null;
+                        }
+                        final long length = Long.parseLong(fields.next());
+                        if (!fields.hasNext()) {
+                            return null;
+                        }
+                        final long lastModified = Long.parseLong(fields.next());
+                        if (!fields.hasNext()) {
+                            return null;
+                        }
+                        final String output = fields.next();
+                        producers.put(output, sourceSets.get(sourceSetIndex));
+                        stamps.put(output, new Stamp(length, lastModified));
+                    } else {
+                        return null;
+                    }
+                }
+                return new OutputManifest(producers, stamps);
+            } finally {
+                reader.close();
+            }
+        } catch (NumberFormatException e) {
+            log.debug("Ignoring malformed output manifest: " + manifestFile);
+            return null;
+        } catch (IOException e) {
+            log.warn("Unable to read output manifest " + manifestFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Saves this manifest. Sets of definitions shared by several outputs are written only once.
+     *
+     * @param manifestFile the location of the manifest.
+     * @throws IOException if the manifest cannot be written.
+     */
+    void save(final File manifestFile) throws IOException {
+        FileUtils.forceMkdir(manifestFile.getParentFile());
+        final Writer writer =
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(manifestFile), Charsets.UTF_8));
+        try {
+            writer.write(FORMAT_VERSION);
+            writer.write('\n');
+            final Map<ImmutableSet<String>, Integer> sourceSetIndices =
+                    new LinkedHashMap<ImmutableSet<String>, Integer>();
+            for (final ImmutableSet<String> sourceSet : producers.values()) {
+                if (!sourceSetIndices.containsKey(sourceSet)) {
+                    sourceSetIndices.put(sourceSet, sourceSetIndices.size());
+                    writer.write(SOURCES_RECORD);
+                    for (final String source : sourceSet) {
+                        writer.write(SEPARATOR);
+                        writer.write(source);
+                    }
+                    writer.write('\n');
+                }
+            }
+            for (final Map.Entry<String, ImmutableSet<String>> entry : producers.entrySet()) {
+                final Stamp stamp = stamps.get(entry.getKey());
+                writer.write(OUTPUT_RECORD);
+                writer.write(SEPARATOR);
+                writer.write(String.valueOf(sourceSetIndices.get(entry.getValue())));
+                writer.write(SEPARATOR);
+                writer.write(String.valueOf(stamp.length));
+                writer.write(SEPARATOR);
+                writer.write(String.valueOf(stamp.lastModified));
+                writer.write(SEPARATOR);
+                writer.write(entry.getKey());
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Finds recorded outputs that have not been produced again by a compilation.
+     *
+     * @param compiledSources relative names of the definitions that have been compiled.
+     * @param currentSources relative names of all definitions that currently exist.
+     * @param writtenOutputs relative paths of the outputs written by the compilation.
+     * @return relative paths of outputs, all producers of which have been recompiled or no longer exist.
+     */
+    ImmutableSet<String> findStaleOutputs(
+            final Set<String> compiledSources,
+            final Set<String> currentSources,
+            final Set<String> writtenOutputs) {
+        final ImmutableSet.Builder<String> staleOutputs = ImmutableSet.builder();
+        for (final Map.Entry<String, ImmutableSet<String>> entry : producers.entrySet()) {
+            if (!writtenOutputs.contains(entry.getKey())
+                    && isRecompiled(entry.getValue(), compiledSources, currentSources)) {
+                staleOutputs.add(entry.getKey());
+            }
+        }
+        return staleOutputs.build();
+    }
+
+    private static boolean isRecompiled(
+            final ImmutableSet<String> producers,
+            final Set<String> compiledSources,
+            final Set<String> currentSources) {
+        for (final String producer : producers) {
+            if (currentSources.contains(producer) && !compiledSources.contains(producer)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Records the results of a compilation.
+     *
+     * @param outputDirectory the directory that contains the outputs.
+     * @param compiledSources relative names of the definitions that have been compiled.
+     * @param writtenOutputs relative paths of the outputs written by the compilation.
+     * @param removedOutputs relative paths of the outputs that have been removed.
+     */
+    void update(
+            final File outputDirectory,
+            final ImmutableSet<String> compiledSources,
+            final Set<String> writtenOutputs,
+            final Set<String> removedOutputs) {
+        producers.keySet().removeAll(removedOutputs);
+        stamps.keySet().removeAll(removedOutputs);
+        for (final String writtenOutput : writtenOutputs) {
+            final File outputFile = new File(outputDirectory, writtenOutput);
+            producers.put(writtenOutput, compiledSources);
+            stamps.put(writtenOutput, new Stamp(outputFile.length(), outputFile.lastModified()));
+        }
+    }
+
+    /**
+     * Checks that every recorded output still exists with the recorded size and modification time.
+     *
+     * @param outputDirectory the directory that contains the outputs.
+     * @return {@code true}, if no output has been removed or modified since it was recorded.
+     */
+    boolean isUnchanged(final File outputDirectory) {
+        for (final Map.Entry<String, Stamp> entry : stamps.entrySet()) {
+            final File outputFile = new File(outputDirectory, entry.getKey());
+            if (!outputFile.isFile()
+                    || outputFile.length() != entry.getValue().length
+                    || outputFile.lastModified() != entry.getValue().lastModified) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Returns the paths of files relative to a base directory, with {@code '/'} as a separator.
+     *
+     * @param baseDirectory a directory.
+     * @param files files inside the base directory.
+     * @return the relative paths, in the order of the files.
+     */
+    static ImmutableSet<String> getRelativeNames(final File baseDirectory, final Iterable<File> files) {
+        final ImmutableSet.Builder<String> names = ImmutableSet.builder();
+        for (final File file : files) {
+            names.add(getRelativeName(baseDirectory, file));
+        }
+        return names.build();
+    }
+
+    /**
+     * Returns the path of a file relative to a base directory, with {@code '/'} as a separator.
+     *
+     * @param baseDirectory a directory.
+     * @param file a file inside the base directory.
+     * @return the relative path.
+     */
+    static String getRelativeName(final File baseDirectory, final File file) {
+        return file.getAbsolutePath()
+                .substring(baseDirectory.getAbsolutePath().length() + 1)
+                .replace(File.separatorChar, '/');
+    }
+
+    private static final class Stamp {
+
+        private final long length;
+
+        private final long lastModified;
+
+        Stamp(final long length, final long lastModified) {
+            this.length = length;
+            this.lastModified = lastModified;
+        }
+    }
+}
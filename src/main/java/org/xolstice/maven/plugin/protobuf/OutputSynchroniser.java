@@ -0,0 +1,250 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.collect.Lists;
+import com.google.common.io.Files;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static org.codehaus.plexus.util.FileUtils.getFiles;
+
+/**
+ * Moves files generated into a staging directory to the real output directory.
+ *
+ * <p>Since every execution stages its outputs in a directory of its own, the staged files are exactly
+ * the outputs of the execution, even when several executions share an output directory.</p>
+ *
+ * <p>Without a staging directory, files are generated directly into the output directory, and the outputs
+ * of the execution are the files that have been created or modified since {@link #prepare(long)}.
+ * Files last modified shortly before, within the resolution of modification times, are counted as outputs too,
+ * since it cannot be told whether they have been written again.</p>
+ *
+ * <p>When contents are compared, only the files whose contents have changed are replaced.
+ * Files with identical contents are left in place, with their original modification times,
+ * so that incremental compilers and IDEs do not consider them changed.</p>
+ *
+ * @since 0.5.1
+ */
+final class OutputSynchroniser {
+
+    /**
+     * The number of tasks per thread, to balance the load between threads.
+     */
+    private static final int TASKS_PER_THREAD = 4;
+
+    private final File stagingDirectory;
+
+    private final File outputDirectory;
+
+    private final boolean compareContents;
+
+    /**
+     * The earliest modification time of files written by the compilation, set by {@link #prepare(long)}.
+     */
+    private long writeTimeThreshold;
+
+    /**
+     * Modification times of the files in the output directory before the compilation, by relative name,
+     * or {@code null} if files are staged.
+     */
+    private Map<String, Long> previousModificationTimes;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param stagingDirectory the directory into which files are generated,
+     *                         or {@code null} if they are generated directly into the output directory.
+     * @param outputDirectory the directory that receives changed files.
+     * @param compareContents if {@code true}, files with unchanged contents are not replaced;
+     *                        otherwise, all staged files are moved.
+     */
+    OutputSynchroniser(final File stagingDirectory, final File outputDirectory, final boolean compareContents) {
+        this.stagingDirectory = stagingDirectory;
+        this.outputDirectory = checkNotNull(outputDirectory, "outputDirectory");
+        this.compareContents = compareContents;
+    }
+
+    /**
+     * Creates the staging directory, removing any files left over by previous compilations.
+     * Subdirectories are kept, since generators expect their output directories to exist.
+     * Without a staging directory, the files currently in the output directory are recorded instead.
+     *
+     * @param writeTimeThreshold the earliest modification time of files written by the compilation.
+     * @throws IOException if the directory cannot be created or a file cannot be removed.
+     */
+    void prepare(final long writeTimeThreshold) throws IOException {
+        this.writeTimeThreshold = writeTimeThreshold;
+        if (stagingDirectory == null) {
+            previousModificationTimes = new HashMap<String, Long>();
+            if (outputDirectory.isDirectory()) {
+                for (final File outputFile : getFiles(outputDirectory, "**/*", null)) {
+                    previousModificationTimes.put(
+                            OutputManifest.getRelativeName(outputDirectory, outputFile), outputFile.lastModified());
+                }
+            }
+            return;
+        }
+        FileUtils.forceMkdir(stagingDirectory);
+        deleteFiles(stagingDirectory);
+    }
+
+    private static void deleteFiles(final File directory) throws IOException {
+        final File[] children = directory.listFiles();
+        if (children == null) {
+            throw new IOException("Unable to list " + directory);
+        }
+        for (final File child : children) {
+            if (child.isDirectory()) {
+                deleteFiles(child);
+            } else if (!child.delete()) {
+                throw new IOException("Unable to delete " + child);
+            }
+        }
+    }
+
+    /**
+     * Moves staged files to the output directory, skipping unchanged ones if contents are compared.
+     * The staging directory is empty afterwards. Without a staging directory, nothing is moved,
+     * and the files written since {@link #prepare(long)} are reported as changed.
+     *
+     * @param threads maximum number of worker threads.
+     * @return the outcome of the synchronisation.
+     * @throws IOException if the directories cannot be listed or cleaned.
+     * @throws ExecutionException if a file cannot be compared or moved.
+     * @throws InterruptedException if the calling thread was interrupted.
+     */
+    Result synchronise(final int threads) throws IOException, ExecutionException, InterruptedException {
+        checkState(stagingDirectory != null || previousModificationTimes != null, "Not prepared");
+        if (stagingDirectory == null) {
+            return findWrittenFiles();
+        }
+        final List<File> stagedFiles = getFiles(stagingDirectory, "**/*", null);
+        final ImmutableSet.Builder<String> stagedOutputs = ImmutableSet.builder();
+        for (final File stagedFile : stagedFiles) {
+            stagedOutputs.add(OutputManifest.getRelativeName(stagingDirectory, stagedFile));
+        }
+
+        final List<Callable<List<File>>> tasks = new ArrayList<Callable<List<File>>>();
+        final int partitionSize = Math.max(1, stagedFiles.size() / (threads * TASKS_PER_THREAD));
+        for (final List<File> partition : Lists.partition(stagedFiles, partitionSize)) {
+            tasks.add(new Callable<List<File>>() {
+                @Override
+                public List<File> call() throws IOException {
+                    final List<File> changedFiles = new ArrayList<File>();
+                    for (final File stagedFile : partition) {
+                        final File outputFile =
+                                new File(outputDirectory, OutputManifest.getRelativeName(stagingDirectory, stagedFile));
+                        if (!compareContents || !isSameContent(stagedFile, outputFile)) {
+                            moveFile(stagedFile, outputFile);
+                            changedFiles.add(outputFile);
+                        }
+                    }
+                    return changedFiles;
+                }
+            });
+        }
+        final ImmutableList.Builder<File> changedFiles = ImmutableList.builder();
+        for (final List<File> taskChangedFiles : ParallelTasks.invokeAll(tasks, threads)) {
+            changedFiles.addAll(taskChangedFiles);
+        }
+        FileUtils.cleanDirectory(stagingDirectory);
+        return new Result(stagedOutputs.build(), changedFiles.build());
+    }
+
+    private Result findWrittenFiles() throws IOException {
+        final ImmutableSet.Builder<String> writtenOutputs = ImmutableSet.builder();
+        final ImmutableList.Builder<File> writtenFiles = ImmutableList.builder();
+        if (outputDirectory.isDirectory()) {
+            for (final File outputFile : getFiles(outputDirectory, "**/*", null)) {
+                final String name = OutputManifest.getRelativeName(outputDirectory, outputFile);
+                final Long previousModificationTime = previousModificationTimes.get(name);
+                // a file written again within the resolution of modification times may keep its time
+                if (previousModificationTime == null
+                        || previousModificationTime != outputFile.lastModified()
+                        || previousModificationTime >= writeTimeThreshold) {
+                    writtenOutputs.add(name);
+                    writtenFiles.add(outputFile);
+                }
+            }
+        }
+        previousModificationTimes = null;
+        return new Result(writtenOutputs.build(), writtenFiles.build());
+    }
+
+    private static boolean isSameContent(final File stagedFile, final File outputFile) throws IOException {
+        return outputFile.isFile()
+                && outputFile.length() == stagedFile.length()
+                && Files.equal(stagedFile, outputFile);
+    }
+
+    private static void moveFile(final File stagedFile, final File outputFile) throws IOException {
+        FileUtils.forceMkdir(outputFile.getParentFile());
+        if (outputFile.exists() && !outputFile.delete()) {
+            throw new IOException("Unable to delete " + outputFile);
+        }
+        if (!stagedFile.renameTo(outputFile)) {
+            // the staging directory may be on a different file system
+            Files.copy(stagedFile, outputFile);
+        }
+    }
+
+    /**
+     * The outcome of a synchronisation.
+     */
+    static final class Result {
+
+        private final ImmutableSet<String> stagedOutputs;
+
+        private final ImmutableList<File> changedFiles;
+
+        Result(final ImmutableSet<String> stagedOutputs, final ImmutableList<File> changedFiles) {
+            this.stagedOutputs = stagedOutputs;
+            this.changedFiles = changedFiles;
+        }
+
+        /**
+         * Returns all generated files.
+         *
+         * @return paths relative to the output directory, with {@code '/'} as a separator.
+         */
+        ImmutableSet<String> getStagedOutputs() {
+            return stagedOutputs;
+        }
+
+        /**
+         * Returns the files in the output directory that have been created or replaced.
+         *
+         * @return changed files.
+         */
+        ImmutableList<File> getChangedFiles() {
+            return changedFiles;
+        }
+    }
+}
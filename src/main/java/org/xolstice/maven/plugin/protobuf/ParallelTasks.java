@@ -0,0 +1,95 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static java.lang.Math.min;
+
+/**
+ * Runs independent tasks on a bounded pool of worker threads.
+ * Results are always returned in the order in which the tasks were supplied,
+ * regardless of the order of completion.
+ *
+ * @since 0.5.1
+ */
+final class ParallelTasks {
+
+    private ParallelTasks() {
+    }
+
+    /**
+     * Returns the effective number of worker threads for the configured value.
+     *
+     * @param threads configured number of threads; zero or a negative number means "one per processor".
+     * @return a positive number of threads.
+     */
+    static int effectiveThreads(final int threads) {
+        return threads > 0 ? threads : Runtime.getRuntime().availableProcessors();
+    }
+
+    /**
+     * Executes all tasks and waits for their completion.
+     * If there is only one task, or only one thread is allowed, the tasks are executed in the calling thread.
+     * If any of the tasks fails, the remaining tasks are cancelled.
+     *
+     * @param tasks tasks to execute.
+     * @param threads maximum number of worker threads.
+     * @param <T> the type of task results.
+     * @return a list of results, in the same order as the tasks.
+     * @throws ExecutionException if one of the tasks has failed; the cause holds the original exception.
+     * @throws InterruptedException if the calling thread was interrupted while waiting.
+     */
+    static <T> List<T> invokeAll(final List<? extends Callable<T>> tasks, final int threads)
+            throws ExecutionException, InterruptedException {
+        final List<T> results = new ArrayList<T>(tasks.size());
+        if (threads <= 1 || tasks.size() <= 1) {
+            for (final Callable<T> task : tasks) {
+                try {
+                    results.add(task.call());
+                } catch (Exception e) {
+                    throw new ExecutionException(e);
+                }
+            }
+            return results;
+        }
+
+        final ExecutorService executor = Executors.newFixedThreadPool(
+                min(threads, tasks.size()),
+                new ThreadFactoryBuilder().setDaemon(true).setNameFormat("protoc-worker-%d").build());
+        try {
+            final List<Future<T>> futures = new ArrayList<Future<T>>(tasks.size());
+            for (final Callable<T> task : tasks) {
+                futures.add(executor.submit(task));
+            }
+            for (final Future<T> future : futures) {
+                results.add(future.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return results;
+    }
+}
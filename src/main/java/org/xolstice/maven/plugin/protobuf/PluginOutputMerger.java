@@ -0,0 +1,222 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Files;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.codehaus.plexus.util.FileUtils.getFiles;
+
+/**
+ * Moves files generated by Java plugins that run in separate {@code protoc} processes
+ * from their private directories to the shared output directory, detecting files written by more than one generator.
+ *
+ * <p>Each plugin process writes into its own directory, so that concurrent processes never write the same file.
+ * A file conflicts if another plugin has generated a different file with the same name, or if the output directory
+ * already contains a different file with the same name that has been written during the compilation,
+ * which is the case for files generated by the built-in Java generator.</p>
+ *
+ * @since 0.5.1
+ */
+final class PluginOutputMerger {
+
+    /**
+     * The error reported by {@code protoc} when a generator inserts code into a file that has not been generated.
+     */
+    private static final String MISSING_INSERTION_TARGET_ERROR = "Tried to insert into file that doesn't exist";
+
+    private final long writeTimeThreshold;
+
+    private final List<PluginOutput> pluginOutputs = new ArrayList<PluginOutput>();
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param writeTimeThreshold the earliest modification time of files written during the compilation.
+     */
+    PluginOutputMerger(final long writeTimeThreshold) {
+        this.writeTimeThreshold = writeTimeThreshold;
+    }
+
+    /**
+     * Splits each invocation into one that runs the built-in generators, and one per Java plugin.
+     * Plugin invocations generate into private directories, which are registered with this merger.
+     *
+     * @param invocations invocations to split.
+     * @param pluginOutputBaseDirectory the directory under which private directories are created.
+     * @return invocations to execute in parallel.
+     */
+    List<Protoc> split(final List<Protoc> invocations, final File pluginOutputBaseDirectory) {
+        final List<Protoc> processes = new ArrayList<Protoc>();
+        for (int i = 0; i < invocations.size(); i++) {
+            final Protoc invocation = invocations.get(i);
+            final File outputDirectory = invocation.getPluginOutputDirectory();
+            if (outputDirectory == null) {
+                processes.add(invocation);
+                continue;
+            }
+            processes.add(invocation.withoutPlugins());
+            for (final ProtocPlugin plugin : invocation.getPlugins()) {
+                final File pluginDirectory = new File(pluginOutputBaseDirectory, i + "-" + plugin.getId());
+                add(plugin.getId(), pluginDirectory, outputDirectory);
+                processes.add(invocation.forPlugin(plugin, pluginDirectory));
+            }
+        }
+        return processes;
+    }
+
+    /**
+     * Checks whether a failed compilation has been caused by a plugin inserting code into a file
+     * that is generated by another process, which cannot work when plugins run in separate processes.
+     *
+     * @param processes the completed {@code protoc} processes.
+     * @return {@code true} if a process has reported a missing insertion target.
+     */
+    static boolean hasMissingInsertionTarget(final List<Protoc> processes) {
+        for (final Protoc process : processes) {
+            if (process.getError().contains(MISSING_INSERTION_TARGET_ERROR)) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    /**
+     * Registers the private output directory of a plugin process.
+     *
+     * @param pluginId the id of the plugin.
+     * @param pluginDirectory the directory into which the plugin generates files.
+     * @param outputDirectory the directory that receives the generated files.
+     */
+    private void add(final String pluginId, final File pluginDirectory, final File outputDirectory) {
+        pluginOutputs.add(new PluginOutput(
+                checkNotNull(pluginId, "pluginId"),
+                checkNotNull(pluginDirectory, "pluginDirectory"),
+                checkNotNull(outputDirectory, "outputDirectory")));
+    }
+
+    /**
+     * Creates empty private directories for all registered plugins, removing any leftovers of previous compilations.
+     *
+     * @throws IOException if a directory cannot be created or cleaned.
+     */
+    void prepare() throws IOException {
+        for (final PluginOutput pluginOutput : pluginOutputs) {
+            FileUtils.forceMkdir(pluginOutput.pluginDirectory);
+            FileUtils.cleanDirectory(pluginOutput.pluginDirectory);
+        }
+    }
+
+    /**
+     * Finds files written by more than one generator. Nothing is moved by this method.
+     *
+     * @return descriptions of conflicting files, which is empty if there are no conflicts.
+     * @throws IOException if a directory cannot be listed or a file cannot be read.
+     */
+    ImmutableList<String> findConflicts() throws IOException {
+        final ImmutableList.Builder<String> conflicts = ImmutableList.builder();
+        final Map<File, PluginOutput> claimedFiles = new HashMap<File, PluginOutput>();
+        final Map<File, File> sourceFiles = new HashMap<File, File>();
+        for (final PluginOutput pluginOutput : pluginOutputs) {
+            final String basePath = pluginOutput.pluginDirectory.getAbsolutePath();
+            for (final File generatedFile : getFiles(pluginOutput.pluginDirectory, "**", null)) {
+                final File outputFile = new File(
+                        pluginOutput.outputDirectory,
+                        generatedFile.getAbsolutePath().substring(basePath.length() + 1));
+                final PluginOutput claimingOutput = claimedFiles.get(outputFile);
+                if (claimingOutput != null) {
+                    if (!Files.equal(sourceFiles.get(outputFile), generatedFile)) {
+                        conflicts.add(outputFile + " is generated by both '"
+                                + claimingOutput.pluginId + "' and '" + pluginOutput.pluginId + "' plugins");
+                    }
+                } else if (outputFile.isFile()
+                        && outputFile.lastModified() >= writeTimeThreshold
+                        && !Files.equal(outputFile, generatedFile)) {
+                    conflicts.add(outputFile + " is generated by both the built-in generator and '"
+                            + pluginOutput.pluginId + "' plugin");
+                }
+                claimedFiles.put(outputFile, pluginOutput);
+                sourceFiles.put(outputFile, generatedFile);
+            }
+        }
+        return conflicts.build();
+    }
+
+    /**
+     * Moves generated files from the private directories of plugins to their output directories,
+     * and removes the private directories.
+     *
+     * @throws IOException if a file cannot be moved.
+     */
+    void merge() throws IOException {
+        for (final PluginOutput pluginOutput : pluginOutputs) {
+            final String basePath = pluginOutput.pluginDirectory.getAbsolutePath();
+            for (final File generatedFile : getFiles(pluginOutput.pluginDirectory, "**", null)) {
+                final File outputFile = new File(
+                        pluginOutput.outputDirectory,
+                        generatedFile.getAbsolutePath().substring(basePath.length() + 1));
+                FileUtils.forceMkdir(outputFile.getParentFile());
+                if (outputFile.exists() && !outputFile.delete()) {
+                    throw new IOException("Unable to delete " + outputFile);
+                }
+                if (!generatedFile.renameTo(outputFile)) {
+                    // the private directory may be on a different file system
+                    Files.copy(generatedFile, outputFile);
+                }
+            }
+        }
+        discard();
+    }
+
+    /**
+     * Removes the private directories of all registered plugins.
+     *
+     * @throws IOException if a directory cannot be removed.
+     */
+    void discard() throws IOException {
+        for (final PluginOutput pluginOutput : pluginOutputs) {
+            FileUtils.deleteDirectory(pluginOutput.pluginDirectory);
+        }
+    }
+
+    /**
+     * The private output directory of a single plugin process.
+     */
+    private static final class PluginOutput {
+
+        private final String pluginId;
+
+        private final File pluginDirectory;
+
+        private final File outputDirectory;
+
+        PluginOutput(final String pluginId, final File pluginDirectory, final File outputDirectory) {
+            this.pluginId = pluginId;
+            this.pluginDirectory = pluginDirectory;
+            this.outputDirectory = outputDirectory;
+        }
+    }
+}
@@ -0,0 +1,237 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import org.apache.maven.artifact.Artifact;
+
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.List;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Selects dependency artifacts and proto definitions inside them that contribute to the proto path.
+ *
+ * <p>Artifacts are matched by patterns in {@code groupId[:artifactId]} format, where {@code *} matches
+ * any sequence of characters. Proto definitions are matched by their relative paths with Ant-style patterns,
+ * where {@code **} matches any number of directories. All patterns are compiled once, on construction.</p>
+ *
+ * <p>An empty list of inclusions includes everything; exclusions take precedence over inclusions.</p>
+ *
+ * @since 0.5.1
+ */
+final class ProtoDependencyFilter {
+
+    private final List<Pattern> artifactIncludes;
+
+    private final List<Pattern> artifactExcludes;
+
+    /**
+     * Dependency conflict ids of direct dependencies, or {@code null} if transitive dependencies are included.
+     */
+    private final ImmutableSet<String> directDependencies;
+
+    private final List<Pattern> entryIncludes;
+
+    private final List<Pattern> entryExcludes;
+
+    /**
+     * Constructs a new filter.
+     *
+     * @param artifactIncludes patterns of artifacts to include.
+     * @param artifactExcludes patterns of artifacts to exclude.
+     * @param directDependencies dependency conflict ids ({@code groupId:artifactId:type[:classifier]})
+     *                           of direct dependencies, or {@code null} to include transitive dependencies.
+     * @param entryIncludes patterns of proto definitions to include.
+     * @param entryExcludes patterns of proto definitions to exclude.
+     */
+    ProtoDependencyFilter(
+            final Collection<String> artifactIncludes,
+            final Collection<String> artifactExcludes,
+            final Collection<String> directDependencies,
+            final Collection<String> entryIncludes,
+            final Collection<String> entryExcludes) {
+        this.artifactIncludes = compileArtifactPatterns(artifactIncludes);
+        this.artifactExcludes = compileArtifactPatterns(artifactExcludes);
+        this.directDependencies = directDependencies != null ? ImmutableSet.copyOf(directDependencies) : null;
+        this.entryIncludes = compileEntryPatterns(entryIncludes);
+        this.entryExcludes = compileEntryPatterns(entryExcludes);
+    }
+
+    /**
+     * Checks whether proto definitions from the specified artifact should be used.
+     *
+     * @param artifact a dependency artifact.
+     * @return {@code true} if the artifact is included.
+     */
+    boolean includes(final Artifact artifact) {
+        if (directDependencies != null && !directDependencies.contains(artifact.getDependencyConflictId())) {
+            return false;
+        }
+        final String key = artifact.getGroupId() + ':' + artifact.getArtifactId();
+        return matches(artifactIncludes, key, true) && !matches(artifactExcludes, key, false);
+    }
+
+    /**
+     * Checks whether any proto definitions could be excluded by this filter.
+     *
+     * @return {@code true} if there are proto definition patterns.
+     */
+    boolean filtersEntries() {
+        return !entryIncludes.isEmpty() || !entryExcludes.isEmpty();
+    }
+
+    /**
+     * Selects proto definitions that should be used.
+     *
+     * @param protoEntries relative names of proto definitions, with {@code '/'} as a separator.
+     * @return included names, in their original order.
+     */
+    ImmutableList<String> filterEntries(final ImmutableList<String> protoEntries) {
+        if (!filtersEntries()) {
+            return protoEntries;
+        }
+        final ImmutableList.Builder<String> includedEntries = ImmutableList.builder();
+        for (final String protoEntry : protoEntries) {
+            if (matches(entryIncludes, protoEntry, true) && !matches(entryExcludes, protoEntry, false)) {
+                includedEntries.add(protoEntry);
+            }
+        }
+        return includedEntries.build();
+    }
+
+    private static boolean matches(final List<Pattern> patterns, final String value, final boolean emptyResult) {
+        if (patterns.isEmpty()) {
+            return emptyResult;
+        }
+        for (final Pattern pattern : patterns) {
+            if (pattern.matcher(value).matches()) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static List<Pattern> compileArtifactPatterns(final Collection<String> patterns) {
+        final List<Pattern> compiledPatterns = new ArrayList<Pattern>();
+        if (patterns != null) {
+            for (final String pattern : patterns) {
+                compiledPatterns.add(compileArtifactPattern(pattern));
+            }
+        }
+        return compiledPatterns;
+    }
+
+    private static List<Pattern> compileEntryPatterns(final Collection<String> patterns) {
+        final List<Pattern> compiledPatterns = new ArrayList<Pattern>();
+        if (patterns != null) {
+            for (final String pattern : patterns) {
+                compiledPatterns.add(compileEntryPattern(pattern));
+            }
+        }
+        return compiledPatterns;
+    }
+
+    /**
+     * Compiles an artifact pattern in {@code groupId[:artifactId]} format.
+     *
+     * @param pattern an artifact pattern.
+     * @return a regular expression matching {@code groupId:artifactId} strings.
+     */
+    static Pattern compileArtifactPattern(final String pattern) {
+        checkNotNull(pattern, "pattern");
+        final String trimmedPattern = pattern.trim();
+        checkArgument(!trimmedPattern.isEmpty(), "Empty artifact pattern");
+        final String[] parts = trimmedPattern.split(":");
+        checkArgument(parts.length <= 2,
+                "Invalid artifact pattern, expected: groupId[:artifactId], actual: %s", pattern);
+        final StringBuilder regex = new StringBuilder();
+        appendGlob(regex, parts[0]);
+        regex.append(':');
+        appendGlob(regex, parts.length == 2 ? parts[1] : "*");
+        return Pattern.compile(regex.toString());
+    }
+
+    private static void appendGlob(final StringBuilder regex, final String glob) {
+        int start = 0;
+        int wildcard;
+        while ((wildcard = glob.indexOf('*', start)) >= 0) {
+            if (wildcard > start) {
+                regex.append(Pattern.quote(glob.substring(start, wildcard)));
+            }
+            regex.append("[^:]*");
+            start = wildcard + 1;
+        }
+        if (start < glob.length()) {
+            regex.append(Pattern.quote(glob.substring(start)));
+        }
+    }
+
+    /**
+     * Compiles an Ant-style path pattern, in which {@code **} matches any number of directories,
+     * {@code *} matches any characters within one path segment, and {@code ?} matches one such character.
+     * A pattern that ends with {@code '/'} matches everything below that directory.
+     *
+     * @param pattern a path pattern, with either {@code '/'} or {@code '\'} as a separator.
+     * @return a regular expression matching relative paths with {@code '/'} as a separator.
+     */
+    static Pattern compileEntryPattern(final String pattern) {
+        checkNotNull(pattern, "pattern");
+        String normalizedPattern = pattern.trim().replace('\\', '/');
+        checkArgument(!normalizedPattern.isEmpty(), "Empty proto file pattern");
+        if (normalizedPattern.endsWith("/")) {
+            normalizedPattern += "**";
+        }
+        final StringBuilder regex = new StringBuilder();
+        final StringBuilder literal = new StringBuilder();
+        int i = 0;
+        while (i < normalizedPattern.length()) {
+            final char c = normalizedPattern.charAt(i);
+            if (c == '*' || c == '?') {
+                if (literal.length() > 0) {
+                    regex.append(Pattern.quote(literal.toString()));
+                    literal.setLength(0);
+                }
+                if (c == '?') {
+                    regex.append("[^/]");
+                    i++;
+                } else if (normalizedPattern.startsWith("**/", i)) {
+                    regex.append("(?:.*/)?");
+                    i += 3;
+                } else if (normalizedPattern.startsWith("**", i)) {
+                    regex.append(".*");
+                    i += 2;
+                } else {
+                    regex.append("[^/]*");
+                    i++;
+                }
+            } else {
+                literal.append(c);
+                i++;
+            }
+        }
+        if (literal.length() > 0) {
+            regex.append(Pattern.quote(literal.toString()));
+        }
+        return Pattern.compile(regex.toString());
+    }
+}
@@ -0,0 +1,195 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.List;
+import java.util.Properties;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A persistent, content-addressed store of protobuf definitions extracted from dependency jars.
+ *
+ * <p>Each jar is unpacked at most once into a directory named after the SHA-1 digest of its contents
+ * and the selection of unpacked entries, so that the same artifact can be shared between executions,
+ * modules and builds.
+ * The digest of a jar is remembered together with its size and modification time,
+ * so that a jar that has already been stored costs one file stat and a digest lookup.</p>
+ *
+ * <p>Entries are published atomically by renaming a fully populated temporary directory,
+ * which makes the store safe to use from concurrent builds.</p>
+ *
+ * @since 0.5.1
+ */
+final class ProtoExtractionStore {
+
+    private static final String STAMPS_DIRECTORY = "stamps";
+
+    private static final String ENTRIES_DIRECTORY = "entries";
+
+    private static final String STAMP_PATH = "path";
+
+    private static final String STAMP_LENGTH = "length";
+
+    private static final String STAMP_LAST_MODIFIED = "lastModified";
+
+    private static final String STAMP_DIGEST = "digest";
+
+    private final File stampsDirectory;
+
+    private final File entriesDirectory;
+
+    private final Log log;
+
+    /**
+     * Constructs a new store instance.
+     *
+     * @param storeDirectory the root directory of the store; it will be created if it does not exist.
+     * @param log a logger for diagnostic output.
+     */
+    ProtoExtractionStore(final File storeDirectory, final Log log) {
+        checkNotNull(storeDirectory, "storeDirectory");
+        this.stampsDirectory = new File(storeDirectory, STAMPS_DIRECTORY);
+        this.entriesDirectory = new File(storeDirectory, ENTRIES_DIRECTORY);
+        this.log = checkNotNull(log, "log");
+    }
+
+    /**
+     * Makes sure that protobuf definitions from the specified jar are available in the store.
+     *
+     * @param jarFile a dependency jar file.
+     * @param protoEntries names of {@code .proto} entries in the jar file.
+     * @return an import root containing all protobuf definitions from the jar,
+     *         or {@code null} if the jar does not contain any.
+     * @throws IOException if the jar cannot be read or the store cannot be updated.
+     */
+    File extract(final File jarFile, final List<String> protoEntries) throws IOException {
+        if (protoEntries.isEmpty()) {
+            return null;
+        }
+        final String digest = digest(jarFile);
+        // some entries may be excluded, so the same jar can be stored with different selections of entries
+        final String selection = Hashing.sha1()
+                .hashString(Joiner.on('\n').join(protoEntries), Charsets.UTF_8).toString().substring(0, 8);
+        final File entryDirectory = new File(entriesDirectory, digest + '-' + selection);
+        if (entryDirectory.isDirectory()) {
+            if (log.isDebugEnabled()) {
+                log.debug("Reusing stored proto files for " + jarFile + " from " + entryDirectory);
+            }
+        } else {
+            publish(jarFile, protoEntries, entryDirectory);
+        }
+        return entryDirectory;
+    }
+
+    /**
+     * Returns the content digest of the specified jar, computing it only if the jar has changed
+     * since the last time its digest was recorded.
+     */
+    private String digest(final File jarFile) throws IOException {
+        final File stampFile = new File(stampsDirectory, Hashing.md5()
+                .hashString(jarFile.getAbsolutePath(), Charsets.UTF_8).toString() + ".properties");
+        final String path = jarFile.getAbsolutePath();
+        final String length = String.valueOf(jarFile.length());
+        final String lastModified = String.valueOf(jarFile.lastModified());
+
+        if (stampFile.isFile()) {
+            final Properties stamp = new Properties();
+            final InputStream in = new FileInputStream(stampFile);
+            try {
+                stamp.load(in);
+            } finally {
+                in.close();
+            }
+            final String digest = stamp.getProperty(STAMP_DIGEST);
+            if (digest != null
+                    && path.equals(stamp.getProperty(STAMP_PATH))
+                    && length.equals(stamp.getProperty(STAMP_LENGTH))
+                    && lastModified.equals(stamp.getProperty(STAMP_LAST_MODIFIED))) {
+                return digest;
+            }
+        }
+
+        final String digest = Files.asByteSource(jarFile).hash(Hashing.sha1()).toString();
+        final Properties stamp = new Properties();
+        stamp.setProperty(STAMP_PATH, path);
+        stamp.setProperty(STAMP_LENGTH, length);
+        stamp.setProperty(STAMP_LAST_MODIFIED, lastModified);
+        stamp.setProperty(STAMP_DIGEST, digest);
+        FileUtils.forceMkdir(stampsDirectory);
+        final File temporaryStampFile = new File(stampsDirectory, stampFile.getName() + '.' + UUID.randomUUID());
+        final OutputStream out = new FileOutputStream(temporaryStampFile);
+        try {
+            stamp.store(out, null);
+        } finally {
+            out.close();
+        }
+        if (!replace(temporaryStampFile, stampFile)) {
+            // The stamp is only a shortcut, the digest will simply be recomputed next time
+            temporaryStampFile.delete();
+        }
+        return digest;
+    }
+
+    /**
+     * Extracts protobuf definitions from the jar into a temporary directory
+     * and then atomically moves it into place.
+     */
+    private void publish(final File jarFile, final List<String> protoEntries, final File entryDirectory)
+            throws IOException {
+        final File temporaryDirectory =
+                new File(entriesDirectory, entryDirectory.getName() + '.' + UUID.randomUUID());
+        FileUtils.forceMkdir(temporaryDirectory);
+        try {
+            ProtoJarIndex.extract(jarFile, protoEntries, temporaryDirectory);
+            if (!temporaryDirectory.renameTo(entryDirectory) && !entryDirectory.isDirectory()) {
+                throw new IOException("Unable to publish " + temporaryDirectory + " as " + entryDirectory);
+            }
+            if (log.isDebugEnabled()) {
+                log.debug("Stored proto files for " + jarFile + " in " + entryDirectory);
+            }
+        } finally {
+            // Either the rename succeeded, or another build has published the same entry concurrently
+            if (temporaryDirectory.exists()) {
+                FileUtils.deleteDirectory(temporaryDirectory);
+            }
+        }
+    }
+
+    private static boolean replace(final File source, final File target) {
+        if (source.renameTo(target)) {
+            return true;
+        }
+        // Windows does not allow renaming over an existing file
+        target.delete();
+        return source.renameTo(target);
+    }
+}
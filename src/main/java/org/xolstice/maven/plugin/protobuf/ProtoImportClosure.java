@@ -0,0 +1,305 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.apache.maven.plugin.logging.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.ArrayDeque;
+import java.util.BitSet;
+import java.util.Collection;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Computes the transitive closure of imports of a set of protobuf definitions,
+ * and determines which dependency elements of the proto path are actually needed to resolve them.
+ *
+ * <p>Imports are resolved in the same order as {@code protoc} resolves them: proto source roots first,
+ * then dependency elements in their classpath order, and finally the additional proto path elements.
+ * Definitions inside dependency jars are read directly from the jars, without extracting them.</p>
+ *
+ * @since 0.5.1
+ */
+final class ProtoImportClosure {
+
+    private final List<File> sourceRoots;
+
+    private final List<File> dependencyElements;
+
+    private final Map<String, Integer> dependencyElementIndexes = new HashMap<String, Integer>();
+
+    private final List<File> additionalRoots;
+
+    private final Log log;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param sourceRoots source roots that come first in the proto path.
+     * @param dependencyElements dependency classpath elements, either jar files or directories.
+     * @param dependencyEntries for each dependency element, the relative names of all proto definitions in it.
+     * @param additionalRoots directories that come last in the proto path.
+     * @param log a logger for diagnostic output.
+     */
+    ProtoImportClosure(
+            final List<File> sourceRoots,
+            final List<File> dependencyElements,
+            final List<? extends Collection<String>> dependencyEntries,
+            final List<File> additionalRoots,
+            final Log log) {
+        checkArgument(dependencyElements.size() == dependencyEntries.size(), "elements and entries do not match");
+        this.sourceRoots = checkNotNull(sourceRoots, "sourceRoots");
+        this.dependencyElements = dependencyElements;
+        this.additionalRoots = checkNotNull(additionalRoots, "additionalRoots");
+        this.log = checkNotNull(log, "log");
+        for (int i = 0; i < dependencyEntries.size(); i++) {
+            for (final String entry : dependencyEntries.get(i)) {
+                // the first element that has the definition wins, as in protoc
+                if (!dependencyElementIndexes.containsKey(entry)) {
+                    dependencyElementIndexes.put(entry, i);
+                }
+            }
+        }
+    }
+
+    /**
+     * Computes the import closure of the specified definitions.
+     *
+     * @param protoFiles protobuf definitions to compile.
+     * @return indexes of dependency elements that contribute at least one definition to the closure.
+     * @throws IOException if one of the definitions cannot be read.
+     */
+    BitSet compute(final Iterable<File> protoFiles) throws IOException {
+        final BitSet neededElements = new BitSet(dependencyElements.size());
+        final Set<String> visited = new HashSet<String>();
+        final Deque<String> pending = new ArrayDeque<String>();
+        for (final File protoFile : protoFiles) {
+            pending.addAll(parseImports(Files.toString(protoFile, Charsets.UTF_8)));
+        }
+
+        final Map<Integer, ZipFile> openJars = new HashMap<Integer, ZipFile>();
+        try {
+            while (!pending.isEmpty()) {
+                final String importName = pending.removeFirst();
+                if (!visited.add(importName)) {
+                    continue;
+                }
+                final String content = resolve(importName, neededElements, openJars);
+                if (content == null) {
+                    // leave it to protoc to report the missing import, if it is really missing
+                    log.debug("Unresolved import: " + importName);
+                } else {
+                    pending.addAll(parseImports(content));
+                }
+            }
+        } finally {
+            for (final ZipFile zipFile : openJars.values()) {
+                zipFile.close();
+            }
+        }
+        return neededElements;
+    }
+
+    /**
+     * Finds an imported definition and returns its content.
+     */
+    private String resolve(final String importName, final BitSet neededElements, final Map<Integer, ZipFile> openJars)
+            throws IOException {
+        for (final File sourceRoot : sourceRoots) {
+            final File file = new File(sourceRoot, importName);
+            if (file.isFile()) {
+                return Files.toString(file, Charsets.UTF_8);
+            }
+        }
+        final Integer index = dependencyElementIndexes.get(importName);
+        if (index != null) {
+            neededElements.set(index);
+            final File element = dependencyElements.get(index);
+            if (element.isDirectory()) {
+                return Files.toString(new File(element, importName), Charsets.UTF_8);
+            }
+            ZipFile zipFile = openJars.get(index);
+            if (zipFile == null) {
+                zipFile = new ZipFile(element);
+                openJars.put(index, zipFile);
+            }
+            final ZipEntry zipEntry = zipFile.getEntry(importName);
+            if (zipEntry == null) {
+                throw new IOException("Entry " + importName + " not found in " + element);
+            }
+            final InputStream in = zipFile.getInputStream(zipEntry);
+            try {
+                return new String(ByteStreams.toByteArray(in), Charsets.UTF_8);
+            } finally {
+                in.close();
+            }
+        }
+        for (final File additionalRoot : additionalRoots) {
+            final File file = new File(additionalRoot, importName);
+            if (file.isFile()) {
+                return Files.toString(file, Charsets.UTF_8);
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Extracts the names of imported files from the text of a protobuf definition.
+     * This is a minimal lexer that understands comments and string literals,
+     * which is sufficient to find {@code import}, {@code import public} and {@code import weak} statements.
+     *
+     * @param content the text of a protobuf definition.
+     * @return the names of imported files, in the order of declaration.
+     */
+    static ImmutableList<String> parseImports(final String content) {
+        final ImmutableList.Builder<String> imports = ImmutableList.builder();
+        final Lexer lexer = new Lexer(content);
+        boolean statementStart = true;
+        while (lexer.skipWhitespaceAndComments()) {
+            final char c = lexer.peek();
+            if (Character.isJavaIdentifierStart(c)) {
+                final String identifier = lexer.identifier();
+                if (statementStart && "import".equals(identifier)) {
+                    final String importName = lexer.importTarget();
+                    if (importName != null) {
+                        imports.add(importName);
+                    }
+                }
+                statementStart = false;
+            } else if (c == '"' || c == '\'') {
+                lexer.string();
+                statementStart = false;
+            } else {
+                lexer.next();
+                statementStart = c == ';' || c == '{' || c == '}';
+            }
+        }
+        return imports.build();
+    }
+
+    /**
+     * A trivial character-level lexer for protobuf definitions.
+     */
+    private static final class Lexer {
+
+        private final String content;
+
+        private int position;
+
+        Lexer(final String content) {
+            this.content = content;
+        }
+
+        char peek() {
+            return content.charAt(position);
+        }
+
+        void next() {
+            position++;
+        }
+
+        /**
+         * Skips whitespace and comments.
+         *
+         * @return {@code true} if there is more input.
+         */
+        boolean skipWhitespaceAndComments() {
+            while (position < content.length()) {
+                final char c = content.charAt(position);
+                if (Character.isWhitespace(c)) {
+                    position++;
+                } else if (content.startsWith("//", position)) {
+                    final int end = content.indexOf('\n', position);
+                    position = end < 0 ? content.length() : end + 1;
+                } else if (content.startsWith("/*", position)) {
+                    final int end = content.indexOf("*/", position + 2);
+                    position = end < 0 ? content.length() : end + 2;
+                } else {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        String identifier() {
+            final int start = position;
+            while (position < content.length() && (Character.isJavaIdentifierPart(content.charAt(position))
+                    || content.charAt(position) == '.')) {
+                position++;
+            }
+            return content.substring(start, position);
+        }
+
+        String string() {
+            final char quote = content.charAt(position++);
+            final StringBuilder value = new StringBuilder();
+            while (position < content.length()) {
+                final char c = content.charAt(position++);
+                if (c == quote) {
+                    break;
+                } else if (c == '\\' && position < content.length()) {
+                    value.append(content.charAt(position++));
+                } else {
+                    value.append(c);
+                }
+            }
+            return value.toString();
+        }
+
+        /**
+         * Parses the remainder of an import statement after the {@code import} keyword.
+         *
+         * @return the imported file name, or {@code null} if the statement is malformed.
+         */
+        String importTarget() {
+            if (!skipWhitespaceAndComments()) {
+                return null;
+            }
+            if (Character.isJavaIdentifierStart(peek())) {
+                final String modifier = identifier();
+                if (!"public".equals(modifier) && !"weak".equals(modifier)) {
+                    return null;
+                }
+                if (!skipWhitespaceAndComments()) {
+                    return null;
+                }
+            }
+            // adjacent string literals are concatenated
+            final StringBuilder target = new StringBuilder();
+            while (skipWhitespaceAndComments() && (peek() == '"' || peek() == '\'')) {
+                target.append(string());
+            }
+            return target.length() > 0 ? target.toString() : null;
+        }
+    }
+}
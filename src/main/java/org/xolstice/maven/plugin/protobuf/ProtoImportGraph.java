@@ -0,0 +1,250 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.hash.Hashing;
+import com.google.common.io.Files;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Deque;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static org.codehaus.plexus.util.FileUtils.getFiles;
+
+/**
+ * The import graph of protobuf definitions in a source root, together with content digests of the definitions.
+ *
+ * <p>A graph is recorded after each successful compilation, together with a fingerprint of everything else
+ * that affects the compilation (the environment). Comparing the graph of the current sources with
+ * the recorded one gives the definitions that have to be recompiled: those that have changed,
+ * and those that import them, directly or transitively.</p>
+ *
+ * @since 0.5.1
+ */
+final class ProtoImportGraph {
+
+    private static final String FORMAT_VERSION = "#protoc-import-graph:1";
+
+    private static final char SEPARATOR = '\t';
+
+    private static final String PROTO_FILE_INCLUDES = "**/*.proto";
+
+    private final String environment;
+
+    /**
+     * Relative names of definitions, mapped to their digests and imports.
+     */
+    private final Map<String, Node> nodes;
+
+    private ProtoImportGraph(final String environment, final Map<String, Node> nodes) {
+        this.environment = checkNotNull(environment, "environment");
+        this.nodes = nodes;
+    }
+
+    /**
+     * Builds the import graph of all protobuf definitions in a source root.
+     *
+     * @param sourceRoot a proto source root.
+     * @param environment a fingerprint of other inputs of the compilation.
+     * @return a new graph.
+     * @throws IOException if the source root cannot be listed or a definition cannot be read.
+     */
+    static ProtoImportGraph scan(final File sourceRoot, final String environment) throws IOException {
+        final Map<String, Node> nodes = new TreeMap<String, Node>();
+        final String basePath = sourceRoot.getAbsolutePath();
+        for (final File protoFile : getFiles(sourceRoot, PROTO_FILE_INCLUDES, null)) {
+            final String name = protoFile.getAbsolutePath()
+                    .substring(basePath.length() + 1)
+                    .replace(File.separatorChar, '/');
+            final byte[] content = Files.toByteArray(protoFile);
+            nodes.put(name, new Node(
+                    Hashing.sha1().hashBytes(content).toString(),
+                    ProtoImportClosure.parseImports(new String(content, Charsets.UTF_8))));
+        }
+        return new ProtoImportGraph(environment, nodes);
+    }
+
+    /**
+     * Loads a previously saved graph.
+     *
+     * @param graphFile the location of the graph.
+     * @param log a logger for diagnostic output.
+     * @return the graph, or {@code null} if there is no readable graph at the specified location.
+     */
+    static ProtoImportGraph load(final File graphFile, final Log log) {
+        if (!graphFile.isFile()) {
+            return null;
+        }
+        try {
+            final BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(new FileInputStream(graphFile), Charsets.UTF_8));
+            try {
+                if (!FORMAT_VERSION.equals(reader.readLine())) {
+                    log.debug("Ignoring import graph in unknown format: " + graphFile);
+                    return null;
+                }
+                final String environment = reader.readLine();
+                if (environment == null) {
+                    return null;
+                }
+                final Map<String, Node> nodes = new TreeMap<String, Node>();
+                final Splitter splitter = Splitter.on(SEPARATOR);
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final Iterator<String> fields = splitter.split(line).iterator();
+                    final String name = fields.next();
+                    if (!fields.hasNext()) {
+                        return null;
+                    }
+                    final String digest = fields.next();
+                    final List<String> imports = new ArrayList<String>();
+                    while (fields.hasNext()) {
+                        imports.add(fields.next());
+                    }
+                    nodes.put(name, new Node(digest, ImmutableList.copyOf(imports)));
+                }
+                return new ProtoImportGraph(environment, nodes);
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read import graph " + graphFile + ": " + e.getMessage());
+            return null;
+        }
+    }
+
+    /**
+     * Saves this graph.
+     *
+     * @param graphFile the location of the graph.
+     * @throws IOException if the graph cannot be written.
+     */
+    void save(final File graphFile) throws IOException {
+        FileUtils.forceMkdir(graphFile.getParentFile());
+        final Writer writer =
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(graphFile), Charsets.UTF_8));
+        try {
+            final Joiner joiner = Joiner.on(SEPARATOR);
+            writer.write(FORMAT_VERSION);
+            writer.write('\n');
+            writer.write(environment);
+            writer.write('\n');
+            for (final Map.Entry<String, Node> entry : nodes.entrySet()) {
+                writer.write(entry.getKey());
+                writer.write(SEPARATOR);
+                writer.write(entry.getValue().digest);
+                for (final String importName : entry.getValue().imports) {
+                    writer.write(SEPARATOR);
+                    writer.write(importName);
+                }
+                writer.write('\n');
+            }
+        } finally {
+            writer.close();
+        }
+    }
+
+    /**
+     * Finds definitions that have to be recompiled, compared to a previous state of the sources.
+     *
+     * @param previous the graph recorded after the previous compilation.
+     * @return relative names of the definitions that have changed or transitively import changed definitions,
+     *         or {@code null} if everything has to be recompiled, because the environment has changed,
+     *         or definitions have been deleted.
+     */
+    ImmutableSet<String> findAffected(final ProtoImportGraph previous) {
+        if (!environment.equals(previous.environment)) {
+            return null;
+        }
+        for (final String name : previous.nodes.keySet()) {
+            if (!nodes.containsKey(name)) {
+                // generated files of deleted definitions cannot be told apart from others
+                return null;
+            }
+        }
+
+        final Map<String, List<String>> importers = new HashMap<String, List<String>>();
+        for (final Map.Entry<String, Node> entry : nodes.entrySet()) {
+            for (final String importName : entry.getValue().imports) {
+                List<String> names = importers.get(importName);
+                if (names == null) {
+                    names = new ArrayList<String>();
+                    importers.put(importName, names);
+                }
+                names.add(entry.getKey());
+            }
+        }
+
+        final Set<String> affected = new LinkedHashSet<String>();
+        final Deque<String> pending = new ArrayDeque<String>();
+        for (final Map.Entry<String, Node> entry : nodes.entrySet()) {
+            final Node previousNode = previous.nodes.get(entry.getKey());
+            if (previousNode == null || !previousNode.digest.equals(entry.getValue().digest)) {
+                pending.add(entry.getKey());
+            }
+        }
+        while (!pending.isEmpty()) {
+            final String name = pending.removeFirst();
+            if (affected.add(name)) {
+                final List<String> names = importers.get(name);
+                if (names != null) {
+                    pending.addAll(names);
+                }
+            }
+        }
+        return ImmutableSet.copyOf(affected);
+    }
+
+    /**
+     * A single definition in the graph.
+     */
+    private static final class Node {
+
+        private final String digest;
+
+        private final ImmutableList<String> imports;
+
+        Node(final String digest, final ImmutableList<String> imports) {
+            this.digest = digest;
+            this.imports = imports;
+        }
+    }
+}
@@ -0,0 +1,304 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.base.Joiner;
+import com.google.common.base.Splitter;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.BufferedReader;
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.InputStreamReader;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.Enumeration;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.UUID;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * An index of protobuf definitions contained in dependency jars.
+ *
+ * <p>Jars are scanned by reading the zip central directory only, without inflating any entries
+ * and without verifying jar signatures. The result is recorded against the path, size and
+ * modification time of the jar, and optionally persisted between builds, so that a jar that has
+ * already been indexed (in particular, a jar without any {@code .proto} files) costs a single stat.</p>
+ *
+ * <p>Instances are safe for concurrent use.</p>
+ *
+ * @since 0.5.1
+ */
+final class ProtoJarIndex {
+
+    private static final String PROTO_FILE_SUFFIX = ".proto";
+
+    private static final String INDEX_FORMAT_VERSION = "#protoc-jar-index:1";
+
+    private static final char SEPARATOR = '\t';
+
+    /**
+     * Location of the persisted index, or {@code null} if the index is not persisted.
+     */
+    private final File indexFile;
+
+    private final Log log;
+
+    private final ConcurrentMap<String, Entry> entries = new ConcurrentHashMap<String, Entry>();
+
+    private volatile boolean modified;
+
+    /**
+     * Constructs a new empty index.
+     *
+     * @param indexFile location of the persisted index, or {@code null} for a transient index.
+     * @param log a logger for diagnostic output.
+     */
+    ProtoJarIndex(final File indexFile, final Log log) {
+        this.indexFile = indexFile;
+        this.log = checkNotNull(log, "log");
+    }
+
+    /**
+     * Loads previously persisted index entries, if there are any.
+     * A missing or unreadable index file is not an error, the index is simply rebuilt.
+     */
+    void load() {
+        if (indexFile == null || !indexFile.isFile()) {
+            return;
+        }
+        try {
+            final BufferedReader reader =
+                    new BufferedReader(new InputStreamReader(new FileInputStream(indexFile), Charsets.UTF_8));
+            try {
+                if (!INDEX_FORMAT_VERSION.equals(reader.readLine())) {
+                    log.debug("Ignoring jar index in unknown format: " + indexFile);
+                    return;
+                }
+                final Splitter splitter = Splitter.on(SEPARATOR);
+                String line;
+                while ((line = reader.readLine()) != null) {
+                    final Iterator<String> fields = splitter.split(line).iterator();
+                    final String path = fields.next();
+                    if (!fields.hasNext()) {
+                        continue;
+                    }
+                    final long length = Long.parseLong(fields.next());
+                    if (!fields.hasNext()) {
+                        continue;
+                    }
+                    final long lastModified = Long.parseLong(fields.next());
+                    final List<String> protoEntries = new ArrayList<String>();
+                    while (fields.hasNext()) {
+                        protoEntries.add(fields.next());
+                    }
+                    entries.put(path, new Entry(length, lastModified, ImmutableList.copyOf(protoEntries)));
+                }
+            } finally {
+                reader.close();
+            }
+        } catch (IOException e) {
+            log.warn("Unable to read jar index " + indexFile + ", it will be rebuilt: " + e.getMessage());
+            entries.clear();
+        } catch (NumberFormatException e) {
+            log.warn("Jar index " + indexFile + " is corrupt, it will be rebuilt");
+            entries.clear();
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Loaded " + entries.size() + " jar index entries from " + indexFile);
+        }
+    }
+
+    /**
+     * Persists the index, if it has been modified since it was loaded.
+     * Entries for jars that no longer exist are dropped.
+     * The index only saves work in later builds, so a failure to write it is logged and otherwise ignored.
+     */
+    synchronized void save() {
+        if (indexFile == null || !modified) {
+            return;
+        }
+        try {
+            write(new TreeMap<String, Entry>(entries));
+            modified = false;
+        } catch (IOException e) {
+            log.warn("Unable to write jar index " + indexFile + ": " + e.getMessage());
+        }
+    }
+
+    private void write(final Map<String, Entry> snapshot) throws IOException {
+        FileUtils.forceMkdir(indexFile.getParentFile());
+        final File temporaryFile = new File(indexFile.getParentFile(), indexFile.getName() + '.' + UUID.randomUUID());
+        boolean written = false;
+        final Writer writer =
+                new BufferedWriter(new OutputStreamWriter(new FileOutputStream(temporaryFile), Charsets.UTF_8));
+        try {
+            final Joiner joiner = Joiner.on(SEPARATOR);
+            writer.write(INDEX_FORMAT_VERSION);
+            writer.write('\n');
+            for (final Map.Entry<String, Entry> mapEntry : snapshot.entrySet()) {
+                if (!new File(mapEntry.getKey()).exists()) {
+                    continue;
+                }
+                final Entry entry = mapEntry.getValue();
+                writer.write(mapEntry.getKey());
+                writer.write(SEPARATOR);
+                writer.write(String.valueOf(entry.length));
+                writer.write(SEPARATOR);
+                writer.write(String.valueOf(entry.lastModified));
+                if (!entry.protoEntries.isEmpty()) {
+                    writer.write(SEPARATOR);
+                    joiner.appendTo(writer, entry.protoEntries);
+                }
+                writer.write('\n');
+            }
+            writer.close();
+            written = true;
+        } finally {
+            if (!written) {
+                Closeables.close(writer, true);
+                temporaryFile.delete();
+            }
+        }
+        if (!temporaryFile.renameTo(indexFile)) {
+            // Windows does not allow renaming over an existing file
+            indexFile.delete();
+            if (!temporaryFile.renameTo(indexFile)) {
+                temporaryFile.delete();
+                throw new IOException("Unable to replace " + indexFile);
+            }
+        }
+    }
+
+    /**
+     * Returns the names of all {@code .proto} entries in the specified jar.
+     * The jar is only opened if it is not in the index yet, or if it has changed since it was indexed.
+     *
+     * @param jarFile a jar file.
+     * @return a list of entry names, which is empty if the jar does not contain protobuf definitions.
+     * @throws IOException if the jar needs to be scanned and cannot be read.
+     */
+    ImmutableList<String> getProtoEntries(final File jarFile) throws IOException {
+        final String path = jarFile.getAbsolutePath();
+        final long length = jarFile.length();
+        final long lastModified = jarFile.lastModified();
+        final Entry cachedEntry = entries.get(path);
+        if (cachedEntry != null && cachedEntry.length == length && cachedEntry.lastModified == lastModified) {
+            return cachedEntry.protoEntries;
+        }
+        final ImmutableList<String> protoEntries = scan(jarFile);
+        entries.put(path, new Entry(length, lastModified, protoEntries));
+        modified = true;
+        return protoEntries;
+    }
+
+    /**
+     * Lists {@code .proto} entries using the zip central directory.
+     */
+    private static ImmutableList<String> scan(final File jarFile) throws IOException {
+        final ImmutableList.Builder<String> protoEntries = ImmutableList.builder();
+        final ZipFile zipFile = new ZipFile(jarFile);
+        try {
+            final Enumeration<? extends ZipEntry> zipEntries = zipFile.entries();
+            while (zipEntries.hasMoreElements()) {
+                final ZipEntry zipEntry = zipEntries.nextElement();
+                if (!zipEntry.isDirectory() && zipEntry.getName().endsWith(PROTO_FILE_SUFFIX)) {
+                    protoEntries.add(zipEntry.getName());
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+        return protoEntries.build();
+    }
+
+    /**
+     * Extracts the specified entries from a jar file into a target directory, preserving their relative paths.
+     *
+     * @param jarFile a jar file.
+     * @param entryNames names of entries to extract.
+     * @param targetDirectory the root directory for extracted files.
+     * @throws IOException if the jar cannot be read or the files cannot be written.
+     */
+    static void extract(final File jarFile, final Iterable<String> entryNames, final File targetDirectory)
+            throws IOException {
+        final ZipFile zipFile = new ZipFile(jarFile);
+        try {
+            for (final String entryName : entryNames) {
+                final ZipEntry zipEntry = zipFile.getEntry(entryName);
+                if (zipEntry == null) {
+                    throw new IOException("Entry " + entryName + " not found in " + jarFile);
+                }
+                final File uncompressedCopy = new File(targetDirectory, entryName);
+                mkdirs(uncompressedCopy.getParentFile());
+                final InputStream in = zipFile.getInputStream(zipEntry);
+                try {
+                    Files.asByteSink(uncompressedCopy).writeFrom(in);
+                } finally {
+                    in.close();
+                }
+            }
+        } finally {
+            zipFile.close();
+        }
+    }
+
+    /**
+     * Creates a directory with all its parents, tolerating concurrent creation by other threads.
+     */
+    private static void mkdirs(final File directory) throws IOException {
+        if (!directory.isDirectory() && !directory.mkdirs() && !directory.isDirectory()) {
+            throw new IOException("Unable to create directory " + directory);
+        }
+    }
+
+    /**
+     * An index record for a single jar.
+     */
+    private static final class Entry {
+
+        private final long length;
+
+        private final long lastModified;
+
+        private final ImmutableList<String> protoEntries;
+
+        Entry(final long length, final long lastModified, final ImmutableList<String> protoEntries) {
+            this.length = length;
+            this.lastModified = lastModified;
+            this.protoEntries = protoEntries;
+        }
+    }
+}
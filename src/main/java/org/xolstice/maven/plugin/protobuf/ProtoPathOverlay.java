@@ -0,0 +1,133 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.ZipEntry;
+import java.util.zip.ZipFile;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Merges protobuf definitions from several dependency elements into a single directory tree,
+ * so that {@code protoc} can be given a single import root for all dependencies.
+ *
+ * <p>Elements are processed in classpath order, and the first element that provides a definition wins,
+ * which matches the way {@code protoc} resolves imports from multiple import roots.
+ * A definition that is provided by several elements with identical content is stored once.
+ * A definition that is provided with different content is reported, naming the winning element.</p>
+ *
+ * @since 0.5.1
+ */
+final class ProtoPathOverlay {
+
+    private final File overlayDirectory;
+
+    private final Log log;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param overlayDirectory the root directory of the merged tree.
+     * @param log a logger for diagnostic output.
+     */
+    ProtoPathOverlay(final File overlayDirectory, final Log log) {
+        this.overlayDirectory = checkNotNull(overlayDirectory, "overlayDirectory");
+        this.log = checkNotNull(log, "log");
+    }
+
+    /**
+     * Builds the merged tree, replacing any previous content of the overlay directory.
+     *
+     * @param elements dependency classpath elements, either jar files or directories.
+     * @param elementEntries for each element, the relative names of proto definitions in it.
+     * @param neededElements indexes of elements to include into the merged tree.
+     * @return the root directory of the merged tree.
+     * @throws IOException if one of the elements cannot be read or the tree cannot be written.
+     */
+    File build(final List<File> elements, final List<? extends List<String>> elementEntries,
+               final BitSet neededElements) throws IOException {
+        if (overlayDirectory.exists()) {
+            FileUtils.deleteDirectory(overlayDirectory);
+        }
+        FileUtils.forceMkdir(overlayDirectory);
+
+        final Map<String, File> owners = new HashMap<String, File>();
+        int duplicates = 0;
+        int conflicts = 0;
+        for (int i = neededElements.nextSetBit(0); i >= 0; i = neededElements.nextSetBit(i + 1)) {
+            final File element = elements.get(i);
+            final ZipFile zipFile = element.isDirectory() ? null : new ZipFile(element);
+            try {
+                for (final String entryName : elementEntries.get(i)) {
+                    final byte[] content = read(element, zipFile, entryName);
+                    final File target = new File(overlayDirectory, entryName);
+                    final File owner = owners.get(entryName);
+                    if (owner == null) {
+                        FileUtils.forceMkdir(target.getParentFile());
+                        Files.write(content, target);
+                        owners.put(entryName, element);
+                    } else if (Arrays.equals(content, Files.toByteArray(target))) {
+                        duplicates++;
+                    } else {
+                        conflicts++;
+                        log.warn("Conflicting definitions of " + entryName + " in dependencies: using "
+                                + owner.getName() + ", ignoring " + element.getName());
+                    }
+                }
+            } finally {
+                if (zipFile != null) {
+                    zipFile.close();
+                }
+            }
+        }
+        if (log.isDebugEnabled()) {
+            log.debug("Merged " + owners.size() + " proto file(s) into " + overlayDirectory
+                    + ", skipped " + duplicates + " identical duplicate(s) and " + conflicts + " conflict(s)");
+        }
+        return overlayDirectory;
+    }
+
+    private static byte[] read(final File element, final ZipFile zipFile, final String entryName)
+            throws IOException {
+        if (zipFile == null) {
+            return Files.toByteArray(new File(element, entryName));
+        }
+        final ZipEntry zipEntry = zipFile.getEntry(entryName);
+        if (zipEntry == null) {
+            throw new IOException("Entry " + entryName + " not found in " + element);
+        }
+        final InputStream in = zipFile.getInputStream(zipEntry);
+        try {
+            return ByteStreams.toByteArray(in);
+        } finally {
+            in.close();
+        }
+    }
+}
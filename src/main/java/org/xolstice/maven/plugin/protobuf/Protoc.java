@@ -21,14 +21,14 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import org.apache.maven.plugin.logging.Log;
 import org.codehaus.plexus.util.cli.CommandLineException;
-import org.codehaus.plexus.util.cli.CommandLineUtils;
-import org.codehaus.plexus.util.cli.CommandLineUtils.StringStreamConsumer;
-import org.codehaus.plexus.util.cli.Commandline;
 
 import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
 import java.util.LinkedHashSet;
 import java.util.List;
 import java.util.Set;
+import java.util.concurrent.TimeoutException;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -37,7 +37,7 @@ import static com.google.common.collect.Lists.newLinkedList;
 
 /**
  * This class represents an invokable configuration of the {@code protoc} compiler.
- * The actual executable is invoked using the plexus {@link Commandline}.
+ * The actual executable is invoked by a {@link ProtocLauncher}.
  */
 final class Protoc {
 
@@ -46,6 +46,10 @@ final class Protoc {
      */
     private static final String LOG_PREFIX = "[PROTOC] ";
 
+    private static final String JAVA_GENERATOR_ID = "java";
+
+    private static final int DEFAULT_MAX_OUTPUT_LINES = 200;
+
     /**
      * Path to the {@code protoc} executable.
      */
@@ -56,6 +60,11 @@ final class Protoc {
      */
     private final ImmutableSet<File> protoPathElements;
 
+    /**
+     * A set of descriptor set files in which to search for definition imports.
+     */
+    private final ImmutableSet<File> descriptorSetInputFiles;
+
     /**
      * A set of protobuf definitions to process.
      */
@@ -96,6 +105,11 @@ final class Protoc {
      */
     private final File customOutputDirectory;
 
+    /**
+     * Additional code generators, each with its own output directory.
+     */
+    private final ImmutableList<Generator> generators;
+
     private final File descriptorSetFile;
 
     private final boolean includeImportsInDescriptorSet;
@@ -103,26 +117,43 @@ final class Protoc {
     private final boolean includeSourceInfoInDescriptorSet;
 
     /**
-     * A buffer to consume standard output from the {@code protoc} executable.
+     * If {@code true}, arguments are passed to {@code protoc} in an argument file.
+     */
+    private final boolean useArgumentFile;
+
+    /**
+     * The maximum time a {@code protoc} process may take, or {@code 0} to wait indefinitely.
+     */
+    private final long timeoutMillis;
+
+    /**
+     * The maximum number of lines of each output stream retained for logging.
+     */
+    private final int maxOutputLines;
+
+    /**
+     * A bounded buffer to consume standard output from the {@code protoc} executable.
      */
-    private final StringStreamConsumer output;
+    private final ProtocDiagnostics output;
 
     /**
-     * A buffer to consume error output from the {@code protoc} executable.
+     * A bounded buffer to consume error output from the {@code protoc} executable, which parses diagnostics.
      */
-    private final StringStreamConsumer error;
+    private final ProtocDiagnostics error;
 
     /**
      * Constructs a new instance. This should only be used by the {@link Builder}.
      *
      * @param executable path to the {@code protoc} executable.
      * @param protoPath a set of directories in which to search for definition imports.
+     * @param descriptorSetInputFiles a set of descriptor set files in which to search for definition imports.
      * @param protoFiles a set of protobuf definitions to process.
      * @param javaOutputDirectory a directory into which Java source files will be generated.
      * @param javaNanoOutputDirectory a directory into which JavaNano source files will be generated.
      * @param cppOutputDirectory a directory into which C++ source files will be generated.
      * @param pythonOutputDirectory a directory into which Python source files will be generated.
      * @param customOutputDirectory a directory into which a custom protoc plugin will generate files.
+     * @param generators additional code generators, built-in or native plugins.
      * @param descriptorSetFile The directory into which a descriptor set will be generated;
      *                          if {@code null}, no descriptor set will be written
      * @param includeImportsInDescriptorSet If {@code true}, dependencies will be included in the descriptor set.
@@ -133,16 +164,21 @@ final class Protoc {
      * @param nativePluginId a unique id of a native plugin.
      * @param nativePluginExecutable path to the native plugin executable.
      * @param nativePluginParameter an optional parameter for a native plugin.
+     * @param useArgumentFile if {@code true}, arguments are passed to {@code protoc} in an argument file.
+     * @param timeoutMillis the maximum time a {@code protoc} process may take, or {@code 0} to wait indefinitely.
+     * @param maxOutputLines the maximum number of lines of each output stream retained for logging.
      */
     private Protoc(
             final String executable,
             final ImmutableSet<File> protoPath,
+            final ImmutableSet<File> descriptorSetInputFiles,
             final ImmutableSet<File> protoFiles,
             final File javaOutputDirectory,
             final File javaNanoOutputDirectory,
             final File cppOutputDirectory,
             final File pythonOutputDirectory,
             final File customOutputDirectory,
+            final ImmutableList<Generator> generators,
             final File descriptorSetFile,
             final boolean includeImportsInDescriptorSet,
             final boolean includeSourceInfoInDescriptorSet,
@@ -150,15 +186,20 @@ final class Protoc {
             final File pluginDirectory,
             final String nativePluginId,
             final String nativePluginExecutable,
-            final String nativePluginParameter) {
+            final String nativePluginParameter,
+            final boolean useArgumentFile,
+            final long timeoutMillis,
+            final int maxOutputLines) {
         this.executable = checkNotNull(executable, "executable");
         this.protoPathElements = checkNotNull(protoPath, "protoPath");
+        this.descriptorSetInputFiles = checkNotNull(descriptorSetInputFiles, "descriptorSetInputFiles");
         this.protoFiles = checkNotNull(protoFiles, "protoFiles");
         this.javaOutputDirectory = javaOutputDirectory;
         this.javaNanoOutputDirectory = javaNanoOutputDirectory;
         this.cppOutputDirectory = cppOutputDirectory;
         this.pythonOutputDirectory = pythonOutputDirectory;
         this.customOutputDirectory = customOutputDirectory;
+        this.generators = checkNotNull(generators, "generators");
         this.descriptorSetFile = descriptorSetFile;
         this.includeImportsInDescriptorSet = includeImportsInDescriptorSet;
         this.includeSourceInfoInDescriptorSet = includeSourceInfoInDescriptorSet;
@@ -167,21 +208,39 @@ final class Protoc {
         this.nativePluginId = nativePluginId;
         this.nativePluginExecutable = nativePluginExecutable;
         this.nativePluginParameter = nativePluginParameter;
-        this.error = new StringStreamConsumer();
-        this.output = new StringStreamConsumer();
+        this.useArgumentFile = useArgumentFile;
+        this.timeoutMillis = timeoutMillis;
+        this.maxOutputLines = maxOutputLines;
+        this.error = new ProtocDiagnostics(maxOutputLines);
+        this.output = new ProtocDiagnostics(maxOutputLines);
     }
 
     /**
      * Invokes the {@code protoc} compiler using the configuration specified at construction.
+     * When arguments are passed in an argument file, the compiler runs in the first element of the proto path,
+     * so that definitions inside it are passed by their relative paths; all other paths are then passed
+     * as absolute paths. Otherwise the working directory is inherited and the command is unchanged.
      *
      * @return The exit status of {@code protoc}.
-     * @throws CommandLineException if command line environment cannot be set up.
+     * @throws CommandLineException if the process cannot be started or has not completed in time.
+     * @throws InterruptedException if the current thread has been interrupted while waiting for the process.
      */
-    public int execute() throws CommandLineException {
-        final Commandline cl = new Commandline();
-        cl.setExecutable(executable);
-        cl.addArguments(buildProtocCommand().toArray(new String[] {}));
-        return CommandLineUtils.executeCommandLine(cl, null, output, error);
+    public int execute() throws CommandLineException, InterruptedException {
+        final File workingDirectory =
+                useArgumentFile && !protoPathElements.isEmpty() ? protoPathElements.iterator().next() : null;
+        final ProtocLauncher launcher = new ProtocLauncher(
+                executablePath(executable, workingDirectory),
+                workingDirectory,
+                buildProtocCommand(workingDirectory),
+                useArgumentFile,
+                timeoutMillis);
+        try {
+            return launcher.launch(output, error);
+        } catch (IOException e) {
+            throw new CommandLineException("Unable to run protoc: " + e.getMessage(), e);
+        } catch (TimeoutException e) {
+            throw new CommandLineException("protoc has been terminated: " + e.getMessage(), e);
+        }
     }
 
     /**
@@ -192,19 +251,35 @@ final class Protoc {
      * @return A list consisting of the executable followed by any arguments.
      */
     public ImmutableList<String> buildProtocCommand() {
+        return buildProtocCommand(null);
+    }
+
+    /**
+     * Creates the command line arguments, with definitions inside a base directory given by relative paths.
+     *
+     * @param baseDirectory the working directory of {@code protoc}, which must be an element of the proto path,
+     *                      or {@code null} to use absolute paths only.
+     * @return the arguments.
+     */
+    private ImmutableList<String> buildProtocCommand(final File baseDirectory) {
         final List<String> command = newLinkedList();
-        // add the executable
+        final String basePath = baseDirectory != null ? baseDirectory.getAbsolutePath() + File.separator : null;
         for (final File protoPathElement : protoPathElements) {
-            command.add("--proto_path=" + protoPathElement);
+            command.add("--proto_path="
+                    + (protoPathElement.equals(baseDirectory) ? "." : path(protoPathElement, baseDirectory)));
+        }
+        if (!descriptorSetInputFiles.isEmpty()) {
+            command.add("--descriptor_set_in=" + Joiner.on(File.pathSeparatorChar).join(
+                    paths(descriptorSetInputFiles, baseDirectory)));
         }
         if (javaOutputDirectory != null) {
-            command.add("--java_out=" + javaOutputDirectory);
+            command.add("--java_out=" + path(javaOutputDirectory, baseDirectory));
 
             // For now we assume all custom plugins produce Java output
             for (final ProtocPlugin plugin : plugins) {
                 final File pluginExecutable = plugin.getPluginExecutableFile(pluginDirectory);
-                command.add("--plugin=protoc-gen-" + plugin.getId() + '=' + pluginExecutable);
-                command.add("--" + plugin.getId() + "_out=" + javaOutputDirectory);
+                command.add("--plugin=protoc-gen-" + plugin.getId() + '=' + path(pluginExecutable, baseDirectory));
+                command.add("--" + plugin.getId() + "_out=" + path(javaOutputDirectory, baseDirectory));
             }
         }
         if (javaNanoOutputDirectory != null) {
@@ -212,32 +287,59 @@ final class Protoc {
             if (nativePluginParameter != null) {
                 outputOption += nativePluginParameter + ':';
             }
-            outputOption += javaNanoOutputDirectory;
+            outputOption += path(javaNanoOutputDirectory, baseDirectory);
             command.add(outputOption);
         }
         if (cppOutputDirectory != null) {
-            command.add("--cpp_out=" + cppOutputDirectory);
+            command.add("--cpp_out=" + path(cppOutputDirectory, baseDirectory));
         }
         if (pythonOutputDirectory != null) {
-            command.add("--python_out=" + pythonOutputDirectory);
+            command.add("--python_out=" + path(pythonOutputDirectory, baseDirectory));
         }
         if (customOutputDirectory != null) {
             if (nativePluginExecutable != null) {
-                command.add("--plugin=protoc-gen-" + nativePluginId + '=' + nativePluginExecutable);
+                command.add("--plugin=protoc-gen-" + nativePluginId + '='
+                        + executablePath(nativePluginExecutable, baseDirectory));
             }
 
             String outputOption = "--" + nativePluginId + "_out=";
             if (nativePluginParameter != null) {
                 outputOption += nativePluginParameter + ':';
             }
-            outputOption += customOutputDirectory;
+            outputOption += path(customOutputDirectory, baseDirectory);
             command.add(outputOption);
         }
+        for (final Generator generator : generators) {
+            if (generator.executable != null) {
+                command.add("--plugin=protoc-gen-" + generator.id + '='
+                        + executablePath(generator.executable, baseDirectory));
+            }
+            String outputOption = "--" + generator.id + "_out=";
+            if (generator.parameter != null) {
+                outputOption += generator.parameter + ':';
+            }
+            outputOption += path(generator.outputDirectory, baseDirectory);
+            command.add(outputOption);
+
+            // Java plugins generate into the Java output directory
+            if (javaOutputDirectory == null && JAVA_GENERATOR_ID.equals(generator.id)) {
+                for (final ProtocPlugin plugin : plugins) {
+                    final File pluginExecutable = plugin.getPluginExecutableFile(pluginDirectory);
+                    command.add("--plugin=protoc-gen-" + plugin.getId() + '=' + path(pluginExecutable, baseDirectory));
+                    command.add("--" + plugin.getId() + "_out=" + path(generator.outputDirectory, baseDirectory));
+                }
+            }
+        }
         for (final File protoFile : protoFiles) {
-            command.add(protoFile.toString());
+            final String protoFilePath = protoFile.getAbsolutePath();
+            if (basePath != null && protoFilePath.startsWith(basePath)) {
+                command.add(protoFilePath.substring(basePath.length()));
+            } else {
+                command.add(path(protoFile, baseDirectory));
+            }
         }
         if (descriptorSetFile != null) {
-            command.add("--descriptor_set_out=" + descriptorSetFile);
+            command.add("--descriptor_set_out=" + path(descriptorSetFile, baseDirectory));
             if (includeImportsInDescriptorSet) {
                 command.add("--include_imports");
             }
@@ -248,6 +350,41 @@ final class Protoc {
         return ImmutableList.copyOf(command);
     }
 
+    /**
+     * Returns the path of a file as an argument of {@code protoc}.
+     * Once {@code protoc} runs in a base directory, relative paths would no longer resolve as configured.
+     *
+     * @param file a file.
+     * @param baseDirectory the working directory of {@code protoc}, or {@code null} if it is inherited.
+     * @return the path of the file.
+     */
+    private static String path(final File file, final File baseDirectory) {
+        return baseDirectory != null ? file.getAbsolutePath() : file.toString();
+    }
+
+    private static List<String> paths(final Iterable<File> files, final File baseDirectory) {
+        final List<String> paths = newLinkedList();
+        for (final File file : files) {
+            paths.add(path(file, baseDirectory));
+        }
+        return paths;
+    }
+
+    /**
+     * Returns the path of an executable as an argument of {@code protoc}, or to launch it.
+     * Bare names are left unchanged, so that they are still looked up in {@code PATH}.
+     *
+     * @param executable a path to an executable, or its name.
+     * @param baseDirectory the working directory of {@code protoc}, or {@code null} if it is inherited.
+     * @return the path of the executable.
+     */
+    private static String executablePath(final String executable, final File baseDirectory) {
+        if (baseDirectory == null || executable.indexOf('/') < 0 && executable.indexOf(File.separatorChar) < 0) {
+            return executable;
+        }
+        return new File(executable).getAbsolutePath();
+    }
+
     /**
      * Logs execution parameters on debug level to the specified logger.
      * All log messages will be prefixed with "{@value #LOG_PREFIX}".
@@ -266,6 +403,13 @@ final class Protoc {
                 }
             }
 
+            if (!descriptorSetInputFiles.isEmpty()) {
+                log.debug(LOG_PREFIX + "Protobuf import descriptor sets:");
+                for (final File descriptorSetInputFile : descriptorSetInputFiles) {
+                    log.debug(LOG_PREFIX + ' ' + descriptorSetInputFile);
+                }
+            }
+
             if (javaOutputDirectory != null) {
                 log.debug(LOG_PREFIX + "Java output directory:");
                 log.debug(LOG_PREFIX + ' ' + javaOutputDirectory);
@@ -295,6 +439,10 @@ final class Protoc {
                 log.debug(LOG_PREFIX + "Python output directory:");
                 log.debug(LOG_PREFIX + ' ' + pythonOutputDirectory);
             }
+            for (final Generator generator : generators) {
+                log.debug(LOG_PREFIX + "Output directory of '" + generator.id + "' generator:");
+                log.debug(LOG_PREFIX + ' ' + generator.outputDirectory);
+            }
 
             if (descriptorSetFile != null) {
                 log.debug(LOG_PREFIX + "Descriptor set output file:");
@@ -320,14 +468,255 @@ final class Protoc {
      * @return the output
      */
     public String getOutput() {
-        return output.getOutput();
+        return output.getText();
     }
 
     /**
      * @return the error
      */
     public String getError() {
-        return error.getOutput();
+        return error.getText();
+    }
+
+    /**
+     * Returns the diagnostics parsed from the error output, together with their counts.
+     *
+     * @return the consumer of the error output.
+     *
+     * @since 0.5.1
+     */
+    ProtocDiagnostics getDiagnostics() {
+        return error;
+    }
+
+    /**
+     * Finds the definition that a diagnostic refers to.
+     * Relative names are resolved against the elements of the proto path, the first of which is
+     * the working directory of {@code protoc} when arguments are passed in an argument file.
+     *
+     * @param fileName the name of a definition, as reported by {@code protoc}.
+     * @return the definition file, or {@code null} if it is not found, for example because it is
+     *         only contained in a descriptor set.
+     *
+     * @since 0.5.1
+     */
+    File resolveDefinition(final String fileName) {
+        final File file = new File(fileName);
+        if (file.isAbsolute()) {
+            return file.isFile() ? file : null;
+        }
+        for (final File protoPathElement : protoPathElements) {
+            final File candidate = new File(protoPathElement, fileName);
+            if (candidate.isFile()) {
+                return candidate;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Returns the executables of native plugins run by this invocation.
+     *
+     * @return paths to executables, which is empty if there are none.
+     *
+     * @since 0.5.1
+     */
+    ImmutableList<String> getNativePluginExecutables() {
+        final ImmutableList.Builder<String> executables = ImmutableList.builder();
+        if (customOutputDirectory != null && nativePluginExecutable != null) {
+            executables.add(nativePluginExecutable);
+        }
+        for (final Generator generator : generators) {
+            if (generator.executable != null) {
+                executables.add(generator.executable);
+            }
+        }
+        return executables.build();
+    }
+
+    /**
+     * Returns the Java plugins run by this invocation.
+     *
+     * @return a set of Java plugins, which is empty if there are none.
+     *
+     * @since 0.5.1
+     */
+    ImmutableSet<ProtocPlugin> getPlugins() {
+        return plugins;
+    }
+
+    /**
+     * Returns the directory into which Java plugins generate files.
+     *
+     * @return the Java output directory, or {@code null} if this invocation does not run Java plugins.
+     *
+     * @since 0.5.1
+     */
+    File getPluginOutputDirectory() {
+        if (plugins.isEmpty()) {
+            return null;
+        }
+        if (javaOutputDirectory != null) {
+            return javaOutputDirectory;
+        }
+        for (final Generator generator : generators) {
+            if (JAVA_GENERATOR_ID.equals(generator.id)) {
+                return generator.outputDirectory;
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Creates an invocation that runs the same generators for the same definitions, except for Java plugins.
+     *
+     * @return a new instance.
+     *
+     * @since 0.5.1
+     */
+    Protoc withoutPlugins() {
+        return new Protoc(
+                executable,
+                protoPathElements,
+                descriptorSetInputFiles,
+                protoFiles,
+                javaOutputDirectory,
+                javaNanoOutputDirectory,
+                cppOutputDirectory,
+                pythonOutputDirectory,
+                customOutputDirectory,
+                generators,
+                descriptorSetFile,
+                includeImportsInDescriptorSet,
+                includeSourceInfoInDescriptorSet,
+                ImmutableSet.<ProtocPlugin>of(),
+                pluginDirectory,
+                nativePluginId,
+                nativePluginExecutable,
+                nativePluginParameter,
+                useArgumentFile,
+                timeoutMillis,
+                maxOutputLines);
+    }
+
+    /**
+     * Creates an invocation that only runs one of the Java plugins of this invocation, for the same definitions.
+     *
+     * @param plugin one of the {@link #getPlugins() Java plugins}.
+     * @param outputDirectory the directory into which the plugin will generate files.
+     * @return a new instance.
+     *
+     * @since 0.5.1
+     */
+    Protoc forPlugin(final ProtocPlugin plugin, final File outputDirectory) {
+        checkArgument(plugins.contains(plugin), "Not a plugin of this invocation: %s", plugin);
+        checkNotNull(outputDirectory, "outputDirectory");
+        return new Protoc(
+                executable,
+                protoPathElements,
+                descriptorSetInputFiles,
+                protoFiles,
+                null,
+                null,
+                null,
+                null,
+                outputDirectory,
+                ImmutableList.<Generator>of(),
+                null,
+                false,
+                false,
+                ImmutableSet.<ProtocPlugin>of(),
+                pluginDirectory,
+                plugin.getId(),
+                plugin.getPluginExecutableFile(pluginDirectory).toString(),
+                null,
+                useArgumentFile,
+                timeoutMillis,
+                maxOutputLines);
+    }
+
+    /**
+     * Creates an invocation that generates nothing but a descriptor set of the same definitions,
+     * including imports and source information, from which requests to Java plugins are built
+     * when they run in process.
+     *
+     * @param descriptorSetFile the location of the descriptor set.
+     * @return a new instance.
+     *
+     * @since 0.5.1
+     */
+    Protoc forPluginRequest(final File descriptorSetFile) {
+        checkNotNull(descriptorSetFile, "descriptorSetFile");
+        return new Protoc(
+                executable,
+                protoPathElements,
+                descriptorSetInputFiles,
+                protoFiles,
+                null,
+                null,
+                null,
+                null,
+                null,
+                ImmutableList.<Generator>of(),
+                descriptorSetFile,
+                true,
+                true,
+                ImmutableSet.<ProtocPlugin>of(),
+                pluginDirectory,
+                null,
+                null,
+                null,
+                useArgumentFile,
+                timeoutMillis,
+                maxOutputLines);
+    }
+
+    /**
+     * Returns the names of the definitions processed by this invocation, as seen by {@code protoc}:
+     * relative to the first element of the proto path that contains them.
+     *
+     * @return names with {@code '/'} as a separator.
+     *
+     * @since 0.5.1
+     */
+    ImmutableList<String> getProtoFileNames() {
+        final ImmutableList.Builder<String> names = ImmutableList.builder();
+        for (final File protoFile : protoFiles) {
+            final String protoFilePath = protoFile.getAbsolutePath();
+            String name = protoFile.getName();
+            for (final File protoPathElement : protoPathElements) {
+                final String basePath = protoPathElement.getAbsolutePath() + File.separator;
+                if (protoFilePath.startsWith(basePath)) {
+                    name = protoFilePath.substring(basePath.length());
+                    break;
+                }
+            }
+            names.add(name.replace(File.separatorChar, '/'));
+        }
+        return names.build();
+    }
+
+    /**
+     * A code generator with its own output directory.
+     *
+     * @since 0.5.1
+     */
+    static final class Generator {
+
+        private final String id;
+
+        private final File outputDirectory;
+
+        private final String parameter;
+
+        private final String executable;
+
+        Generator(final String id, final File outputDirectory, final String parameter, final String executable) {
+            this.id = id;
+            this.outputDirectory = outputDirectory;
+            this.parameter = parameter;
+            this.executable = executable;
+        }
     }
 
     /**
@@ -342,10 +731,14 @@ final class Protoc {
 
         private final Set<File> protopathElements;
 
+        private final Set<File> descriptorSetInputFiles;
+
         private final Set<File> protoFiles;
 
         private final Set<ProtocPlugin> plugins;
 
+        private final List<Generator> generators;
+
         private File pluginDirectory;
 
         // TODO reorganise support for custom plugins
@@ -389,6 +782,12 @@ final class Protoc {
 
         private boolean includeSourceInfoInDescriptorSet;
 
+        private boolean useArgumentFile;
+
+        private long timeoutMillis;
+
+        private int maxOutputLines = DEFAULT_MAX_OUTPUT_LINES;
+
         /**
          * Constructs a new builder.
          *
@@ -399,7 +798,9 @@ final class Protoc {
             this.executable = checkNotNull(executable, "executable");
             this.protoFiles = new LinkedHashSet<File>();
             this.protopathElements = new LinkedHashSet<File>();
+            this.descriptorSetInputFiles = new LinkedHashSet<File>();
             this.plugins = new LinkedHashSet<ProtocPlugin>();
+            this.generators = new ArrayList<Generator>();
         }
 
         /**
@@ -538,6 +939,39 @@ final class Protoc {
             this.nativePluginExecutable = nativePluginExecutable;
         }
 
+        /**
+         * Adds a code generator with its own output directory.
+         * Several generators are run by a single {@code protoc} invocation, which parses definitions only once.
+         *
+         * @param id the id of a built-in generator, such as {@code java} or {@code cpp}, or of a native plugin.
+         * @param outputDirectory the directory into which the generator will generate files.
+         * @param parameter an optional parameter for the generator.
+         * @param executable an optional path to the executable of a native plugin;
+         *                   if {@code null}, {@code protoc} looks for a built-in generator or for
+         *                   {@code protoc-gen-<id>} on the system path.
+         * @return this builder instance.
+         * @throws NullPointerException if {@code id} or {@code outputDirectory} is {@code null}.
+         * @throws IllegalArgumentException if the parameter contains illegal characters,
+         *                                  or there is already a generator with the same id.
+         *
+         * @since 0.5.1
+         */
+        public Builder addGenerator(
+                final String id,
+                final File outputDirectory,
+                final String parameter,
+                final String executable) {
+            checkNotNull(id, "id");
+            checkNotNull(outputDirectory, "outputDirectory");
+            checkArgument(parameter == null || !parameter.contains(":"),
+                    "Parameter of '%s' generator contains illegal characters", id);
+            for (final Generator generator : generators) {
+                checkArgument(!generator.id.equals(id), "Duplicate generator id: %s", id);
+            }
+            generators.add(new Generator(id, outputDirectory, parameter, executable));
+            return this;
+        }
+
         public void setNativePluginParameter(final String nativePluginParameter) {
             checkNotNull(nativePluginParameter, "'nativePluginParameter' is null");
             checkArgument(!nativePluginParameter.contains(":"), "'nativePluginParameter' contains illegal characters");
@@ -615,6 +1049,79 @@ final class Protoc {
             return this;
         }
 
+        /**
+         * Adds a descriptor set file in which {@code protoc} will search for imported definitions.
+         * Definitions in descriptor sets are not parsed again, which requires {@code protoc} 3.1.0 or later.
+         *
+         * @param descriptorSetInputFile a binary {@code FileDescriptorSet} file.
+         * @return this builder instance.
+         * @throws NullPointerException If {@code descriptorSetInputFile} is {@code null}.
+         * @throws IllegalArgumentException If {@code descriptorSetInputFile} is not a file.
+         *
+         * @since 0.5.1
+         */
+        public Builder addDescriptorSetInputFile(final File descriptorSetInputFile) {
+            checkNotNull(descriptorSetInputFile);
+            checkArgument(descriptorSetInputFile.isFile());
+            descriptorSetInputFiles.add(descriptorSetInputFile);
+            return this;
+        }
+
+        /**
+         * Adds a number of descriptor set files in which {@code protoc} will search for imported definitions.
+         *
+         * @param descriptorSetInputFiles binary {@code FileDescriptorSet} files.
+         * @return this builder instance.
+         * @see #addDescriptorSetInputFile(File)
+         *
+         * @since 0.5.1
+         */
+        public Builder addDescriptorSetInputFiles(final Iterable<File> descriptorSetInputFiles) {
+            for (final File descriptorSetInputFile : descriptorSetInputFiles) {
+                addDescriptorSetInputFile(descriptorSetInputFile);
+            }
+            return this;
+        }
+
+        /**
+         * Sets whether arguments are passed to {@code protoc} in an argument file,
+         * which requires {@code protoc} 3.0.0 or later.
+         *
+         * @param useArgumentFile if {@code true}, an argument file is used.
+         * @return this builder instance.
+         */
+        public Builder setUseArgumentFile(final boolean useArgumentFile) {
+            this.useArgumentFile = useArgumentFile;
+            return this;
+        }
+
+        /**
+         * Sets the maximum time a {@code protoc} process may take before it is destroyed.
+         *
+         * @param timeoutMillis the timeout in milliseconds, or {@code 0} to wait indefinitely.
+         * @return this builder instance.
+         * @throws IllegalArgumentException if {@code timeoutMillis} is negative.
+         */
+        public Builder setTimeout(final long timeoutMillis) {
+            checkArgument(timeoutMillis >= 0, "'timeoutMillis' is negative");
+            this.timeoutMillis = timeoutMillis;
+            return this;
+        }
+
+        /**
+         * Sets the maximum number of lines of each {@code protoc} output stream retained for logging.
+         * Further lines are only counted.
+         *
+         * @param maxOutputLines the maximum number of lines.
+         * @return this builder instance.
+         * @throws IllegalArgumentException if {@code maxOutputLines} is negative.
+         */
+        public Builder setMaxOutputLines(final int maxOutputLines) {
+            checkArgument(maxOutputLines >= 0, "'maxOutputLines' is negative");
+            this.maxOutputLines = maxOutputLines;
+            return this;
+        }
+
         /**
          * Validates the internal state for consistency and completeness.
          */
@@ -624,10 +1131,11 @@ final class Protoc {
                             || javaNanoOutputDirectory != null
                             || cppOutputDirectory != null
                             || pythonOutputDirectory != null
-                            || customOutputDirectory != null,
+                            || customOutputDirectory != null
+                            || !generators.isEmpty(),
                     "At least one of these properties must be set: " +
                             "'javaOutputDirectory', 'javaNanoOutputDirectory', 'cppOutputDirectory', " +
-                            "'pythonOutputDirectory' or 'customOutputDirectory'");
+                            "'pythonOutputDirectory', 'customOutputDirectory' or 'generators'");
         }
 
         /**
@@ -641,12 +1149,14 @@ final class Protoc {
             return new Protoc(
                     executable,
                     ImmutableSet.copyOf(protopathElements),
+                    ImmutableSet.copyOf(descriptorSetInputFiles),
                     ImmutableSet.copyOf(protoFiles),
                     javaOutputDirectory,
                     javaNanoOutputDirectory,
                     cppOutputDirectory,
                     pythonOutputDirectory,
                     customOutputDirectory,
+                    ImmutableList.copyOf(generators),
                     descriptorSetFile,
                     includeImportsInDescriptorSet,
                     includeSourceInfoInDescriptorSet,
@@ -654,7 +1164,10 @@ final class Protoc {
                     pluginDirectory,
                     nativePluginId,
                     nativePluginExecutable,
-                    nativePluginParameter);
+                    nativePluginParameter,
+                    useArgumentFile,
+                    timeoutMillis,
+                    maxOutputLines);
         }
     }
 }
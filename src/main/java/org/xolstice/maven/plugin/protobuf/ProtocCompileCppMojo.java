@@ -53,7 +53,7 @@ public final class ProtocCompileCppMojo extends AbstractProtocCompileMojo {
     @Override
     protected void addProtocBuilderParameters(final Protoc.Builder protocBuilder) throws MojoExecutionException {
         super.addProtocBuilderParameters(protocBuilder);
-        protocBuilder.setCppOutputDirectory(getOutputDirectory());
+        protocBuilder.setCppOutputDirectory(getProtocOutputDirectory());
     }
 
     @Override
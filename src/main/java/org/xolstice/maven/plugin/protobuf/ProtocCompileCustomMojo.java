@@ -167,7 +167,7 @@ public final class ProtocCompileCustomMojo extends AbstractProtocCompileMojo {
         if (pluginParameter != null) {
             protocBuilder.setNativePluginParameter(pluginParameter);
         }
-        protocBuilder.setCustomOutputDirectory(getOutputDirectory());
+        protocBuilder.setCustomOutputDirectory(getProtocOutputDirectory());
     }
 
     @Override
@@ -66,7 +66,7 @@ public final class ProtocCompileJavaNanoMojo extends AbstractProtocCompileMojo {
         if (javaNanoOptions != null) {
             protocBuilder.setNativePluginParameter(javaNanoOptions);
         }
-        protocBuilder.setJavaNanoOutputDirectory(getOutputDirectory());
+        protocBuilder.setJavaNanoOutputDirectory(getProtocOutputDirectory());
     }
 
     @Override
@@ -51,7 +51,7 @@ public final class ProtocCompileMojo extends AbstractProtocCompileMojo {
     @Override
     protected void addProtocBuilderParameters(final Protoc.Builder protocBuilder) throws MojoExecutionException {
         super.addProtocBuilderParameters(protocBuilder);
-        protocBuilder.setJavaOutputDirectory(getOutputDirectory());
+        protocBuilder.setJavaOutputDirectory(getProtocOutputDirectory());
     }
 
     @Override
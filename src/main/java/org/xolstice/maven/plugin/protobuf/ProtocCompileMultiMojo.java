@@ -0,0 +1,88 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.maven.plugins.annotations.LifecyclePhase;
+import org.apache.maven.plugins.annotations.Mojo;
+import org.apache.maven.plugins.annotations.Parameter;
+import org.apache.maven.plugins.annotations.ResolutionScope;
+
+import java.io.File;
+import java.util.List;
+
+/**
+ * This mojo executes the {@code protoc} compiler once with several generators,
+ * for example {@code java}, {@code cpp}, {@code python} and native plugins,
+ * to generate main sources from protocol buffer definitions.
+ * Compared to running a separate goal for each generator, the definitions
+ * are only parsed once.
+ * It also searches dependency artifacts for {@code .proto} files and
+ * includes them in the {@code proto_path} so that they can be referenced.
+ * Finally, it adds the {@code .proto} files to the project as resources so
+ * that they are included in the final artifact.
+ *
+ * @since 0.5.1
+ */
+@Mojo(
+        name = "compile-multi",
+        defaultPhase = LifecyclePhase.GENERATE_SOURCES,
+        requiresDependencyResolution = ResolutionScope.COMPILE,
+        threadSafe = true
+)
+public final class ProtocCompileMultiMojo extends AbstractProtocCompileMojo {
+
+    /**
+     * This is the directory into which the generators' output directories will be created.
+     * Every generator writes into a subdirectory named after its id, unless it specifies an explicit
+     * output directory, which must be located inside this directory.
+     */
+    @Parameter(
+            required = true,
+            defaultValue = "${project.build.directory}/generated-sources/protobuf/multi"
+    )
+    private File outputDirectory;
+
+    /**
+     * The generators to run. Each generator is either built into {@code protoc},
+     * or is a native plugin with an executable or an artifact. For example:
+     * <pre>
+     * &lt;generators&gt;
+     *   &lt;generator&gt;
+     *     &lt;id&gt;java&lt;/id&gt;
+     *   &lt;/generator&gt;
+     *   &lt;generator&gt;
+     *     &lt;id&gt;grpc-java&lt;/id&gt;
+     *     &lt;artifact&gt;io.grpc:protoc-gen-grpc-java:1.0.1:exe:${os.detected.classifier}&lt;/artifact&gt;
+     *   &lt;/generator&gt;
+     * &lt;/generators&gt;
+     * </pre>
+     */
+    @Parameter(
+            required = true
+    )
+    private List<ProtocGenerator> generators;
+
+    @Override
+    protected List<ProtocGenerator> getProtocGenerators() {
+        return generators;
+    }
+
+    @Override
+    protected File getOutputDirectory() {
+        return outputDirectory;
+    }
+}
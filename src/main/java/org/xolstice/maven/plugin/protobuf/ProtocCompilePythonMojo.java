@@ -53,7 +53,7 @@ public final class ProtocCompilePythonMojo extends AbstractProtocCompileMojo {
     @Override
     protected void addProtocBuilderParameters(final Protoc.Builder protocBuilder) throws MojoExecutionException {
         super.addProtocBuilderParameters(protocBuilder);
-        protocBuilder.setPythonOutputDirectory(getOutputDirectory());
+        protocBuilder.setPythonOutputDirectory(getProtocOutputDirectory());
     }
 
     @Override
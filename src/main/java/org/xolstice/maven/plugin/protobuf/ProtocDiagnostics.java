@@ -0,0 +1,322 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Joiner;
+import com.google.common.collect.ImmutableList;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.StringUtils;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+import org.sonatype.plexus.build.incremental.BuildContext;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Collection;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static java.lang.String.format;
+
+/**
+ * Consumes an output stream of {@code protoc} line by line, parsing diagnostics
+ * in {@code file:line:column: message} and {@code file: message} formats.
+ *
+ * <p>Memory use is bounded: only the first lines of the output are retained for logging,
+ * and only the first diagnostics are retained for build markers; the rest are only counted.</p>
+ *
+ * <p>Once the processes have completed, their output is logged and their diagnostics are attached to
+ * the affected definitions by {@link #reportResults(List, List, Collection, BuildContext, Log)}.</p>
+ *
+ * @since 0.5.1
+ */
+final class ProtocDiagnostics implements StreamConsumer {
+
+    /**
+     * The maximum number of diagnostics retained for build markers.
+     */
+    private static final int MAX_DIAGNOSTICS = 1000;
+
+    private static final Pattern POSITIONED_DIAGNOSTIC = Pattern.compile("^(.+?\\.proto):(\\d+):(\\d+): (.*)$");
+
+    private static final Pattern FILE_DIAGNOSTIC = Pattern.compile("^(.+?\\.proto): (.*)$");
+
+    private static final String WARNING_PREFIX = "warning:";
+
+    private final int maxLines;
+
+    private final List<String> lines = new ArrayList<String>();
+
+    private final List<Diagnostic> diagnostics = new ArrayList<Diagnostic>();
+
+    private int omittedLines;
+
+    private int errorCount;
+
+    private int warningCount;
+
+    /**
+     * Constructs a new consumer.
+     *
+     * @param maxLines the maximum number of lines retained for logging.
+     */
+    ProtocDiagnostics(final int maxLines) {
+        checkArgument(maxLines >= 0, "Negative maximum number of lines: %s", maxLines);
+        this.maxLines = maxLines;
+    }
+
+    @Override
+    public synchronized void consumeLine(final String line) {
+        if (lines.size() < maxLines) {
+            lines.add(line);
+        } else {
+            omittedLines++;
+        }
+        final Diagnostic diagnostic = parse(line);
+        if (diagnostic != null) {
+            if (diagnostic.isWarning()) {
+                warningCount++;
+            } else {
+                errorCount++;
+            }
+            if (diagnostics.size() < MAX_DIAGNOSTICS) {
+                diagnostics.add(diagnostic);
+            }
+        }
+    }
+
+    /**
+     * Parses a single line of {@code protoc} output.
+     *
+     * @param line a line of output.
+     * @return a diagnostic, or {@code null} if the line is not a diagnostic for a definition.
+     */
+    static Diagnostic parse(final String line) {
+        final Matcher positioned = POSITIONED_DIAGNOSTIC.matcher(line);
+        if (positioned.matches()) {
+            try {
+                return new Diagnostic(
+                        positioned.group(1),
+                        Integer.parseInt(positioned.group(2)),
+                        Integer.parseInt(positioned.group(3)),
+                        positioned.group(4));
+            } catch (NumberFormatException e) {
+                // the position is out of range, fall through
+            }
+        }
+        final Matcher unpositioned = FILE_DIAGNOSTIC.matcher(line);
+        if (unpositioned.matches()) {
+            return new Diagnostic(unpositioned.group(1), 0, 0, unpositioned.group(2));
+        }
+        return null;
+    }
+
+    /**
+     * Returns the retained output, followed by a summary of omitted lines, if any.
+     *
+     * @return the output text, which is empty if there was no output.
+     */
+    synchronized String getText() {
+        final StringBuilder text = new StringBuilder();
+        for (final String line : lines) {
+            text.append(line).append('\n');
+        }
+        if (omittedLines > 0) {
+            text.append("... ").append(omittedLines).append(" more line(s) omitted\n");
+        }
+        return text.toString();
+    }
+
+    /**
+     * Returns the retained diagnostics, in the order of their appearance.
+     *
+     * @return a list of diagnostics.
+     */
+    synchronized ImmutableList<Diagnostic> getDiagnostics() {
+        return ImmutableList.copyOf(diagnostics);
+    }
+
+    /**
+     * Returns the number of error diagnostics, including those that have not been retained.
+     *
+     * @return the number of errors.
+     */
+    synchronized int getErrorCount() {
+        return errorCount;
+    }
+
+    /**
+     * Returns the number of warning diagnostics, including those that have not been retained.
+     *
+     * @return the number of warnings.
+     */
+    synchronized int getWarningCount() {
+        return warningCount;
+    }
+
+    /**
+     * Logs the output and diagnostics of all {@code protoc} processes.
+     *
+     * @param processes the processes that have been run.
+     * @param exitStatuses the exit status of each process.
+     * @param protoFiles all source definitions.
+     * @param buildContext the build context to attach diagnostics to.
+     * @param log the log to write the output to.
+     * @return {@code true} if all processes exited cleanly.
+     */
+    static boolean reportResults(
+            final List<Protoc> processes,
+            final List<Integer> exitStatuses,
+            final Collection<File> protoFiles,
+            final BuildContext buildContext,
+            final Log log) {
+        int exitStatus = 0;
+        final List<String> outputs = new ArrayList<String>();
+        final List<String> errors = new ArrayList<String>();
+        for (int i = 0; i < processes.size(); i++) {
+            if (exitStatus == 0) {
+                exitStatus = exitStatuses.get(i);
+            }
+            if (StringUtils.isNotBlank(processes.get(i).getOutput())) {
+                outputs.add(processes.get(i).getOutput());
+            }
+            if (StringUtils.isNotBlank(processes.get(i).getError())) {
+                errors.add(processes.get(i).getError());
+            }
+        }
+        final String protocOutput = Joiner.on('\n').join(outputs);
+        final String protocError = Joiner.on('\n').join(errors);
+        if (StringUtils.isNotBlank(protocOutput)) {
+            log.info("PROTOC: " + protocOutput);
+        }
+        reportDiagnostics(processes, protoFiles, buildContext, log);
+        if (exitStatus != 0) {
+            log.error("PROTOC FAILED: " + protocError);
+            return false;
+        } else if (StringUtils.isNotBlank(protocError)) {
+            log.warn("PROTOC: " + protocError);
+        }
+        return true;
+    }
+
+    /**
+     * Attaches diagnostics reported by {@code protoc} to the affected lines of definitions,
+     * replacing the messages of previous compilations.
+     * Identical diagnostics reported by several processes are only attached once.
+     *
+     * @param processes the completed {@code protoc} processes.
+     * @param protoFiles the source definitions, whose previous messages are removed.
+     * @param buildContext the build context to attach diagnostics to.
+     * @param log the log to write the summary to.
+     */
+    private static void reportDiagnostics(
+            final List<Protoc> processes,
+            final Collection<File> protoFiles,
+            final BuildContext buildContext,
+            final Log log) {
+        for (final File protoFile : protoFiles) {
+            buildContext.removeMessages(protoFile);
+        }
+        int errorCount = 0;
+        int warningCount = 0;
+        final Set<String> reportedDiagnostics = new HashSet<String>();
+        final Set<File> affectedFiles = new HashSet<File>();
+        for (final Protoc process : processes) {
+            final ProtocDiagnostics diagnostics = process.getDiagnostics();
+            errorCount += diagnostics.getErrorCount();
+            warningCount += diagnostics.getWarningCount();
+            for (final Diagnostic diagnostic : diagnostics.getDiagnostics()) {
+                final File file = process.resolveDefinition(diagnostic.getFileName());
+                if (file == null || !reportedDiagnostics.add(format("%s:%d:%d:%s",
+                        file, diagnostic.getLine(), diagnostic.getColumn(), diagnostic.getMessage()))) {
+                    continue;
+                }
+                affectedFiles.add(file);
+                buildContext.addMessage(
+                        file,
+                        diagnostic.getLine(),
+                        diagnostic.getColumn(),
+                        diagnostic.getMessage(),
+                        diagnostic.isWarning() ? BuildContext.SEVERITY_WARNING : BuildContext.SEVERITY_ERROR,
+                        null);
+            }
+        }
+        if (errorCount > 0 || warningCount > 0) {
+            log.info(format("protoc reported %d error(s) and %d warning(s) in %d file(s)",
+                    errorCount, warningCount, affectedFiles.size()));
+        }
+    }
+
+    /**
+     * A single diagnostic reported by {@code protoc} for a definition.
+     */
+    static final class Diagnostic {
+
+        private final String fileName;
+
+        private final int line;
+
+        private final int column;
+
+        private final String message;
+
+        Diagnostic(final String fileName, final int line, final int column, final String message) {
+            this.fileName = fileName;
+            this.line = line;
+            this.column = column;
+            this.message = message;
+        }
+
+        /**
+         * Returns the name of the definition, as reported by {@code protoc}.
+         *
+         * @return a path relative to the working directory or to an element of the proto path, or an absolute path.
+         */
+        String getFileName() {
+            return fileName;
+        }
+
+        /**
+         * Returns the line of the diagnostic.
+         *
+         * @return a line number starting with {@code 1}, or {@code 0} if the diagnostic applies to the whole file.
+         */
+        int getLine() {
+            return line;
+        }
+
+        /**
+         * Returns the column of the diagnostic.
+         *
+         * @return a column number starting with {@code 1}, or {@code 0} if there is no position.
+         */
+        int getColumn() {
+            return column;
+        }
+
+        String getMessage() {
+            return message;
+        }
+
+        boolean isWarning() {
+            return message.startsWith(WARNING_PREFIX);
+        }
+    }
+}
@@ -0,0 +1,102 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import java.io.File;
+
+/**
+ * Describes a code generator run by the {@code compile-multi} and {@code test-compile-multi} goals.
+ * A generator is either one of the generators built into {@code protoc}, such as {@code java},
+ * {@code cpp} or {@code python}, or a native plugin.
+ * The state is populated from the Maven plugin's configuration.
+ *
+ * @since 0.5.1
+ */
+public class ProtocGenerator {
+
+    private String id;
+
+    private File outputDirectory;
+
+    private String parameter;
+
+    private String executable;
+
+    private String artifact;
+
+    /**
+     * Returns the id of the generator, which is either the name of a built-in generator,
+     * or the unique id of a native plugin.
+     *
+     * @return the generator's id.
+     */
+    public String getId() {
+        return id;
+    }
+
+    /**
+     * Returns the directory into which the generator generates files.
+     * It must be located inside the output directory of the goal.
+     *
+     * @return the output directory, or {@code null} to use a subdirectory of the goal's output directory
+     *         named after the generator's id.
+     */
+    public File getOutputDirectory() {
+        return outputDirectory;
+    }
+
+    /**
+     * Returns an optional parameter to pass to the generator.
+     * It <b>cannot</b> contain colon (<tt>:</tt>) symbols.
+     *
+     * @return the generator's parameter.
+     */
+    public String getParameter() {
+        return parameter;
+    }
+
+    /**
+     * Returns an optional path to the executable of a native plugin.
+     *
+     * @return the plugin's executable.
+     */
+    public String getExecutable() {
+        return executable;
+    }
+
+    /**
+     * Returns an optional artifact specification of a native plugin,
+     * in {@code groupId:artifactId:version[:type[:classifier]]} format.
+     * The artifact is only resolved if no {@link #getExecutable() executable} is specified.
+     *
+     * @return the plugin's artifact specification.
+     */
+    public String getArtifact() {
+        return artifact;
+    }
+
+    @Override
+    public String toString() {
+        return "ProtocGenerator{" +
+                "id='" + id + '\'' +
+                ", outputDirectory=" + outputDirectory +
+                ", parameter='" + parameter + '\'' +
+                ", executable='" + executable + '\'' +
+                ", artifact='" + artifact + '\'' +
+                '}';
+    }
+}
@@ -0,0 +1,188 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Closeables;
+import org.codehaus.plexus.util.cli.StreamConsumer;
+import org.codehaus.plexus.util.cli.StreamPumper;
+
+import java.io.BufferedWriter;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStreamWriter;
+import java.io.Writer;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.TimeoutException;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Launches the {@code protoc} executable directly, without an intermediate shell.
+ *
+ * <p>Arguments can be passed in an argument file ({@code @file}), which avoids limits on the length of
+ * the command line when compiling many definitions. Each line of the file is a single argument,
+ * which requires {@code protoc} 3.0.0 or later.</p>
+ *
+ * <p>Java 6 can only destroy the {@code protoc} process itself when the timeout expires;
+ * plugin processes terminate when {@code protoc} closes their input and output.</p>
+ *
+ * @since 0.5.1
+ */
+final class ProtocLauncher {
+
+    /**
+     * The interval between checks of a running process, when there is a timeout.
+     */
+    private static final long POLL_INTERVAL_MILLIS = 20L;
+
+    private final String executable;
+
+    private final File workingDirectory;
+
+    private final ImmutableList<String> arguments;
+
+    private final boolean useArgumentFile;
+
+    private final long timeoutMillis;
+
+    /**
+     * Constructs a new launcher.
+     *
+     * @param executable path to the {@code protoc} executable.
+     * @param workingDirectory the working directory of the process, or {@code null} to inherit it.
+     * @param arguments the arguments, with relative paths resolved against the working directory.
+     * @param useArgumentFile if {@code true}, the arguments are passed in an argument file.
+     * @param timeoutMillis the maximum time the process may take, or {@code 0} to wait indefinitely.
+     */
+    ProtocLauncher(
+            final String executable,
+            final File workingDirectory,
+            final ImmutableList<String> arguments,
+            final boolean useArgumentFile,
+            final long timeoutMillis) {
+        this.executable = checkNotNull(executable, "executable");
+        this.workingDirectory = workingDirectory;
+        this.arguments = checkNotNull(arguments, "arguments");
+        this.useArgumentFile = useArgumentFile;
+        checkArgument(timeoutMillis >= 0, "Negative timeout: %s", timeoutMillis);
+        this.timeoutMillis = timeoutMillis;
+    }
+
+    /**
+     * Runs the process and waits for it to complete.
+     *
+     * @param output a consumer of the standard output of the process.
+     * @param error a consumer of the error output of the process.
+     * @return the exit status of the process.
+     * @throws IOException if the process cannot be started, or the argument file cannot be written.
+     * @throws InterruptedException if the current thread has been interrupted; the process is destroyed.
+     * @throws TimeoutException if the process has not completed in time; the process is destroyed.
+     */
+    int launch(final StreamConsumer output, final StreamConsumer error)
+            throws IOException, InterruptedException, TimeoutException {
+        final File argumentFile = useArgumentFile ? writeArgumentFile() : null;
+        try {
+            final List<String> command = new ArrayList<String>(arguments.size() + 1);
+            command.add(executable);
+            if (argumentFile != null) {
+                command.add("@" + argumentFile.getAbsolutePath());
+            } else {
+                command.addAll(arguments);
+            }
+            final Process process = new ProcessBuilder(command).directory(workingDirectory).start();
+            process.getOutputStream().close();
+            final StreamPumper outputPumper = new StreamPumper(process.getInputStream(), output);
+            final StreamPumper errorPumper = new StreamPumper(process.getErrorStream(), error);
+            // orphaned plugin processes may keep the streams open after protoc has been destroyed
+            outputPumper.setDaemon(true);
+            errorPumper.setDaemon(true);
+            outputPumper.start();
+            errorPumper.start();
+            boolean completed = false;
+            try {
+                final int exitStatus = waitFor(process);
+                outputPumper.waitUntilDone();
+                errorPumper.waitUntilDone();
+                completed = true;
+                return exitStatus;
+            } finally {
+                if (!completed) {
+                    process.destroy();
+                    Closeables.closeQuietly(process.getInputStream());
+                    Closeables.closeQuietly(process.getErrorStream());
+                }
+                outputPumper.close();
+                errorPumper.close();
+            }
+        } finally {
+            if (argumentFile != null) {
+                argumentFile.delete();
+            }
+        }
+    }
+
+    private int waitFor(final Process process) throws InterruptedException, TimeoutException {
+        if (timeoutMillis == 0) {
+            return process.waitFor();
+        }
+        final long deadline = System.currentTimeMillis() + timeoutMillis;
+        while (true) {
+            try {
+                return process.exitValue();
+            } catch (IllegalThreadStateException e) {
+                // still running
+            }
+            final long remainingMillis = deadline - System.currentTimeMillis();
+            if (remainingMillis <= 0) {
+                throw new TimeoutException("protoc did not complete within " + timeoutMillis + " ms");
+            }
+            Thread.sleep(Math.min(POLL_INTERVAL_MILLIS, remainingMillis));
+        }
+    }
+
+    private File writeArgumentFile() throws IOException {
+        final File argumentFile = File.createTempFile("protoc", ".args");
+        boolean written = false;
+        try {
+            // protoc reads the file as bytes and treats paths as UTF-8, independently of the platform charset
+            final Writer writer =
+                    new BufferedWriter(new OutputStreamWriter(new FileOutputStream(argumentFile), Charsets.UTF_8));
+            try {
+                for (final String argument : arguments) {
+                    if (argument.indexOf('\n') >= 0 || argument.indexOf('\r') >= 0) {
+                        throw new IOException("Argument cannot be passed in an argument file: " + argument);
+                    }
+                    writer.write(argument);
+                    writer.write('\n');
+                }
+            } finally {
+                writer.close();
+            }
+            written = true;
+            return argumentFile;
+        } finally {
+            if (!written) {
+                argumentFile.delete();
+            }
+        }
+    }
+}
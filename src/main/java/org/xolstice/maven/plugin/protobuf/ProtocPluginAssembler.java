@@ -120,6 +120,17 @@ public class ProtocPluginAssembler {
         }
     }
 
+    /**
+     * Returns the plugin's classpath, which is only available after the plugin has been built.
+     *
+     * @return resolved jars of the plugin and its dependencies.
+     *
+     * @since 0.5.1
+     */
+    public List<File> getResolvedJars() {
+        return Collections.unmodifiableList(resolvedJars);
+    }
+
     private void buildWindowsPlugin() throws MojoExecutionException {
         createPluginDirectory();
 
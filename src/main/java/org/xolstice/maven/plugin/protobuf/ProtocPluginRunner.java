@@ -0,0 +1,514 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.io.Closeables;
+import com.google.common.io.Files;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Modifier;
+import java.net.MalformedURLException;
+import java.net.URL;
+import java.net.URLClassLoader;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Runs a Java protoc plugin inside the current JVM, instead of in a new JVM started by {@code protoc}.
+ *
+ * <p>The plugin receives a {@code CodeGeneratorRequest} built from a descriptor set that includes imports
+ * and source information, and its {@code CodeGeneratorResponse} is written to the output directory
+ * the same way as {@code protoc} would, including insertion points.</p>
+ *
+ * <p>Each plugin classpath is loaded by its own class loader, which does not see the classes of Maven
+ * or of this plugin, and which is kept for later executions as long as the jars do not change.
+ * Only a few class loaders are kept; the least recently used ones, and those of jars that have changed,
+ * are closed, so that long-lived JVMs (such as build daemons and IDEs) do not accumulate them.
+ * As plugins communicate through {@code System.in} and {@code System.out}, plugins are run one at a time;
+ * output written by other threads in the meantime still goes to the console.
+ * Plugins that terminate the JVM with {@code System.exit} cannot be run in process.</p>
+ *
+ * @since 0.5.1
+ */
+final class ProtocPluginRunner {
+
+    private static final int FILE_TO_GENERATE_FIELD = 1;
+
+    private static final int PROTO_FILE_FIELD = 15;
+
+    private static final int DESCRIPTOR_SET_FILE_FIELD = 1;
+
+    private static final int RESPONSE_ERROR_FIELD = 1;
+
+    private static final int RESPONSE_FILE_FIELD = 15;
+
+    private static final int FILE_NAME_FIELD = 1;
+
+    private static final int FILE_INSERTION_POINT_FIELD = 2;
+
+    private static final int FILE_CONTENT_FIELD = 15;
+
+    private static final String INSERTION_POINT_PREFIX = "@@protoc_insertion_point(";
+
+    /**
+     * Guards the standard streams, which are redirected while a plugin runs.
+     */
+    private static final Object STANDARD_STREAMS_LOCK = new Object();
+
+    /**
+     * The standard output of plugins. Plugin classes are kept between runs, so the same stream is installed
+     * every time, in case a plugin keeps a reference to it.
+     */
+    private static final ThreadOutputStream PLUGIN_OUTPUT = new ThreadOutputStream();
+
+    private static final PrintStream PLUGIN_OUT = new PrintStream(PLUGIN_OUTPUT);
+
+    /**
+     * The maximum number of class loaders kept between runs.
+     */
+    private static final int MAX_CLASS_LOADERS = 8;
+
+    /**
+     * Class loaders of plugin classpaths, keyed by the paths of the jars, in the order of their last use.
+     * Guarded by {@link #STANDARD_STREAMS_LOCK}, so that a class loader is never closed while a plugin runs.
+     */
+    private static final Map<String, CachedClassLoader> CLASS_LOADERS =
+            new LinkedHashMap<String, CachedClassLoader>(16, 0.75f, true);
+
+    private final ProtocPlugin plugin;
+
+    private final List<File> classpath;
+
+    /**
+     * Constructs a new runner.
+     *
+     * @param plugin the plugin definition.
+     * @param classpath resolved jars of the plugin and its dependencies.
+     */
+    ProtocPluginRunner(final ProtocPlugin plugin, final List<File> classpath) {
+        this.plugin = checkNotNull(plugin, "plugin");
+        this.classpath = ImmutableList.copyOf(classpath);
+    }
+
+    /**
+     * Replaces the Java plugins of {@code protoc} invocations with additional invocations that produce
+     * descriptor sets, from which requests to the plugins are built when they run in process.
+     *
+     * @param invocations the invocations that compile the definitions.
+     * @param requestDirectory the directory into which descriptor sets are written.
+     * @param requestFiles receives, for each invocation, the descriptor set of its plugin request,
+     *                     or {@code null} if the invocation does not run Java plugins.
+     * @return the {@code protoc} processes to run.
+     * @throws IOException if the directory of descriptor sets cannot be created.
+     */
+    static List<Protoc> addRequestInvocations(
+            final List<Protoc> invocations,
+            final File requestDirectory,
+            final List<File> requestFiles)
+            throws IOException {
+        FileUtils.forceMkdir(requestDirectory);
+        final List<Protoc> processes = new ArrayList<Protoc>();
+        for (int i = 0; i < invocations.size(); i++) {
+            final Protoc invocation = invocations.get(i);
+            if (invocation.getPluginOutputDirectory() == null) {
+                processes.add(invocation);
+                requestFiles.add(null);
+                continue;
+            }
+            final File requestFile = new File(requestDirectory, i + ".pb");
+            processes.add(invocation.withoutPlugins());
+            processes.add(invocation.forPluginRequest(requestFile));
+            requestFiles.add(requestFile);
+        }
+        return processes;
+    }
+
+    /**
+     * Runs the Java plugins of {@code protoc} invocations, stopping at the first plugin that reports an error.
+     *
+     * @param invocations the invocations that compile the definitions.
+     * @param requestFiles for each invocation, the descriptor set produced for its plugin request,
+     *                     or {@code null} if the invocation does not run Java plugins.
+     * @param classpaths resolved jars of each plugin.
+     * @param log the log to report ignored settings and plugin errors to.
+     * @return the plugin that has reported an error, or {@code null} if all plugins have succeeded.
+     * @throws IOException if a request cannot be built, a plugin cannot be run, or a file cannot be written.
+     */
+    static ProtocPlugin runAll(
+            final List<Protoc> invocations,
+            final List<File> requestFiles,
+            final Map<ProtocPlugin, List<File>> classpaths,
+            final Log log)
+            throws IOException {
+        for (int i = 0; i < invocations.size(); i++) {
+            final File requestFile = requestFiles.get(i);
+            if (requestFile == null) {
+                continue;
+            }
+            final Protoc invocation = invocations.get(i);
+            final byte[] request;
+            try {
+                request = buildRequest(requestFile, invocation.getProtoFileNames());
+            } finally {
+                requestFile.delete();
+            }
+            for (final ProtocPlugin plugin : invocation.getPlugins()) {
+                if (!plugin.getJvmArgs().isEmpty()) {
+                    log.warn("Ignoring JVM arguments of protoc plugin " + plugin.getId()
+                            + ", which runs in process");
+                }
+                final String error = new ProtocPluginRunner(plugin, classpaths.get(plugin))
+                        .generate(request, invocation.getPluginOutputDirectory());
+                if (error != null) {
+                    log.error(plugin.getPluginName() + ": " + error);
+                    return plugin;
+                }
+            }
+        }
+        return null;
+    }
+
+    /**
+     * Removes the descriptor sets produced for plugin requests,
+     * which are left behind if {@code protoc} or a plugin has failed.
+     *
+     * @param requestFiles the descriptor sets of plugin requests, with {@code null} for invocations
+     *                     without Java plugins, or {@code null} if plugins do not run in process.
+     */
+    static void deleteRequestFiles(final List<File> requestFiles) {
+        if (requestFiles != null) {
+            for (final File requestFile : requestFiles) {
+                if (requestFile != null) {
+                    FileUtils.fileDelete(requestFile.getAbsolutePath());
+                }
+            }
+        }
+    }
+
+    /**
+     * Builds a {@code CodeGeneratorRequest}.
+     *
+     * @param descriptorSetFile a descriptor set of the definitions and all their imports,
+     *                          in which every file follows its dependencies.
+     * @param fileNames names of the definitions to generate files for.
+     * @return the serialised request.
+     * @throws IOException if the descriptor set cannot be read or parsed.
+     */
+    static byte[] buildRequest(final File descriptorSetFile, final List<String> fileNames) throws IOException {
+        final ByteArrayOutputStream request = new ByteArrayOutputStream();
+        for (final String fileName : fileNames) {
+            writeField(request, FILE_TO_GENERATE_FIELD, fileName.getBytes(Charsets.UTF_8));
+        }
+        final byte[] bytes = Files.toByteArray(descriptorSetFile);
+        final WireReader reader = new WireReader(bytes, 0, bytes.length);
+        while (reader.hasMore()) {
+            final long tag = reader.readVarint();
+            final int wireType = (int) (tag & 7);
+            if (tag >>> 3 == DESCRIPTOR_SET_FILE_FIELD && wireType == WireReader.LENGTH_DELIMITED) {
+                writeField(request, PROTO_FILE_FIELD, reader.readLengthDelimited().toByteArray());
+            } else {
+                reader.skipField(wireType);
+            }
+        }
+        return request.toByteArray();
+    }
+
+    /**
+     * Runs the plugin and writes the files of its response.
+     *
+     * @param request a serialised {@code CodeGeneratorRequest}.
+     * @param outputDirectory the directory into which files are generated.
+     * @return the error reported by the plugin, or {@code null} if it has succeeded.
+     * @throws IOException if the plugin cannot be run, or a file cannot be written.
+     */
+    String generate(final byte[] request, final File outputDirectory) throws IOException {
+        final byte[] response = run(request);
+        final WireReader reader = new WireReader(response, 0, response.length);
+        final List<WireReader> files = new ArrayList<WireReader>();
+        while (reader.hasMore()) {
+            final long tag = reader.readVarint();
+            final int wireType = (int) (tag & 7);
+            if (tag >>> 3 == RESPONSE_ERROR_FIELD && wireType == WireReader.LENGTH_DELIMITED) {
+                return reader.readString();
+            } else if (tag >>> 3 == RESPONSE_FILE_FIELD && wireType == WireReader.LENGTH_DELIMITED) {
+                files.add(reader.readLengthDelimited());
+            } else {
+                reader.skipField(wireType);
+            }
+        }
+        // files are written in order, as later ones may insert into earlier ones
+        for (final WireReader file : files) {
+            writeFile(file, outputDirectory);
+        }
+        return null;
+    }
+
+    private byte[] run(final byte[] request) throws IOException {
+        final String[] args = plugin.getArgs().toArray(new String[plugin.getArgs().size()]);
+        final ByteArrayOutputStream response = new ByteArrayOutputStream();
+        synchronized (STANDARD_STREAMS_LOCK) {
+            final ClassLoader classLoader = getClassLoader();
+            final Method mainMethod;
+            try {
+                mainMethod = classLoader.loadClass(plugin.getMainClass()).getMethod("main", String[].class);
+            } catch (ClassNotFoundException e) {
+                throw new IOException("Main class of protoc plugin " + plugin.getId() + " not found: "
+                        + plugin.getMainClass(), e);
+            } catch (NoSuchMethodException e) {
+                throw new IOException("Main class of protoc plugin " + plugin.getId() + " has no main method", e);
+            }
+            if (!Modifier.isStatic(mainMethod.getModifiers())) {
+                throw new IOException("Main method of protoc plugin " + plugin.getId() + " is not static");
+            }
+            final InputStream systemIn = System.in;
+            final PrintStream systemOut = System.out;
+            final Thread thread = Thread.currentThread();
+            final ClassLoader contextClassLoader = thread.getContextClassLoader();
+            PLUGIN_OUTPUT.capture(thread, response, systemOut);
+            System.setIn(new ByteArrayInputStream(request));
+            System.setOut(PLUGIN_OUT);
+            thread.setContextClassLoader(classLoader);
+            try {
+                mainMethod.invoke(null, (Object) args);
+                PLUGIN_OUT.flush();
+            } catch (IllegalAccessException e) {
+                throw new IOException("Main method of protoc plugin " + plugin.getId() + " is not accessible", e);
+            } catch (InvocationTargetException e) {
+                throw new IOException("Protoc plugin " + plugin.getId() + " failed: " + e.getCause(), e.getCause());
+            } finally {
+                thread.setContextClassLoader(contextClassLoader);
+                System.setOut(systemOut);
+                System.setIn(systemIn);
+                PLUGIN_OUTPUT.capture(null, null, systemOut);
+            }
+        }
+        return response.toByteArray();
+    }
+
+    /**
+     * Returns the class loader of the plugin classpath, creating it if the jars have changed since it was created.
+     * Must be called while holding {@link #STANDARD_STREAMS_LOCK}.
+     */
+    private ClassLoader getClassLoader() throws IOException {
+        final StringBuilder paths = new StringBuilder();
+        final StringBuilder stamps = new StringBuilder();
+        final URL[] urls = new URL[classpath.size()];
+        for (int i = 0; i < urls.length; i++) {
+            final File jar = classpath.get(i);
+            paths.append(jar.getAbsolutePath()).append('\n');
+            stamps.append(jar.length()).append('\0').append(jar.lastModified()).append('\n');
+            try {
+                urls[i] = jar.toURI().toURL();
+            } catch (MalformedURLException e) {
+                throw new IOException("Invalid classpath element " + jar, e);
+            }
+        }
+        final String key = paths.toString();
+        final CachedClassLoader cached = CLASS_LOADERS.get(key);
+        if (cached != null) {
+            if (cached.stamps.equals(stamps.toString())) {
+                return cached.classLoader;
+            }
+            // the jars have been rebuilt, the classes loaded from them are superseded
+            CLASS_LOADERS.remove(key);
+            close(cached.classLoader);
+        }
+        // the parent only provides the classes of the platform
+        final ClassLoader classLoader = new URLClassLoader(urls, ClassLoader.getSystemClassLoader().getParent());
+        CLASS_LOADERS.put(key, new CachedClassLoader(stamps.toString(), classLoader));
+        final Iterator<CachedClassLoader> leastRecentlyUsed = CLASS_LOADERS.values().iterator();
+        while (CLASS_LOADERS.size() > MAX_CLASS_LOADERS) {
+            final CachedClassLoader evicted = leastRecentlyUsed.next();
+            leastRecentlyUsed.remove();
+            close(evicted.classLoader);
+        }
+        return classLoader;
+    }
+
+    /**
+     * Closes a class loader and the jars it has opened.
+     * Class loaders can only be closed on Java 7 or later; on Java 6, they are left to the garbage collector.
+     */
+    private static void close(final ClassLoader classLoader) throws IOException {
+        if (classLoader instanceof Closeable) {
+            Closeables.close((Closeable) classLoader, true);
+        }
+    }
+
+    private static void writeFile(final WireReader file, final File outputDirectory) throws IOException {
+        String name = null;
+        String insertionPoint = null;
+        String content = "";
+        while (file.hasMore()) {
+            final long tag = file.readVarint();
+            final int wireType = (int) (tag & 7);
+            if (wireType != WireReader.LENGTH_DELIMITED) {
+                file.skipField(wireType);
+            } else if (tag >>> 3 == FILE_NAME_FIELD) {
+                name = file.readString();
+            } else if (tag >>> 3 == FILE_INSERTION_POINT_FIELD) {
+                insertionPoint = file.readString();
+            } else if (tag >>> 3 == FILE_CONTENT_FIELD) {
+                content = file.readString();
+            } else {
+                file.skipField(wireType);
+            }
+        }
+        if (name == null || name.isEmpty() || name.startsWith("/") || name.contains("\\")
+                || ImmutableList.copyOf(name.split("/")).contains("..")) {
+            throw new IOException("Invalid file name in protoc plugin response: " + name);
+        }
+        final File targetFile = new File(outputDirectory, name);
+        if (insertionPoint == null || insertionPoint.isEmpty()) {
+            FileUtils.forceMkdir(targetFile.getParentFile());
+            Files.write(content, targetFile, Charsets.UTF_8);
+        } else {
+            insert(targetFile, insertionPoint, content);
+        }
+    }
+
+    /**
+     * Inserts content above the line that contains an insertion point,
+     * indenting each inserted line like the line of the insertion point.
+     */
+    private static void insert(final File targetFile, final String insertionPoint, final String content)
+            throws IOException {
+        if (!targetFile.isFile()) {
+            throw new IOException("Tried to insert into file that doesn't exist: " + targetFile);
+        }
+        final String text = Files.toString(targetFile, Charsets.UTF_8);
+        final int markerIndex = text.indexOf(INSERTION_POINT_PREFIX + insertionPoint + ')');
+        if (markerIndex < 0) {
+            throw new IOException("Insertion point \"" + insertionPoint + "\" not found in " + targetFile);
+        }
+        final int lineStart = text.lastIndexOf('\n', markerIndex) + 1;
+        int indentEnd = lineStart;
+        while (indentEnd < markerIndex && (text.charAt(indentEnd) == ' ' || text.charAt(indentEnd) == '\t')) {
+            indentEnd++;
+        }
+        final String indent = text.substring(lineStart, indentEnd);
+        final StringBuilder result = new StringBuilder(text.length() + content.length());
+        result.append(text, 0, lineStart);
+        int start = 0;
+        while (start < content.length()) {
+            int end = content.indexOf('\n', start);
+            end = end < 0 ? content.length() : end + 1;
+            if (end - start > 1) {
+                result.append(indent);
+            }
+            result.append(content, start, end);
+            start = end;
+        }
+        if (content.length() > 0 && content.charAt(content.length() - 1) != '\n') {
+            result.append('\n');
+        }
+        result.append(text, lineStart, text.length());
+        Files.write(result.toString(), targetFile, Charsets.UTF_8);
+    }
+
+    private static void writeField(final OutputStream out, final int field, final byte[] payload)
+            throws IOException {
+        writeVarint(out, (field << 3) | WireReader.LENGTH_DELIMITED);
+        writeVarint(out, payload.length);
+        out.write(payload);
+    }
+
+    private static void writeVarint(final OutputStream out, final long value) throws IOException {
+        long remaining = value;
+        while ((remaining & ~0x7FL) != 0) {
+            out.write((int) ((remaining & 0x7F) | 0x80));
+            remaining >>>= 7;
+        }
+        out.write((int) remaining);
+    }
+
+    /**
+     * A class loader of a plugin classpath, together with the sizes and modification times of its jars.
+     */
+    private static final class CachedClassLoader {
+
+        private final String stamps;
+
+        private final ClassLoader classLoader;
+
+        CachedClassLoader(final String stamps, final ClassLoader classLoader) {
+            this.stamps = stamps;
+            this.classLoader = classLoader;
+        }
+    }
+
+    /**
+     * Captures output written by the thread that runs a plugin, and passes output of other threads through.
+     */
+    private static final class ThreadOutputStream extends OutputStream {
+
+        private volatile Thread thread;
+
+        private volatile OutputStream capture;
+
+        private volatile OutputStream passThrough = System.out;
+
+        void capture(final Thread thread, final OutputStream capture, final OutputStream passThrough) {
+            this.capture = capture;
+            this.passThrough = passThrough;
+            this.thread = thread;
+        }
+
+        @Override
+        public void write(final int b) throws IOException {
+            if (Thread.currentThread() == thread) {
+                capture.write(b);
+            } else {
+                passThrough.write(b);
+            }
+        }
+
+        @Override
+        public void write(final byte[] b, final int off, final int len) throws IOException {
+            if (Thread.currentThread() == thread) {
+                capture.write(b, off, len);
+            } else {
+                passThrough.write(b, off, len);
+            }
+        }
+
+        @Override
+        public void flush() throws IOException {
+            if (Thread.currentThread() != thread) {
+                passThrough.flush();
+            }
+        }
+    }
+}
@@ -0,0 +1,216 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
+import com.google.common.io.Files;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * Splits a compilation into several {@code protoc} invocations that can run in parallel,
+ * and merges the descriptor sets they produce.
+ *
+ * <p>Definitions that import each other, directly or transitively, are kept in the same shard, so that
+ * shared imports are parsed by as few processes as possible. Such groups are then distributed between
+ * shards by their total size. {@code protoc} resolves imports through the proto path regardless of which files
+ * are listed on its command line, so generators that write one set of files per definition produce the same code.
+ * Generators that write files for all definitions together, such as documentation generators, do not: each shard
+ * writes its own version of such a file, and the one that is written last is kept.</p>
+ *
+ * @since 0.5.1
+ */
+final class ProtocShards {
+
+    /**
+     * The wire format tag of the {@code file} field of {@code FileDescriptorSet}.
+     */
+    private static final int FILE_DESCRIPTOR_TAG = (1 << 3) | WireReader.LENGTH_DELIMITED;
+
+    private ProtocShards() {
+    }
+
+    /**
+     * Partitions definitions into groups closed under imports between them.
+     *
+     * @param protoSourceRoot the proto source root, which is the first element of the proto path.
+     * @param protoFiles definitions to compile.
+     * @param maxShards the maximum number of shards.
+     * @return non-empty shards, each preserving the original order of definitions.
+     * @throws IOException if a definition cannot be read.
+     */
+    static ImmutableList<ImmutableSet<File>> partition(
+            final File protoSourceRoot,
+            final ImmutableSet<File> protoFiles,
+            final int maxShards)
+            throws IOException {
+        final String basePath = protoSourceRoot.getAbsolutePath();
+        final Map<String, File> filesByName = new LinkedHashMap<String, File>();
+        for (final File protoFile : protoFiles) {
+            filesByName.put(
+                    protoFile.getAbsolutePath().substring(basePath.length() + 1).replace(File.separatorChar, '/'),
+                    protoFile);
+        }
+
+        // union-find over definitions that import each other
+        final Map<File, File> parents = new HashMap<File, File>();
+        for (final Map.Entry<String, File> entry : filesByName.entrySet()) {
+            final String content = Files.toString(entry.getValue(), Charsets.UTF_8);
+            for (final String importName : ProtoImportClosure.parseImports(content)) {
+                final File importedFile = filesByName.get(importName);
+                if (importedFile != null) {
+                    union(parents, entry.getValue(), importedFile);
+                }
+            }
+        }
+
+        final Map<File, List<File>> components = new LinkedHashMap<File, List<File>>();
+        final Map<File, Long> componentSizes = new HashMap<File, Long>();
+        for (final File protoFile : protoFiles) {
+            final File root = find(parents, protoFile);
+            List<File> component = components.get(root);
+            if (component == null) {
+                component = new ArrayList<File>();
+                components.put(root, component);
+                componentSizes.put(root, 0L);
+            }
+            component.add(protoFile);
+            componentSizes.put(root, componentSizes.get(root) + protoFile.length());
+        }
+
+        // largest groups first, each into the currently smallest shard
+        final List<File> roots = new ArrayList<File>(components.keySet());
+        Collections.sort(roots, new Comparator<File>() {
+            @Override
+            public int compare(final File o1, final File o2) {
+                return componentSizes.get(o2).compareTo(componentSizes.get(o1));
+            }
+        });
+        final int shardCount = Math.min(maxShards, roots.size());
+        final long[] shardSizes = new long[shardCount];
+        final Map<File, Integer> shardIndices = new HashMap<File, Integer>();
+        for (final File root : roots) {
+            int smallestShard = 0;
+            for (int i = 1; i < shardCount; i++) {
+                if (shardSizes[i] < shardSizes[smallestShard]) {
+                    smallestShard = i;
+                }
+            }
+            shardSizes[smallestShard] += componentSizes.get(root);
+            for (final File protoFile : components.get(root)) {
+                shardIndices.put(protoFile, smallestShard);
+            }
+        }
+
+        final List<ImmutableSet.Builder<File>> shards = new ArrayList<ImmutableSet.Builder<File>>();
+        for (int i = 0; i < shardCount; i++) {
+            shards.add(ImmutableSet.<File>builder());
+        }
+        for (final File protoFile : protoFiles) {
+            shards.get(shardIndices.get(protoFile)).add(protoFile);
+        }
+        final ImmutableList.Builder<ImmutableSet<File>> result = ImmutableList.builder();
+        for (final ImmutableSet.Builder<File> shard : shards) {
+            result.add(shard.build());
+        }
+        return result.build();
+    }
+
+    private static File find(final Map<File, File> parents, final File file) {
+        File root = file;
+        File parent;
+        while ((parent = parents.get(root)) != null) {
+            root = parent;
+        }
+        // path compression
+        File current = file;
+        while (!current.equals(root)) {
+            final File next = parents.get(current);
+            parents.put(current, root);
+            current = next;
+        }
+        return root;
+    }
+
+    private static void union(final Map<File, File> parents, final File file1, final File file2) {
+        final File root1 = find(parents, file1);
+        final File root2 = find(parents, file2);
+        if (!root1.equals(root2)) {
+            parents.put(root2, root1);
+        }
+    }
+
+    /**
+     * Merges descriptor sets written by several invocations into one.
+     *
+     * <p>A {@code FileDescriptorSet} consists of nothing but its repeated {@code file} field, so merging
+     * amounts to concatenating the serialised file descriptors. Descriptors of the same file, which occur
+     * when imports are included in each part, are only kept once. The order of the parts is preserved,
+     * which keeps every file after its dependencies.</p>
+     *
+     * @param parts descriptor sets to merge.
+     * @param target the merged descriptor set.
+     * @throws IOException if a part cannot be read or parsed, or the target cannot be written.
+     */
+    static void mergeDescriptorSets(final List<File> parts, final File target) throws IOException {
+        final Set<String> fileNames = new HashSet<String>();
+        final ByteArrayOutputStream merged = new ByteArrayOutputStream();
+        for (final File part : parts) {
+            final byte[] bytes = Files.toByteArray(part);
+            final WireReader reader = new WireReader(bytes, 0, bytes.length);
+            while (reader.hasMore()) {
+                final int start = reader.getPosition();
+                if (reader.readVarint() != FILE_DESCRIPTOR_TAG) {
+                    throw new IOException("Unexpected content in descriptor set " + part);
+                }
+                final String fileName = readFileName(reader.readLengthDelimited());
+                if (fileName == null || fileNames.add(fileName)) {
+                    merged.write(bytes, start, reader.getPosition() - start);
+                }
+            }
+        }
+        Files.write(merged.toByteArray(), target);
+    }
+
+    /**
+     * Reads the {@code name} field of a serialised {@code FileDescriptorProto}.
+     */
+    private static String readFileName(final WireReader reader) throws IOException {
+        while (reader.hasMore()) {
+            final long tag = reader.readVarint();
+            final int wireType = (int) (tag & 7);
+            if (tag >>> 3 == 1 && wireType == WireReader.LENGTH_DELIMITED) {
+                return reader.readString();
+            }
+            reader.skipField(wireType);
+        }
+        return null;
+    }
+}
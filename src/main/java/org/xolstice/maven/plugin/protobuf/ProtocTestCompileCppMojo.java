@@ -53,7 +53,7 @@ public final class ProtocTestCompileCppMojo extends AbstractProtocTestCompileMoj
     @Override
     protected void addProtocBuilderParameters(final Protoc.Builder protocBuilder) throws MojoExecutionException {
         super.addProtocBuilderParameters(protocBuilder);
-        protocBuilder.setCppOutputDirectory(getOutputDirectory());
+        protocBuilder.setCppOutputDirectory(getProtocOutputDirectory());
         // We need to add project output directory to the protobuf import paths,
         // in case test protobuf definitions extend or depend on production ones
         final File buildOutputDirectory = new File(project.getBuild().getOutputDirectory());
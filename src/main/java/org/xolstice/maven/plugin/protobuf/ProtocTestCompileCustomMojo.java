@@ -167,7 +167,7 @@ public final class ProtocTestCompileCustomMojo extends AbstractProtocTestCompile
         if (pluginParameter != null) {
             protocBuilder.setNativePluginParameter(pluginParameter);
         }
-        protocBuilder.setCustomOutputDirectory(getOutputDirectory());
+        protocBuilder.setCustomOutputDirectory(getProtocOutputDirectory());
 
         // We need to add project output directory to the protobuf import paths,
         // in case test protobuf definitions extend or depend on production ones
@@ -66,7 +66,7 @@ public final class ProtocTestCompileJavaNanoMojo extends AbstractProtocTestCompi
         if (javaNanoOptions != null) {
             protocBuilder.setNativePluginParameter(javaNanoOptions);
         }
-        protocBuilder.setJavaNanoOutputDirectory(getOutputDirectory());
+        protocBuilder.setJavaNanoOutputDirectory(getProtocOutputDirectory());
         // We need to add project output directory to the protobuf import paths,
         // in case test protobuf definitions extend or depend on production ones
         final File buildOutputDirectory = new File(project.getBuild().getOutputDirectory());
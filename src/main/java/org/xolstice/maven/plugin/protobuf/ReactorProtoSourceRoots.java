@@ -0,0 +1,126 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.collect.ImmutableList;
+import org.apache.maven.artifact.Artifact;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.model.Plugin;
+import org.apache.maven.model.PluginExecution;
+import org.apache.maven.project.MavenProject;
+import org.codehaus.plexus.util.xml.Xpp3Dom;
+
+import java.io.File;
+import java.util.LinkedHashSet;
+import java.util.Set;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Maps dependencies on other modules of the current reactor to the proto source roots of those modules,
+ * as configured for the main compilation goals of this plugin.
+ *
+ * <p>Only plain jar dependencies are mapped. Attached artifacts, such as test jars, may contain definitions
+ * from other source roots, so they are always handled as packaged artifacts.</p>
+ *
+ * @since 0.5.1
+ */
+final class ReactorProtoSourceRoots {
+
+    private static final String PROTO_SOURCE_ROOT = "protoSourceRoot";
+
+    private static final String DEFAULT_PROTO_SOURCE_ROOT = "src/main/proto";
+
+    private static final String MAIN_GOAL_PREFIX = "compile";
+
+    private final MavenSession session;
+
+    private final String pluginKey;
+
+    /**
+     * Constructs a new instance.
+     *
+     * @param session current Maven session.
+     * @param pluginKey the {@code groupId:artifactId} key of this plugin.
+     */
+    ReactorProtoSourceRoots(final MavenSession session, final String pluginKey) {
+        this.session = checkNotNull(session, "session");
+        this.pluginKey = checkNotNull(pluginKey, "pluginKey");
+    }
+
+    /**
+     * Finds the proto source roots of the reactor module that produces the specified dependency.
+     *
+     * @param artifact a dependency artifact.
+     * @return existing proto source roots, or an empty list if the artifact is not produced by a module
+     *         of the current reactor that compiles proto definitions with this plugin.
+     */
+    ImmutableList<File> find(final Artifact artifact) {
+        if (artifact.hasClassifier() || !"jar".equals(artifact.getType())) {
+            return ImmutableList.of();
+        }
+        final MavenProject reactorProject = findReactorProject(artifact);
+        if (reactorProject == null) {
+            return ImmutableList.of();
+        }
+        final Plugin plugin = reactorProject.getPlugin(pluginKey);
+        if (plugin == null) {
+            return ImmutableList.of();
+        }
+        final Set<File> protoSourceRoots = new LinkedHashSet<File>();
+        for (final PluginExecution execution : plugin.getExecutions()) {
+            for (final String goal : execution.getGoals()) {
+                if (goal.startsWith(MAIN_GOAL_PREFIX)) {
+                    String protoSourceRoot = getProtoSourceRoot(execution.getConfiguration());
+                    if (protoSourceRoot == null) {
+                        protoSourceRoot = getProtoSourceRoot(plugin.getConfiguration());
+                    }
+                    if (protoSourceRoot == null) {
+                        protoSourceRoot = DEFAULT_PROTO_SOURCE_ROOT;
+                    }
+                    File protoSourceRootFile = new File(protoSourceRoot);
+                    if (!protoSourceRootFile.isAbsolute()) {
+                        protoSourceRootFile = new File(reactorProject.getBasedir(), protoSourceRoot);
+                    }
+                    if (protoSourceRootFile.isDirectory()) {
+                        protoSourceRoots.add(protoSourceRootFile);
+                    }
+                }
+            }
+        }
+        return ImmutableList.copyOf(protoSourceRoots);
+    }
+
+    private MavenProject findReactorProject(final Artifact artifact) {
+        for (final MavenProject reactorProject : session.getProjects()) {
+            if (reactorProject.getGroupId().equals(artifact.getGroupId())
+                    && reactorProject.getArtifactId().equals(artifact.getArtifactId())
+                    && reactorProject.getVersion().equals(artifact.getBaseVersion())) {
+                return reactorProject;
+            }
+        }
+        return null;
+    }
+
+    private static String getProtoSourceRoot(final Object configuration) {
+        if (!(configuration instanceof Xpp3Dom)) {
+            return null;
+        }
+        final Xpp3Dom child = ((Xpp3Dom) configuration).getChild(PROTO_SOURCE_ROOT);
+        return child != null && child.getValue() != null ? child.getValue().trim() : null;
+    }
+}
@@ -0,0 +1,259 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+import com.google.common.io.BaseEncoding;
+import com.google.common.io.ByteStreams;
+import com.google.common.io.Files;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.util.FileUtils;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.net.HttpURLConnection;
+import java.net.MalformedURLException;
+import java.net.URISyntaxException;
+import java.net.URL;
+import java.net.URLConnection;
+import java.util.UUID;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * A remote backend of the {@link OutputCache build cache}, which transfers cache entries with
+ * HTTP {@code GET} and {@code PUT} requests to {@code <url>/<key>.zip}.
+ * A {@code file:} URL can be used instead, to share a cache in a directory.
+ *
+ * <p>The remote cache is best effort: any failure is logged and treated as a cache miss,
+ * so that files are generated locally instead.</p>
+ *
+ * <p>Credentials are never part of the URL, so that URLs can be logged; they are passed separately,
+ * and sent as basic authentication.</p>
+ *
+ * @since 0.5.1
+ */
+final class RemoteOutputCache {
+
+    private static final String FILE_PROTOCOL = "file";
+
+    private final URL baseUrl;
+
+    private final String username;
+
+    private final String password;
+
+    private final boolean readOnly;
+
+    private final int timeoutMillis;
+
+    private final Log log;
+
+    /**
+     * Constructs a new remote cache instance.
+     *
+     * @param baseUrl the base URL of the cache, which must not contain user information.
+     * @param username the user name sent as basic authentication, or {@code null} to send none.
+     * @param password the password sent as basic authentication, or {@code null} if there is none.
+     * @param readOnly if {@code true}, entries are only downloaded, but never uploaded.
+     * @param timeoutMillis the connect and read timeout of requests, in milliseconds.
+     * @param log a logger for diagnostic output.
+     */
+    RemoteOutputCache(
+            final URL baseUrl,
+            final String username,
+            final String password,
+            final boolean readOnly,
+            final int timeoutMillis,
+            final Log log) {
+        this.baseUrl = checkNotNull(baseUrl, "baseUrl");
+        checkArgument(baseUrl.getUserInfo() == null, "User information in URL: %s", redact(baseUrl.toString()));
+        checkArgument(timeoutMillis >= 0, "Negative timeout: %s", timeoutMillis);
+        this.username = username;
+        this.password = password;
+        this.readOnly = readOnly;
+        this.timeoutMillis = timeoutMillis;
+        this.log = checkNotNull(log, "log");
+    }
+
+    /**
+     * Downloads the entry for a key.
+     *
+     * @param key a digest of all inputs of a compilation.
+     * @param targetFile the file to write the entry to.
+     * @return {@code true} if the entry has been downloaded, {@code false} if there is no such entry,
+     *         or it cannot be downloaded.
+     */
+    boolean download(final String key, final File targetFile) {
+        try {
+            final URL entryUrl = getEntryUrl(key);
+            if (FILE_PROTOCOL.equals(entryUrl.getProtocol())) {
+                final File entryFile = toFile(entryUrl);
+                if (!entryFile.isFile()) {
+                    return false;
+                }
+                Files.copy(entryFile, targetFile);
+                return true;
+            }
+            final HttpURLConnection connection = openConnection(entryUrl);
+            try {
+                final int status = connection.getResponseCode();
+                if (status == HttpURLConnection.HTTP_NOT_FOUND) {
+                    return false;
+                }
+                if (status != HttpURLConnection.HTTP_OK) {
+                    log.warn("Unable to download " + entryUrl + " from the remote build cache: HTTP " + status);
+                    return false;
+                }
+                final InputStream in = connection.getInputStream();
+                try {
+                    final OutputStream out = new BufferedOutputStream(new FileOutputStream(targetFile));
+                    try {
+                        ByteStreams.copy(in, out);
+                    } finally {
+                        out.close();
+                    }
+                } finally {
+                    in.close();
+                }
+                return true;
+            } finally {
+                connection.disconnect();
+            }
+        } catch (IOException e) {
+            log.warn("Unable to download from the remote build cache: " + e.getMessage());
+            targetFile.delete();
+            return false;
+        }
+    }
+
+    /**
+     * Uploads an entry, unless the remote cache is read-only.
+     *
+     * @param key a digest of all inputs of a compilation.
+     * @param entryFile the entry to upload.
+     */
+    void upload(final String key, final File entryFile) {
+        if (readOnly) {
+            return;
+        }
+        try {
+            final URL entryUrl = getEntryUrl(key);
+            if (FILE_PROTOCOL.equals(entryUrl.getProtocol())) {
+                final File targetFile = toFile(entryUrl);
+                FileUtils.forceMkdir(targetFile.getParentFile());
+                final File temporaryFile =
+                        new File(targetFile.getParentFile(), '.' + targetFile.getName() + '.' + UUID.randomUUID());
+                try {
+                    Files.copy(entryFile, temporaryFile);
+                    if (!temporaryFile.renameTo(targetFile) && !targetFile.isFile()) {
+                        throw new IOException("Unable to publish " + temporaryFile + " as " + targetFile);
+                    }
+                } finally {
+                    temporaryFile.delete();
+                }
+                return;
+            }
+            try {
+                put(entryUrl, entryFile);
+            } catch (IOException e) {
+                // streamed requests are not retried when a pooled keep-alive connection turns out to be closed
+                log.debug("Retrying upload to the remote build cache: " + e.getMessage());
+                put(entryUrl, entryFile);
+            }
+        } catch (IOException e) {
+            log.warn("Unable to upload to the remote build cache: " + e.getMessage());
+        }
+    }
+
+    private void put(final URL entryUrl, final File entryFile) throws IOException {
+        final HttpURLConnection connection = openConnection(entryUrl);
+        try {
+            connection.setRequestMethod("PUT");
+            connection.setDoOutput(true);
+            connection.setRequestProperty("Content-Type", "application/zip");
+            connection.setFixedLengthStreamingMode((int) entryFile.length());
+            final OutputStream out = connection.getOutputStream();
+            try {
+                final InputStream in = new BufferedInputStream(new FileInputStream(entryFile));
+                try {
+                    ByteStreams.copy(in, out);
+                } finally {
+                    in.close();
+                }
+            } finally {
+                out.close();
+            }
+            final int status = connection.getResponseCode();
+            if (status < 200 || status >= 300) {
+                log.warn("Unable to upload " + entryUrl + " to the remote build cache: HTTP " + status);
+            } else if (log.isDebugEnabled()) {
+                log.debug("Uploaded generated files to " + entryUrl);
+            }
+        } finally {
+            connection.disconnect();
+        }
+    }
+
+    private HttpURLConnection openConnection(final URL url) throws IOException {
+        final URLConnection connection = url.openConnection();
+        if (!(connection instanceof HttpURLConnection)) {
+            throw new IOException("Unsupported remote build cache URL: " + url);
+        }
+        connection.setConnectTimeout(timeoutMillis);
+        connection.setReadTimeout(timeoutMillis);
+        connection.setUseCaches(false);
+        if (username != null) {
+            final String credentials = username + ':' + (password != null ? password : "");
+            connection.setRequestProperty("Authorization",
+                    "Basic " + BaseEncoding.base64().encode(credentials.getBytes(Charsets.UTF_8)));
+        }
+        return (HttpURLConnection) connection;
+    }
+
+    /**
+     * Removes user information from a URL, so that it can be logged.
+     *
+     * @param url a URL, which may be malformed.
+     * @return the URL with user information replaced by {@code ***}.
+     */
+    static String redact(final String url) {
+        return url.replaceFirst("(?<=//)[^/@]*@", "***@");
+    }
+
+    private URL getEntryUrl(final String key) throws MalformedURLException {
+        final String base = baseUrl.toExternalForm();
+        return new URL(base.endsWith("/") ? base + key + ".zip" : base + '/' + key + ".zip");
+    }
+
+    private static File toFile(final URL url) throws IOException {
+        try {
+            return new File(url.toURI());
+        } catch (URISyntaxException e) {
+            throw new IOException("Invalid remote build cache URL: " + url, e);
+        } catch (IllegalArgumentException e) {
+            throw new IOException("Invalid remote build cache URL: " + url, e);
+        }
+    }
+}
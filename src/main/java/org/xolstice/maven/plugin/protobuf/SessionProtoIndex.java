@@ -0,0 +1,149 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import org.apache.maven.execution.MavenExecutionRequest;
+import org.apache.maven.execution.MavenSession;
+import org.apache.maven.plugin.logging.Log;
+import org.codehaus.plexus.component.annotations.Component;
+
+import java.io.File;
+import java.util.Collections;
+import java.util.Map;
+import java.util.Set;
+import java.util.WeakHashMap;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.FutureTask;
+
+/**
+ * Holds the state of dependency proto processing that is shared by all executions of this plugin
+ * within one Maven session, including executions in different reactor modules and in parallel builds.
+ *
+ * <p>Within a session, each dependency jar is indexed only once, and its proto definitions are materialised
+ * only once for each target location. Concurrent requests for the same jar wait for the first one to complete
+ * and then share its result.</p>
+ *
+ * <p>The component itself is a singleton, so the state is kept separately for each session.
+ * Sessions are identified by their execution request, which is shared between the per-module copies
+ * of the session created by Maven in parallel builds.</p>
+ *
+ * @since 0.5.1
+ */
+@Component(role = SessionProtoIndex.class)
+public class SessionProtoIndex {
+
+    private final Map<MavenExecutionRequest, SessionState> sessions =
+            new WeakHashMap<MavenExecutionRequest, SessionState>();
+
+    /**
+     * Returns the jar index for the session, loading it from the specified location on first use.
+     *
+     * @param session current Maven session.
+     * @param indexFile location of the persisted index, or {@code null} for a transient index.
+     * @param log a logger for diagnostic output.
+     * @return a jar index shared by all executions within the session.
+     */
+    ProtoJarIndex getJarIndex(final MavenSession session, final File indexFile, final Log log) {
+        final SessionState state = getSessionState(session);
+        final String key = indexFile != null ? indexFile.getAbsolutePath() : "";
+        ProtoJarIndex jarIndex = state.jarIndexes.get(key);
+        if (jarIndex == null) {
+            synchronized (state.jarIndexes) {
+                jarIndex = state.jarIndexes.get(key);
+                if (jarIndex == null) {
+                    jarIndex = new ProtoJarIndex(indexFile, log);
+                    jarIndex.load();
+                    state.jarIndexes.put(key, jarIndex);
+                }
+            }
+        }
+        return jarIndex;
+    }
+
+    /**
+     * Registers the first use of a directory within the session.
+     * This is used for directories that need to be cleaned up once per build, but then are shared
+     * between executions.
+     *
+     * @param session current Maven session.
+     * @param directory a directory.
+     * @return {@code true}, if this is the first use of the directory within the session;
+     *         {@code false}, otherwise.
+     */
+    boolean claimDirectory(final MavenSession session, final File directory) {
+        return getSessionState(session).claimedDirectories.add(directory.getAbsolutePath());
+    }
+
+    /**
+     * Materialises proto definitions from a dependency at most once per session.
+     * If another execution is already materialising the same key, this method waits for it to complete.
+     *
+     * @param session current Maven session.
+     * @param key a key that identifies both the dependency (including its size and timestamp)
+     *            and the target location.
+     * @param materialisation a task that performs the actual work and returns the resulting import root.
+     * @return the import root returned by the task.
+     * @throws ExecutionException if the task has failed.
+     * @throws InterruptedException if the current thread was interrupted while waiting.
+     */
+    File materialise(final MavenSession session, final String key, final Callable<File> materialisation)
+            throws ExecutionException, InterruptedException {
+        final ConcurrentMap<String, FutureTask<File>> materialisations = getSessionState(session).materialisations;
+        final FutureTask<File> newTask = new FutureTask<File>(materialisation);
+        FutureTask<File> task = materialisations.putIfAbsent(key, newTask);
+        if (task == null) {
+            task = newTask;
+            task.run();
+        }
+        try {
+            return task.get();
+        } catch (ExecutionException e) {
+            // Let subsequent executions retry instead of failing on a cached error
+            materialisations.remove(key, task);
+            throw e;
+        }
+    }
+
+    private SessionState getSessionState(final MavenSession session) {
+        synchronized (sessions) {
+            SessionState state = sessions.get(session.getRequest());
+            if (state == null) {
+                state = new SessionState();
+                sessions.put(session.getRequest(), state);
+            }
+            return state;
+        }
+    }
+
+    /**
+     * State of a single Maven session.
+     */
+    private static final class SessionState {
+
+        private final ConcurrentMap<String, ProtoJarIndex> jarIndexes =
+                new ConcurrentHashMap<String, ProtoJarIndex>();
+
+        private final Set<String> claimedDirectories =
+                Collections.newSetFromMap(new ConcurrentHashMap<String, Boolean>());
+
+        private final ConcurrentMap<String, FutureTask<File>> materialisations =
+                new ConcurrentHashMap<String, FutureTask<File>>();
+    }
+}
@@ -0,0 +1,138 @@
+package org.xolstice.maven.plugin.protobuf;
+
+/*
+ * Copyright (c) 2016 Maven Protocol Buffers Plugin Authors. All rights reserved.
+ *
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ *
+ *    http://www.apache.org/licenses/LICENSE-2.0
+ *
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ */
+
+import com.google.common.base.Charsets;
+
+import java.io.IOException;
+
+/**
+ * A minimal reader of the protocol buffers wire format, which is sufficient to process descriptor sets
+ * and plugin responses without depending on the protobuf runtime.
+ *
+ * @since 0.5.1
+ */
+final class WireReader {
+
+    /**
+     * The wire type of length-delimited fields: strings, bytes and embedded messages.
+     */
+    static final int LENGTH_DELIMITED = 2;
+
+    private final byte[] bytes;
+
+    private final int limit;
+
+    private int position;
+
+    /**
+     * Constructs a reader of a part of a byte array.
+     *
+     * @param bytes the serialised data.
+     * @param position the offset of the first byte to read.
+     * @param limit the offset after the last byte to read.
+     */
+    WireReader(final byte[] bytes, final int position, final int limit) {
+        this.bytes = bytes;
+        this.position = position;
+        this.limit = limit;
+    }
+
+    boolean hasMore() {
+        return position < limit;
+    }
+
+    int getPosition() {
+        return position;
+    }
+
+    long readVarint() throws IOException {
+        long result = 0;
+        for (int shift = 0; shift < 64; shift += 7) {
+            if (position >= limit) {
+                throw new IOException("Truncated protocol buffers message");
+            }
+            final byte b = bytes[position++];
+            result |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                return result;
+            }
+        }
+        throw new IOException("Malformed varint in protocol buffers message");
+    }
+
+    /**
+     * Reads the payload of a length-delimited field, after its tag has been read.
+     *
+     * @return a reader of the payload.
+     * @throws IOException if the field is truncated.
+     */
+    WireReader readLengthDelimited() throws IOException {
+        final int length = (int) readVarint();
+        final int start = position;
+        skip(length);
+        return new WireReader(bytes, start, position);
+    }
+
+    /**
+     * Reads the payload of a length-delimited field as a string, after its tag has been read.
+     *
+     * @return the string.
+     * @throws IOException if the field is truncated.
+     */
+    String readString() throws IOException {
+        final WireReader payload = readLengthDelimited();
+        return new String(bytes, payload.position, payload.limit - payload.position, Charsets.UTF_8);
+    }
+
+    /**
+     * Returns the remaining bytes of this reader.
+     *
+     * @return a new array.
+     */
+    byte[] toByteArray() {
+        final byte[] result = new byte[limit - position];
+        System.arraycopy(bytes, position, result, 0, result.length);
+        return result;
+    }
+
+    void skip(final int length) throws IOException {
+        if (length < 0 || position + length > limit) {
+            throw new IOException("Truncated protocol buffers message");
+        }
+        position += length;
+    }
+
+    void skipField(final int wireType) throws IOException {
+        switch (wireType) {
+            case 0:
+                readVarint();
+                break;
+            case 1:
+                skip(8);
+                break;
+            case LENGTH_DELIMITED:
+                skip((int) readVarint());
+                break;
+            case 5:
+                skip(4);
+                break;
+            default:
+                throw new IOException("Unsupported wire type " + wireType + " in protocol buffers message");
+        }
+    }
+}
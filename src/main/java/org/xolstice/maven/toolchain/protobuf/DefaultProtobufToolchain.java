@@ -32,12 +32,16 @@ public class DefaultProtobufToolchain extends DefaultToolchain implements Protob
 
     public static final String KEY_PROTOC_EXECUTABLE = "protocExecutable";
 
+    public static final String KEY_PROTOC_INCLUDE_DIRECTORY = "protocIncludeDirectory";
+
     protected DefaultProtobufToolchain(ToolchainModel model, Logger logger) {
         super(model, "protobuf", logger);
     }
 
     private String protocExecutable;
 
+    private String protocIncludeDirectory;
+
     @Override
     public String findTool(String toolName) {
         if ("protoc".equals(toolName)) {
@@ -45,6 +49,11 @@ public class DefaultProtobufToolchain extends DefaultToolchain implements Protob
             if (protoc.exists()) {
                 return protoc.getAbsolutePath();
             }
+        } else if ("protoc-include".equals(toolName) && getProtocIncludeDirectory() != null) {
+            File include = new File(FileUtils.normalize(getProtocIncludeDirectory()));
+            if (include.isDirectory()) {
+                return include.getAbsolutePath();
+            }
         }
         return null;
     }
@@ -59,6 +68,16 @@ public class DefaultProtobufToolchain extends DefaultToolchain implements Protob
         this.protocExecutable = protocExecutable;
     }
 
+    @Override
+    public String getProtocIncludeDirectory() {
+        return this.protocIncludeDirectory;
+    }
+
+    @Override
+    public void setProtocIncludeDirectory(String protocIncludeDirectory) {
+        this.protocIncludeDirectory = protocIncludeDirectory;
+    }
+
     @Override
     public String toString() {
         return "PROTOC[" + getProtocExecutable() + "]";
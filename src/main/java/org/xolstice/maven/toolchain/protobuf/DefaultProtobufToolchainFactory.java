@@ -74,6 +74,18 @@ public class DefaultProtobufToolchainFactory implements ToolchainFactory {
             throw new MisconfiguredToolchainException(
                     "Non-existing protoc executable at " + protocExecutableFile.getAbsolutePath());
         }
+        final String protocIncludeDirectory =
+                configuration.getProperty(DefaultProtobufToolchain.KEY_PROTOC_INCLUDE_DIRECTORY);
+        if (protocIncludeDirectory != null) {
+            final String normalizedProtocIncludeDirectoryPath = FileUtils.normalize(protocIncludeDirectory);
+            final File protocIncludeDirectoryFile = new File(normalizedProtocIncludeDirectoryPath);
+            if (protocIncludeDirectoryFile.isDirectory()) {
+                toolchain.setProtocIncludeDirectory(normalizedProtocIncludeDirectoryPath);
+            } else {
+                throw new MisconfiguredToolchainException(
+                        "Non-existing protoc include directory at " + protocIncludeDirectoryFile.getAbsolutePath());
+            }
+        }
 
         // populate the provides section
         final Properties provides = getProvidesProperties(model);
@@ -28,4 +28,14 @@ public interface ProtobufToolchain extends Toolchain {
     String getProtocExecutable();
 
     void setProtocExecutable(String protocExecutable);
+
+    /**
+     * Returns the include directory of the protobuf distribution, which contains the well-known types.
+     *
+     * @return the include directory, or {@code null} if it is not configured.
+     * @since 0.5.1
+     */
+    String getProtocIncludeDirectory();
+
+    void setProtocIncludeDirectory(String protocIncludeDirectory);
 }